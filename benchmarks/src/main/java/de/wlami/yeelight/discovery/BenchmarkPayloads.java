@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+/**
+ * Realistic discovery messages as sent by the different Yeelight devices.
+ */
+final class BenchmarkPayloads {
+
+  /** search reply of a color bulb with all headers */
+  static final String FULL = "HTTP/1.1 200 OK\r\n" //
+      + "Cache-Control: max-age=3600\r\n" //
+      + "Date: \r\n" //
+      + "Ext: \r\n" //
+      + "Location: yeelight://192.168.2.11:55443\r\n" //
+      + "Server: POSIX UPnP/1.0 YGLC/1\r\n" //
+      + "id: 0x00000abcd1231233\r\n" //
+      + "model: color\r\n" //
+      + "fw_ver: 57\r\n" //
+      + "support: get_prop set_default set_power toggle set_bright start_cf stop_cf set_scene"
+      + " cron_add cron_get cron_del set_ct_abx set_rgb set_hsv set_adjust set_music set_name\r\n" //
+      + "power: on\r\n" //
+      + "bright: 100\r\n" //
+      + "color_mode: 2\r\n" //
+      + "ct: 4000\r\n" //
+      + "rgb: 16711680\r\n" //
+      + "hue: 359\r\n" //
+      + "sat: 100\r\n" //
+      + "name: bGl2aW5nIHJvb20=\r\n";
+
+  /** advertisement of a ceiling light with a long list of supported functions */
+  static final String LONG_SUPPORT = "NOTIFY * HTTP/1.1\r\n" //
+      + "Host: 239.255.255.250:1982\r\n" //
+      + "Cache-Control: max-age=3584\r\n" //
+      + "Location: yeelight://192.168.2.12:55443\r\n" //
+      + "NTS: ssdp:alive\r\n" //
+      + "Server: POSIX UPnP/1.0 YGLC/1\r\n" //
+      + "id: 0x0000000012345678\r\n" //
+      + "model: ceiling\r\n" //
+      + "fw_ver: 62\r\n" //
+      + "support: get_prop set_default set_power toggle set_bright set_bright start_cf stop_cf"
+      + " set_scene cron_add cron_get cron_del set_ct_abx set_rgb set_hsv set_adjust adjust_bright"
+      + " adjust_ct adjust_color set_music set_name bg_set_rgb bg_set_hsv bg_set_ct_abx bg_start_cf"
+      + " bg_stop_cf bg_set_scene bg_set_default bg_set_power bg_set_bright bg_set_adjust"
+      + " bg_adjust_bright bg_adjust_color bg_adjust_ct bg_toggle dev_toggle udp_sess_new"
+      + " udp_sess_keep_alive udp_chroma_sess_new\r\n" //
+      + "power: off\r\n" //
+      + "bright: 50\r\n" //
+      + "color_mode: 2\r\n" //
+      + "ct: 2700\r\n" //
+      + "rgb: 0\r\n" //
+      + "hue: 0\r\n" //
+      + "sat: 0\r\n" //
+      + "name: \r\n";
+
+  /** reply with broken and unknown lines */
+  static final String MALFORMED = "HTTP/1.1 200 OK\r\n" //
+      + "Cache-Control: no-cache\r\n" //
+      + "Location: yeelight://999.1.1.1:notaport\r\n" //
+      + "id\r\n" //
+      + ": 0x1\r\n" //
+      + "id: 0x00000000deadbeef\r\n" //
+      + "fw_ver: latest\r\n" //
+      + "support:\r\n" //
+      + "bright: 99999999999\r\n" //
+      + "hue: -\r\n" //
+      + "X-Unknown-Header: some value\r\n" //
+      + "name: \r\n";
+
+  private BenchmarkPayloads() {}
+
+  static String get(String name) {
+    switch (name) {
+      case "full":
+        return FULL;
+      case "longSupport":
+        return LONG_SUPPORT;
+      case "malformed":
+        return MALFORMED;
+      default:
+        throw new IllegalArgumentException("unknown payload " + name);
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+/**
+ * End-to-end latency of a discovery with <code>responders</code> devices simulated by a
+ * {@link YeelightSimulator} on loopback. Each operation sends the search and completes when every
+ * device has answered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoveryClientBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int responders;
+
+  private YeelightSimulator simulator;
+  private DiscoveryClient client;
+  private NetworkInterface loopback;
+
+  @Setup
+  public void setup() throws IOException {
+    loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(responders);
+    simulator = new YeelightSimulator(config);
+    simulator.start();
+    client = new DiscoveryClient() {
+      @Override
+      protected void sendDiscoveryPacket(DatagramSocket socket) throws IOException {
+        byte[] search = createSearchRequest();
+        socket.send(new DatagramPacket(search, search.length, simulator.getAddress()));
+      }
+    };
+  }
+
+  @TearDown
+  public void tearDown() {
+    simulator.close();
+  }
+
+  @Benchmark
+  public List<DiscoveredDevice> discoverAll() throws Exception {
+    return client
+        .discoverAsync(10, TimeUnit.SECONDS, loopback, device -> true, responders)
+        .get();
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the string based and the byte based variants of
+ * {@link DiscoveryResponseParser#parseResponse(String)}. The string variant includes decoding the
+ * received bytes as {@link UDPListener} did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DiscoveryResponseParserBenchmark {
+
+  @Param({"full", "longSupport", "malformed"})
+  public String payload;
+
+  private final DiscoveryResponseParser parser = new DiscoveryResponseParser();
+  private byte[] data;
+  private ByteBuffer directBuffer;
+
+  @Setup
+  public void setup() {
+    data = BenchmarkPayloads.get(payload).getBytes(StandardCharsets.UTF_8);
+    directBuffer = ByteBuffer.allocateDirect(data.length);
+    directBuffer.put(data).flip();
+  }
+
+  @Benchmark
+  public DiscoveredDevice parseString() {
+    return parser.parseResponse(new String(data, 0, data.length, StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public DiscoveredDevice parseBytes() {
+    return parser.parseResponse(data, 0, data.length);
+  }
+
+  @Benchmark
+  public DiscoveredDevice parseDirectBuffer() {
+    return parser.parseResponse(directBuffer);
+  }
+
+}
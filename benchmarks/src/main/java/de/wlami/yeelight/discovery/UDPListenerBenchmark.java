@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packet handling of {@link UDPListener} on a loopback socket. Each operation sends one reply to
+ * the listener and waits until it has been received, parsed and handed to the consumer. A reply
+ * that is lost on the way fails the iteration instead of hanging the run.<br>
+ * <br>
+ * Note that the GC profiler only accounts the allocations of the benchmark thread, which is the
+ * sending side here. The allocations of the listener thread show up in the overall GC rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UDPListenerBenchmark {
+
+  /** how long an operation waits for its reply before it fails */
+  private static final long REPLY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final AtomicLong handled = new AtomicLong();
+  private DatagramSocket listenerSocket;
+  private DatagramSocket senderSocket;
+  private DatagramPacket reply;
+  private ExecutorService executor;
+
+  @Setup
+  public void setup() throws IOException {
+    listenerSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    senderSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    byte[] data = BenchmarkPayloads.FULL.getBytes(StandardCharsets.UTF_8);
+    reply = new DatagramPacket(data, data.length, listenerSocket.getLocalSocketAddress());
+    executor = Executors.newSingleThreadExecutor();
+    executor.execute(new UDPListener(listenerSocket, device -> handled.incrementAndGet()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    listenerSocket.close();
+    senderSocket.close();
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public long receiveAndParse() throws IOException {
+    long expected = handled.get() + 1;
+    senderSocket.send(reply);
+    long deadline = System.nanoTime() + REPLY_TIMEOUT_NANOS;
+    long current;
+    while ((current = handled.get()) < expected) {
+      if (System.nanoTime() - deadline > 0) {
+        throw new IllegalStateException("reply has not been handled within 1 s, it was lost");
+      }
+      Thread.yield();
+    }
+    return current;
+  }
+
+}
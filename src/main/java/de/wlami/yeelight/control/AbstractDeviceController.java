@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.discovery.ThreadSupport;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps one connection per device id, checks the supported functions, applies the command timeout
+ * and forwards the notifications. Every command is reported to the {@link ControlMetrics}.
+ * Subclasses only open the connections. They are opened on a separate thread, so a device that
+ * cannot be reached does not hold up the commands to other devices.
+ *
+ * @param <C> type of the connections
+ */
+@Slf4j
+abstract class AbstractDeviceController<C extends ControllerConnection>
+    implements DeviceController {
+
+  /** the connections by device id, including those that are being opened */
+  private final ConcurrentMap<String, ConnectionSlot<C>> connections = new ConcurrentHashMap<>();
+  private final List<NotificationListener> listeners = new CopyOnWriteArrayList<>();
+  private ScheduledExecutorService timeoutExecutor;
+  private ExecutorService connectExecutor;
+  private volatile boolean closed;
+
+  /** timeout for opening a connection */
+  @Getter
+  @Setter
+  private volatile int connectTimeoutMillis = 3000;
+  /** time after which a command without response fails with a {@link TimeoutException} */
+  @Getter
+  @Setter
+  private volatile long commandTimeoutMillis = 5000;
+  /** gets the latency and the outcome of every command */
+  @Getter
+  @Setter
+  private volatile ControlMetrics metrics = ControlMetrics.NOOP;
+
+  /**
+   * Opens a connection to the device.
+   *
+   * @param address unresolved address of the control port.
+   * @param notifications gets the parameters of the <code>props</code> notifications.
+   */
+  protected abstract C connect(String deviceId, InetSocketAddress address,
+      Consumer<Map<String, Object>> notifications) throws IOException;
+
+  @Override
+  public CompletableFuture<List<Object>> send(DiscoveredDevice device, String method,
+      Object... params) {
+    long start = System.nanoTime();
+    CompletableFuture<List<Object>> result = new CompletableFuture<>();
+    if (closed) {
+      failed(result, device, method, start, controllerClosed());
+      return result;
+    }
+    List<String> supportedFunctions = device.getSupportedFunctions();
+    if (supportedFunctions != null && !supportedFunctions.isEmpty()
+        && !supportedFunctions.contains(method)) {
+      failed(result, device, method, start, new UnsupportedOperationException(
+          "device [" + device.getId() + "] does not support [" + method + "]"));
+      return result;
+    }
+    ConnectionSlot<C> slot;
+    try {
+      slot = connection(device);
+    } catch (RuntimeException e) {
+      failed(result, device, method, start, e);
+      return result;
+    }
+    CompletableFuture<List<Object>> response = new CompletableFuture<>();
+    // runs right away if the connection is open, otherwise once it has been opened
+    slot.whenOpened(() -> {
+      C open;
+      try {
+        open = slot.connection.join();
+      } catch (CompletionException e) {
+        response.completeExceptionally(e.getCause());
+        return;
+      }
+      CompletableFuture<List<Object>> sent;
+      try {
+        sent = open.send(method, Arrays.asList(params));
+      } catch (RuntimeException e) {
+        response.completeExceptionally(e);
+        return;
+      }
+      sent.whenComplete((value, error) -> {
+        if (error != null) {
+          response.completeExceptionally(error);
+        } else {
+          response.complete(value);
+        }
+      });
+      // a timeout or cancellation releases the pending command of the connection
+      response.whenComplete((value, error) -> {
+        if (error != null) {
+          sent.completeExceptionally(error);
+        }
+      });
+    });
+    long timeout = commandTimeoutMillis;
+    ScheduledFuture<?> timer;
+    try {
+      timer = getTimeoutExecutor().schedule(
+          () -> response.completeExceptionally(new TimeoutException("device [" + device.getId()
+              + "] did not answer [" + method + "] within [" + timeout + "]ms")),
+          timeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // closed in the meantime
+      timer = null;
+      response.completeExceptionally(controllerClosed());
+    }
+    ScheduledFuture<?> scheduled = timer;
+    ControlMetrics commandMetrics = metrics;
+    response.whenComplete((value, error) -> {
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+      record(commandMetrics, device, method, start, error);
+    });
+    return response;
+  }
+
+  private void failed(CompletableFuture<List<Object>> result, DiscoveredDevice device,
+      String method, long start, Throwable error) {
+    record(metrics, device, method, start, error);
+    result.completeExceptionally(error);
+  }
+
+  private static void record(ControlMetrics metrics, DiscoveredDevice device, String method,
+      long start, Throwable error) {
+    try {
+      metrics.commandCompleted(device.getId(), method, System.nanoTime() - start, error);
+    } catch (RuntimeException e) {
+      log.warn("control metrics failed", e);
+    }
+  }
+
+  @Override
+  public void addNotificationListener(NotificationListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeNotificationListener(NotificationListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public int getConnectionCount() {
+    return (int) connections.values().stream().map(slot -> slot.connection.getNow(null))
+        .filter(connection -> connection != null && connection.isOpen()).count();
+  }
+
+  @Override
+  public void disconnect(String deviceId) {
+    ConnectionSlot<C> slot = connections.remove(deviceId);
+    if (slot != null) {
+      // a connection that is still being opened is closed as soon as it is open
+      slot.connection.thenAccept(ControllerConnection::close);
+    }
+  }
+
+  /**
+   * Closes all connections and releases the threads. Further commands fail with an
+   * {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    for (String deviceId : connections.keySet()) {
+      disconnect(deviceId);
+    }
+    synchronized (this) {
+      if (timeoutExecutor != null) {
+        timeoutExecutor.shutdownNow();
+      }
+      if (connectExecutor != null) {
+        connectExecutor.shutdown();
+      }
+    }
+  }
+
+  private static IllegalStateException controllerClosed() {
+    return new IllegalStateException("controller closed");
+  }
+
+  /**
+   * Returns the open connection to the device or starts opening a new one. Concurrent commands to
+   * the same device wait for that connection instead of opening their own. The connection is opened
+   * outside of the map, so that other devices are not blocked by a slow connect.
+   */
+  private ConnectionSlot<C> connection(DiscoveredDevice device) {
+    if (device.getId() == null) {
+      throw new IllegalArgumentException("device has no id");
+    }
+    InetSocketAddress address = Locations.controlAddress(device);
+    ConnectionSlot<C> current = connections.get(device.getId());
+    if (current != null && isUsable(current.connection, address)) {
+      return current;
+    }
+    ConnectionSlot<C> opening = new ConnectionSlot<>();
+    ConnectionSlot<C> result = connections.compute(device.getId(), (id, existing) -> {
+      if (existing != null) {
+        if (!existing.connection.isDone() || isUsable(existing.connection, address)) {
+          return existing;
+        }
+        C stale = existing.connection.getNow(null);
+        if (stale != null) {
+          stale.close();
+        }
+      }
+      return opening;
+    });
+    if (result == opening) {
+      String id = device.getId();
+      try {
+        getConnectExecutor().execute(() -> {
+          try {
+            if (closed) {
+              throw controllerClosed();
+            }
+            opening.connection
+                .complete(connect(id, address, properties -> notifyListeners(id, properties)));
+          } catch (IOException | RuntimeException e) {
+            // the next command tries again
+            connections.remove(id, opening);
+            opening.connection.completeExceptionally(e);
+          }
+          opening.opened();
+        });
+      } catch (RejectedExecutionException e) {
+        connections.remove(id, opening);
+        opening.connection.completeExceptionally(controllerClosed());
+        opening.opened();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return <code>true</code> if the connection has been opened to that address and is still open.
+   */
+  private static boolean isUsable(CompletableFuture<? extends ControllerConnection> connection,
+      InetSocketAddress address) {
+    if (!connection.isDone() || connection.isCompletedExceptionally()) {
+      return false;
+    }
+    ControllerConnection open = connection.join();
+    return open.isOpen() && open.getAddress().equals(address);
+  }
+
+  /**
+   * A connection and the commands that wait for it to be opened. The commands are sent in the
+   * order they have been issued, also those that arrive while the waiting ones are being sent.
+   */
+  private static final class ConnectionSlot<C> {
+    private final CompletableFuture<C> connection = new CompletableFuture<>();
+    /** <code>null</code> once all waiting commands have been sent */
+    private List<Runnable> waiting = new ArrayList<>();
+
+    /**
+     * Runs the task right away if the connection attempt is over, otherwise once it is.
+     */
+    void whenOpened(Runnable task) {
+      synchronized (this) {
+        if (waiting != null) {
+          waiting.add(task);
+          return;
+        }
+      }
+      task.run();
+    }
+
+    /**
+     * Runs the waiting tasks. Is called once the connection attempt is over.
+     */
+    void opened() {
+      while (true) {
+        List<Runnable> tasks;
+        synchronized (this) {
+          tasks = waiting;
+          if (tasks.isEmpty()) {
+            waiting = null;
+            return;
+          }
+          waiting = new ArrayList<>();
+        }
+        tasks.forEach(Runnable::run);
+      }
+    }
+  }
+
+  private void notifyListeners(String deviceId, Map<String, Object> properties) {
+    for (NotificationListener listener : listeners) {
+      try {
+        listener.propertiesChanged(deviceId, properties);
+      } catch (RuntimeException e) {
+        log.warn("notification listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * @throws RejectedExecutionException if the controller has been closed.
+   */
+  private synchronized ExecutorService getConnectExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("controller closed");
+    }
+    if (connectExecutor == null) {
+      connectExecutor =
+          Executors.newCachedThreadPool(ThreadSupport.daemonThreads("yedi-control-connect-"));
+    }
+    return connectExecutor;
+  }
+
+  /**
+   * @throws RejectedExecutionException if the controller has been closed.
+   */
+  protected synchronized ScheduledExecutorService getTimeoutExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("controller closed");
+    }
+    if (timeoutExecutor == null) {
+      timeoutExecutor = Executors
+          .newSingleThreadScheduledExecutor(ThreadSupport.daemonThreads("yedi-control-timeout-"));
+    }
+    return timeoutExecutor;
+  }
+
+}
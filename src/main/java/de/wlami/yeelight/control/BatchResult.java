@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of a command that has been sent to many devices by a {@link BatchSender}. Every selected
+ * device is contained in exactly one of the collections.
+ */
+@Getter
+@ToString
+public class BatchResult {
+
+  /** result of the response by device id */
+  private final Map<String, List<Object>> succeeded;
+  /** cause of the failure by device id, e.g. a {@link java.util.concurrent.TimeoutException} */
+  private final Map<String, Throwable> failed;
+  /** ids of the devices that do not list the method in their supported functions */
+  private final List<String> skipped;
+  /** requested ids that are not contained in the given devices */
+  private final List<String> unknown;
+
+  BatchResult(Map<String, List<Object>> succeeded, Map<String, Throwable> failed,
+      List<String> skipped, List<String> unknown) {
+    this.succeeded = Collections.unmodifiableMap(succeeded);
+    this.failed = Collections.unmodifiableMap(failed);
+    this.skipped = Collections.unmodifiableList(skipped);
+    this.unknown = Collections.unmodifiableList(unknown);
+  }
+
+  /**
+   * @return <code>true</code> if the command has been sent to at least one device and all of them
+   *         answered successfully.
+   */
+  public boolean isSuccessful() {
+    return !succeeded.isEmpty() && failed.isEmpty();
+  }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.discovery.ThreadSupport;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends one command to many devices at once, e.g. to switch on all bulbs of a building:<br>
+ * <code>sender.send(registry.getDevices(), device -&gt; "color".equals(device.getModel()), "set_power", "on", "smooth", 500)</code><br>
+ * <br>
+ * At most {@link #getConcurrency()} commands are in flight at the same time, the next device is
+ * sent to as soon as one of them has answered. Each device has to answer within
+ * {@link #getTimeoutMillis()}. Devices that do not list the method in their supported functions
+ * are skipped without sending anything.<br>
+ * <br>
+ * The timeouts are tracked by a thread of the sender, so {@link #close()} it when it is no longer
+ * needed. The wrapped controller is not closed.
+ */
+@Slf4j
+public class BatchSender implements AutoCloseable {
+
+  private final DeviceController controller;
+  /** commands that wait for an answer. They are failed on {@link #close()} */
+  private final Set<CompletableFuture<List<Object>>> inFlight = ConcurrentHashMap.newKeySet();
+  private ScheduledExecutorService timeoutExecutor;
+  private volatile boolean closed;
+  /** maximum number of commands in flight */
+  @Getter
+  private volatile int concurrency = 32;
+  /** time each device has to answer */
+  @Getter
+  private volatile long timeoutMillis = 5000;
+
+  /**
+   * @param controller is used to send the commands.
+   */
+  public BatchSender(DeviceController controller) {
+    this.controller = controller;
+  }
+
+  public void setConcurrency(int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("concurrency must be positive!");
+    }
+    this.concurrency = concurrency;
+  }
+
+  public void setTimeoutMillis(long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("timeoutMillis must be positive!");
+    }
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Sends the command to all devices matching the filter.
+   *
+   * @param devices e.g. the result of a discovery or the content of a registry.
+   * @param filter selects the devices, e.g. by model or name.
+   * @param method the command.
+   * @param params parameters of the command.
+   * @return a future that completes when all selected devices have answered or timed out. It
+   *         never completes exceptionally. After {@link #close()} all devices fail.
+   */
+  public CompletableFuture<BatchResult> send(Collection<DiscoveredDevice> devices,
+      Predicate<DiscoveredDevice> filter, String method, Object... params) {
+    List<DiscoveredDevice> selected = new ArrayList<>();
+    for (DiscoveredDevice device : devices) {
+      if (device.getId() != null && filter.test(device)) {
+        selected.add(device);
+      }
+    }
+    return start(selected, new ArrayList<>(), method, params);
+  }
+
+  /**
+   * Sends the command to the devices with the given ids.
+   *
+   * @param devices e.g. the result of a discovery or the content of a registry.
+   * @param ids ids of the devices. Ids that are not contained in the devices are reported as
+   *        {@link BatchResult#getUnknown()}.
+   * @param method the command.
+   * @param params parameters of the command.
+   * @return a future that completes when all selected devices have answered or timed out. It
+   *         never completes exceptionally. After {@link #close()} all devices fail.
+   */
+  public CompletableFuture<BatchResult> send(Collection<DiscoveredDevice> devices,
+      Collection<String> ids, String method, Object... params) {
+    Set<String> unknown = new LinkedHashSet<>(ids);
+    List<DiscoveredDevice> selected = new ArrayList<>();
+    for (DiscoveredDevice device : devices) {
+      if (unknown.remove(device.getId())) {
+        selected.add(device);
+      }
+    }
+    return start(selected, new ArrayList<>(unknown), method, params);
+  }
+
+  private CompletableFuture<BatchResult> start(List<DiscoveredDevice> selected,
+      List<String> unknown, String method, Object[] params) {
+    List<DiscoveredDevice> targets = new ArrayList<>();
+    List<String> skipped = new ArrayList<>();
+    for (DiscoveredDevice device : selected) {
+      List<String> supportedFunctions = device.getSupportedFunctions();
+      if (supportedFunctions == null || supportedFunctions.isEmpty()
+          || supportedFunctions.contains(method)) {
+        targets.add(device);
+      } else {
+        skipped.add(device.getId());
+      }
+    }
+    log.debug("sending [{}] to [{}] devices, skipping [{}]", method, targets.size(),
+        skipped.size());
+    return new Batch(targets, skipped, unknown, method, params, concurrency, timeoutMillis)
+        .start();
+  }
+
+  /** state of one call of send */
+  private final class Batch {
+    private final Iterator<DiscoveredDevice> targets;
+    private final List<String> order = new ArrayList<>();
+    private final List<String> skipped;
+    private final List<String> unknown;
+    private final String method;
+    private final Object[] params;
+    private final int concurrency;
+    private final long timeoutMillis;
+    private final Map<String, List<Object>> succeeded = new ConcurrentHashMap<>();
+    private final Map<String, Throwable> failed = new ConcurrentHashMap<>();
+    private final AtomicInteger outstanding;
+    private final AtomicInteger permits = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final CompletableFuture<BatchResult> result = new CompletableFuture<>();
+
+    private Batch(List<DiscoveredDevice> targets, List<String> skipped, List<String> unknown,
+        String method, Object[] params, int concurrency, long timeoutMillis) {
+      this.targets = targets.iterator();
+      targets.forEach(device -> order.add(device.getId()));
+      this.skipped = skipped;
+      this.unknown = unknown;
+      this.method = method;
+      this.params = params;
+      this.concurrency = concurrency;
+      this.timeoutMillis = timeoutMillis;
+      this.outstanding = new AtomicInteger(targets.size());
+    }
+
+    private CompletableFuture<BatchResult> start() {
+      if (outstanding.get() == 0) {
+        complete();
+        return result;
+      }
+      permits.set(concurrency);
+      drain();
+      return result;
+    }
+
+    /**
+     * Sends to the next devices while there are free slots. Responses that complete on the
+     * sending thread only add a slot instead of recursing into this method.
+     */
+    private void drain() {
+      while (draining.compareAndSet(false, true)) {
+        try {
+          while (permits.get() > 0 && targets.hasNext()) {
+            permits.decrementAndGet();
+            sendTo(targets.next());
+          }
+        } finally {
+          draining.set(false);
+        }
+        if (permits.get() == 0 || !targets.hasNext()) {
+          return;
+        }
+      }
+    }
+
+    private void sendTo(DiscoveredDevice device) {
+      String id = device.getId();
+      CompletableFuture<List<Object>> response;
+      try {
+        response = closed ? failed(senderClosed()) : controller.send(device, method, params);
+      } catch (RuntimeException e) {
+        response = failed(e);
+      }
+      CompletableFuture<List<Object>> command = response;
+      ScheduledFuture<?> timer;
+      try {
+        timer = getTimeoutExecutor().schedule(
+            () -> command.completeExceptionally(new TimeoutException(
+                "device [" + id + "] did not answer within [" + timeoutMillis + "]ms")),
+            timeoutMillis, TimeUnit.MILLISECONDS);
+        inFlight.add(command);
+      } catch (RejectedExecutionException e) {
+        // closed in the meantime, nothing would time out the command
+        timer = null;
+        command.completeExceptionally(senderClosed());
+      }
+      if (closed) {
+        // close() may have missed the command
+        command.completeExceptionally(senderClosed());
+      }
+      ScheduledFuture<?> commandTimer = timer;
+      command.whenComplete((value, error) -> {
+        if (commandTimer != null) {
+          commandTimer.cancel(false);
+        }
+        inFlight.remove(command);
+        if (error == null) {
+          succeeded.put(id, value);
+        } else {
+          failed.put(id, error instanceof CompletionException && error.getCause() != null
+              ? error.getCause() : error);
+        }
+        if (outstanding.decrementAndGet() == 0) {
+          complete();
+        } else {
+          permits.incrementAndGet();
+          drain();
+        }
+      });
+    }
+
+    private void complete() {
+      // keep the order of the devices
+      Map<String, List<Object>> orderedSucceeded = new LinkedHashMap<>();
+      Map<String, Throwable> orderedFailed = new LinkedHashMap<>();
+      for (String id : order) {
+        if (succeeded.containsKey(id)) {
+          orderedSucceeded.put(id, succeeded.get(id));
+        } else if (failed.containsKey(id)) {
+          orderedFailed.put(id, failed.get(id));
+        }
+      }
+      result.complete(new BatchResult(orderedSucceeded, orderedFailed, skipped, unknown));
+    }
+  }
+
+  /**
+   * Stops the timeout thread. Devices that have not answered yet fail with an
+   * {@link IllegalStateException}, later batches fail for all devices.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      if (timeoutExecutor != null) {
+        timeoutExecutor.shutdownNow();
+      }
+    }
+    for (CompletableFuture<List<Object>> command : inFlight) {
+      command.completeExceptionally(senderClosed());
+    }
+  }
+
+  private synchronized ScheduledExecutorService getTimeoutExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("sender closed");
+    }
+    if (timeoutExecutor == null) {
+      timeoutExecutor = Executors
+          .newSingleThreadScheduledExecutor(ThreadSupport.daemonThreads("yedi-batch-timeout-"));
+    }
+    return timeoutExecutor;
+  }
+
+  private static CompletableFuture<List<Object>> failed(Throwable cause) {
+    CompletableFuture<List<Object>> result = new CompletableFuture<>();
+    result.completeExceptionally(cause);
+    return result;
+  }
+
+  private static IllegalStateException senderClosed() {
+    return new IllegalStateException("sender closed");
+  }
+
+}
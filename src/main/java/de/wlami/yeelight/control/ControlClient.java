@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import de.wlami.yeelight.discovery.ThreadSupport;
+
+/**
+ * Sends commands to the devices found by the discovery. The client keeps one long-lived TCP
+ * connection per device id, which is opened with the first command and reused for all following
+ * ones. If the connection is lost, e.g. because the device has been restarted, it is opened again
+ * with the next command. If the location of a device changes the connection is moved to the new
+ * address.<br>
+ * <br>
+ * Commands do not wait for the response of the previous one, so many commands per device can be
+ * in flight at the same time. Example:<br>
+ * <code>client.setPower(device, true).thenCompose(ok -&gt; client.setBrightness(device, 50))</code><br>
+ * <br>
+ * Opening a connection happens on the calling thread and every connection has its own reader
+ * thread. On Java 21 these can be virtual threads, see
+ * {@link #ControlClient(ThreadFactory)}. Otherwise use the {@link NioControlEngine} for thousands
+ * of devices. Close the client when you are done in order to close all connections.
+ */
+public class ControlClient extends AbstractDeviceController<DeviceConnection> {
+
+  private final ThreadFactory readerThreads;
+
+  /**
+   * Creates a client with a daemon platform thread per connection.
+   */
+  public ControlClient() {
+    this(ThreadSupport.daemonThreads("yedi-control-"));
+  }
+
+  /**
+   * @param readerThreads creates the reader thread of each connection, e.g.
+   *        {@link ThreadSupport#virtualThreads(String)}. The threads are renamed after the device.
+   */
+  public ControlClient(ThreadFactory readerThreads) {
+    this.readerThreads = readerThreads;
+  }
+
+  @Override
+  protected DeviceConnection connect(String deviceId, InetSocketAddress address,
+      Consumer<Map<String, Object>> notifications) throws IOException {
+    return new DeviceConnection(deviceId, address, getConnectTimeoutMillis(), notifications,
+        readerThreads);
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+/**
+ * Receives measurements of the commands sent by a {@link DeviceController}. Implement it to feed
+ * the metrics library of your choice. The methods are called on the threads that complete the
+ * commands and must therefore be fast and thread-safe.
+ */
+public interface ControlMetrics {
+
+  /** ignores all measurements */
+  ControlMetrics NOOP = new ControlMetrics() {};
+
+  /**
+   * A command has been answered, has failed or has timed out.
+   *
+   * @param deviceId the device the command has been sent to.
+   * @param method the method of the command.
+   * @param latencyNanos time from sending the command until its completion.
+   * @param error the reason of the failure, e.g. a {@link CommandException} or a
+   *        {@link java.util.concurrent.TimeoutException}, or <code>null</code> if the command
+   *        succeeded.
+   */
+  default void commandCompleted(String deviceId, String method, long latencyNanos,
+      Throwable error) {}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The connection to one device as used by {@link AbstractDeviceController}.
+ */
+interface ControllerConnection extends AutoCloseable {
+
+  /**
+   * Sends the command. The returned future completes with the <code>result</code> of the
+   * response, exceptionally with a {@link CommandException} if the device answered with an error
+   * or with an {@link IOException} if the connection is lost.
+   */
+  CompletableFuture<List<Object>> send(String method, List<?> params);
+
+  /**
+   * @return <code>false</code> once the connection has been closed.
+   */
+  boolean isOpen();
+
+  /**
+   * @return unresolved address of the control port.
+   */
+  InetSocketAddress getAddress();
+
+  /**
+   * Closes the connection. Pending commands fail.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A long-lived TCP connection to the control port of one device. Commands are written as soon as
+ * they are sent and a reader thread matches the responses to the pending commands by their id, so
+ * any number of commands can be in flight at the same time. Once the connection has been closed,
+ * by either side, all pending and all further commands fail with an {@link IOException}.
+ */
+@Slf4j
+class DeviceConnection implements ControllerConnection {
+
+  @Getter
+  private final String deviceId;
+  @Getter
+  private final InetSocketAddress address;
+  private final Socket socket;
+  private final OutputStream output;
+  private final PendingCommands pending;
+  private volatile boolean open = true;
+
+  /**
+   * Connects to the device and starts the reader thread.
+   *
+   * @param address unresolved address of the control port.
+   * @param notifications gets the parameters of the <code>props</code> notifications.
+   * @param readerThreads creates the reader thread.
+   */
+  DeviceConnection(String deviceId, InetSocketAddress address, int connectTimeoutMillis,
+      Consumer<Map<String, Object>> notifications, ThreadFactory readerThreads)
+      throws IOException {
+    this.deviceId = deviceId;
+    this.address = address;
+    this.pending = new PendingCommands(deviceId, notifications);
+    this.socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+          connectTimeoutMillis);
+      this.output = socket.getOutputStream();
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    Thread reader = readerThreads.newThread(this::read);
+    reader.setName("yedi-control-" + deviceId);
+    reader.start();
+    log.debug("connected to device [{}] at [{}]", deviceId, address);
+  }
+
+  @Override
+  public CompletableFuture<List<Object>> send(String method, List<?> params) {
+    CompletableFuture<List<Object>> future = new CompletableFuture<>();
+    int id = pending.register(future);
+    if (!open) {
+      // close() might have missed the command
+      future.completeExceptionally(new IOException("connection to [" + deviceId + "] is closed"));
+      return future;
+    }
+    byte[] line = (Json.command(id, method, params) + "\r\n").getBytes(StandardCharsets.UTF_8);
+    try {
+      synchronized (output) {
+        output.write(line);
+        output.flush();
+      }
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      close(e);
+    }
+    return future;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * @return number of commands waiting for a response.
+   */
+  int getPendingCount() {
+    return pending.size();
+  }
+
+  private void read() {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.trim().isEmpty()) {
+          pending.dispatch(line);
+        }
+      }
+      close(new IOException("connection to [" + deviceId + "] closed by device"));
+    } catch (IOException e) {
+      close(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    close(new IOException("connection to [" + deviceId + "] has been closed"));
+  }
+
+  private synchronized void close(IOException cause) {
+    if (!open) {
+      return;
+    }
+    open = false;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      log.debug("could not close connection to [{}]", deviceId, e);
+    }
+    log.debug("disconnected from device [{}]: {}", deviceId, cause.getMessage());
+    pending.failAll(cause);
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+
+/**
+ * Sends commands to discovered devices over one long-lived connection per device. Implemented by
+ * the thread-per-connection {@link ControlClient} and the event-loop based
+ * {@link NioControlEngine}.
+ */
+public interface DeviceController extends AutoCloseable {
+
+  /** effect parameter of most commands: change immediately */
+  String EFFECT_SUDDEN = "sudden";
+  /** effect parameter of most commands: change gradually within the given duration */
+  String EFFECT_SMOOTH = "smooth";
+
+  /**
+   * Sends a command to the device.
+   *
+   * @param device a discovered device. Its id and location are required.
+   * @param method one of the device's {@link DiscoveredDevice#getSupportedFunctions()}.
+   * @param params parameters of the method. Strings, numbers or booleans.
+   * @return a future for the <code>result</code> of the response, e.g. <code>["ok"]</code>. It
+   *         completes exceptionally with a {@link CommandException} if the device reports an
+   *         error, with an {@link IOException} if the device cannot be reached, with a
+   *         {@link TimeoutException} if it does not answer in time and with an
+   *         {@link UnsupportedOperationException} if the device does not support the method.
+   */
+  CompletableFuture<List<Object>> send(DiscoveredDevice device, String method, Object... params);
+
+  /**
+   * Switches the device on or off.
+   */
+  default CompletableFuture<List<Object>> setPower(DiscoveredDevice device, boolean on) {
+    return send(device, "set_power",
+        on ? DiscoveredDevice.Constants.POWER_ON : DiscoveredDevice.Constants.POWER_OFF,
+        EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * Switches the device on if it is off and vice versa.
+   */
+  default CompletableFuture<List<Object>> toggle(DiscoveredDevice device) {
+    return send(device, "toggle");
+  }
+
+  /**
+   * @param brightness 1 to 100 percent.
+   */
+  default CompletableFuture<List<Object>> setBrightness(DiscoveredDevice device, int brightness) {
+    return send(device, "set_bright", brightness, EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @param rgb color as <code>0xRRGGBB</code>.
+   */
+  default CompletableFuture<List<Object>> setRgb(DiscoveredDevice device, int rgb) {
+    return send(device, "set_rgb", rgb, EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @param colorTemperature 1700 to 6500 Kelvin.
+   */
+  default CompletableFuture<List<Object>> setColorTemperature(DiscoveredDevice device,
+      int colorTemperature) {
+    return send(device, "set_ct_abx", colorTemperature, EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * Reads the current values of the properties, e.g. <code>power</code>, <code>bright</code> or
+   * <code>ct</code>.
+   *
+   * @return a future for the values by property name. Unknown properties have an empty value.
+   */
+  default CompletableFuture<Map<String, String>> getProperties(DiscoveredDevice device,
+      String... properties) {
+    return send(device, "get_prop", (Object[]) properties).thenApply(values -> {
+      Map<String, String> result = new LinkedHashMap<>();
+      for (int i = 0; i < properties.length; i++) {
+        result.put(properties[i], i < values.size() ? String.valueOf(values.get(i)) : "");
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Registers a listener for the property changes of all connected devices.
+   */
+  void addNotificationListener(NotificationListener listener);
+
+  void removeNotificationListener(NotificationListener listener);
+
+  /**
+   * @return number of open connections.
+   */
+  int getConnectionCount();
+
+  /**
+   * Closes the connection to the device. Its pending commands fail. The next command opens a new
+   * connection.
+   */
+  void disconnect(String deviceId);
+
+  /**
+   * Closes all connections.
+   */
+  @Override
+  void close();
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.util.Map;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Immutable snapshot of the state of one device as kept by the {@link DeviceStateCache}. Values
+ * that have not been reported yet are <code>null</code>.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class DeviceState {
+
+  private String id;
+  private String power;
+  private Integer brightness;
+  private Integer colorMode;
+  private Integer colorTemperature;
+  private Integer colorRGB;
+  private Integer hue;
+  private Integer saturation;
+  private String name;
+  /** point in time (milliseconds since epoch) of the latest change */
+  private long updated;
+
+  /**
+   * @return the state as contained in the discovery message.
+   */
+  static DeviceState of(DiscoveredDevice device, long now) {
+    return new DeviceState(device.getId(), device.getPower(), device.getBrightness(),
+        device.getColorMode(), device.getColorTemparature(), device.getColorRGB(), device.getHue(),
+        device.getSaturation(), device.getName(), now);
+  }
+
+  /**
+   * @return a state with the values of the discovery message where it has them.
+   */
+  DeviceState merge(DiscoveredDevice device, long now) {
+    return changed(new DeviceState(id, or(device.getPower(), power),
+        or(device.getBrightness(), brightness), or(device.getColorMode(), colorMode),
+        or(device.getColorTemparature(), colorTemperature), or(device.getColorRGB(), colorRGB),
+        or(device.getHue(), hue), or(device.getSaturation(), saturation),
+        or(device.getName(), name), now));
+  }
+
+  /**
+   * Applies the parameters of a <code>props</code> notification or the values read with
+   * <code>get_prop</code>, e.g. <code>{"power":"on","bright":"50"}</code>. Unknown properties and
+   * unparsable values are ignored.
+   *
+   * @return the new state or this one if nothing changed.
+   */
+  DeviceState apply(Map<String, ?> properties, long now) {
+    return changed(new DeviceState(id, string(properties.get("power"), power),
+        integer(properties.get("bright"), brightness),
+        integer(properties.get("color_mode"), colorMode),
+        integer(properties.get("ct"), colorTemperature), integer(properties.get("rgb"), colorRGB),
+        integer(properties.get("hue"), hue), integer(properties.get("sat"), saturation),
+        string(properties.get("name"), name), now));
+  }
+
+  private DeviceState changed(DeviceState candidate) {
+    return sameValues(candidate) ? this : candidate;
+  }
+
+  /**
+   * @return <code>true</code> if both states are equal apart from the time of the update.
+   */
+  boolean sameValues(DeviceState other) {
+    return equals(new DeviceState(other.id, other.power, other.brightness, other.colorMode,
+        other.colorTemperature, other.colorRGB, other.hue, other.saturation, other.name,
+        updated));
+  }
+
+  private static <T> T or(T value, T fallback) {
+    return value != null ? value : fallback;
+  }
+
+  private static String string(Object value, String fallback) {
+    return value != null ? value.toString() : fallback;
+  }
+
+  private static Integer integer(Object value, Integer fallback) {
+    if (value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    if (value instanceof String) {
+      try {
+        return Integer.valueOf(((String) value).trim());
+      } catch (NumberFormatException e) {
+        return fallback;
+      }
+    }
+    return fallback;
+  }
+
+}
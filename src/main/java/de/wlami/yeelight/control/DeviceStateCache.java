@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+import de.wlami.yeelight.discovery.DeviceRegistry;
+import de.wlami.yeelight.discovery.DeviceRegistryListener;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Current state of the devices without polling. The cache starts from the state contained in the
+ * discovery messages and applies the <code>props</code> notifications the devices push to every
+ * open control connection whenever a property changes. Wire it up once:<br>
+ * <code>registry.addListener(cache);<br>
+ * controller.addNotificationListener(cache);</code><br>
+ * <br>
+ * Devices only push notifications over an open connection, so call
+ * {@link #refresh(DeviceController, DiscoveredDevice)} once per device: it reads the current state
+ * and keeps the connection open. Reads are lock-free and return immutable {@link DeviceState}s.
+ * Listeners are only called if a value has actually changed.
+ */
+@Slf4j
+public class DeviceStateCache implements NotificationListener, DeviceRegistryListener {
+
+  /** the properties read by {@link #refresh(DeviceController, DiscoveredDevice)} */
+  static final String[] PROPERTIES =
+      {"power", "bright", "color_mode", "ct", "rgb", "hue", "sat", "name"};
+
+  private final ConcurrentMap<String, DeviceState> states = new ConcurrentHashMap<>();
+  private final List<DeviceStateListener> listeners = new CopyOnWriteArrayList<>();
+  private final ConcurrentMap<String, List<DeviceStateListener>> deviceListeners =
+      new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  public DeviceStateCache() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock source of the current time in milliseconds.
+   */
+  DeviceStateCache(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Adds all devices of the registry and keeps track of its changes.
+   */
+  public void track(DeviceRegistry registry) {
+    registry.addListener(this);
+    registry.getDevices().forEach(this::update);
+  }
+
+  /**
+   * Takes over the state contained in a discovery message.
+   */
+  public void update(DiscoveredDevice device) {
+    if (device.getId() == null) {
+      return;
+    }
+    long now = clock.getAsLong();
+    change(device.getId(), previous -> previous == null ? DeviceState.of(device, now)
+        : previous.merge(device, now));
+  }
+
+  /**
+   * Applies a <code>props</code> notification.
+   */
+  @Override
+  public void propertiesChanged(String deviceId, Map<String, Object> properties) {
+    long now = clock.getAsLong();
+    change(deviceId, previous -> (previous != null ? previous
+        : new DeviceState(deviceId, null, null, null, null, null, null, null, null, now))
+            .apply(properties, now));
+  }
+
+  /**
+   * Reads the current state of the device and applies it. As a side effect the controller keeps a
+   * connection to the device, so its notifications arrive from now on.
+   *
+   * @return a future for the new state.
+   */
+  public CompletableFuture<DeviceState> refresh(DeviceController controller,
+      DiscoveredDevice device) {
+    return controller.getProperties(device, PROPERTIES).thenApply(values -> {
+      Map<String, Object> properties = new HashMap<>();
+      values.forEach((key, value) -> {
+        if (!value.isEmpty()) {
+          properties.put(key, value);
+        }
+      });
+      propertiesChanged(device.getId(), properties);
+      return states.get(device.getId());
+    });
+  }
+
+  /**
+   * @return the current state of the device or <code>null</code> if it is unknown.
+   */
+  public DeviceState get(String deviceId) {
+    return states.get(deviceId);
+  }
+
+  /**
+   * @return a snapshot of all states.
+   */
+  public List<DeviceState> getStates() {
+    return new ArrayList<>(states.values());
+  }
+
+  public int size() {
+    return states.size();
+  }
+
+  /**
+   * Forgets the device.
+   *
+   * @return its last state or <code>null</code>.
+   */
+  public DeviceState remove(String deviceId) {
+    DeviceState previous = states.remove(deviceId);
+    if (previous != null) {
+      fire(deviceId, previous, null);
+    }
+    return previous;
+  }
+
+  /**
+   * Registers a listener for the changes of all devices.
+   */
+  public void addListener(DeviceStateListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(DeviceStateListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Registers a listener for the changes of one device.
+   */
+  public void addListener(String deviceId, DeviceStateListener listener) {
+    deviceListeners.computeIfAbsent(deviceId, id -> new CopyOnWriteArrayList<>()).add(listener);
+  }
+
+  public void removeListener(String deviceId, DeviceStateListener listener) {
+    deviceListeners.computeIfPresent(deviceId, (id, registered) -> {
+      registered.remove(listener);
+      return registered.isEmpty() ? null : registered;
+    });
+  }
+
+  @Override
+  public void deviceAdded(DiscoveredDevice device) {
+    update(device);
+  }
+
+  @Override
+  public void deviceRefreshed(DiscoveredDevice previous, DiscoveredDevice current) {
+    update(current);
+  }
+
+  @Override
+  public void deviceExpired(DiscoveredDevice device) {
+    remove(device.getId());
+  }
+
+  @Override
+  public void deviceRemoved(DiscoveredDevice device) {
+    remove(device.getId());
+  }
+
+  private void change(String deviceId, UnaryOperator<DeviceState> update) {
+    DeviceState[] previous = new DeviceState[1];
+    DeviceState current = states.compute(deviceId, (id, existing) -> {
+      previous[0] = existing;
+      return update.apply(existing);
+    });
+    if (current != previous[0]) {
+      fire(deviceId, previous[0], current);
+    }
+  }
+
+  private void fire(String deviceId, DeviceState previous, DeviceState current) {
+    List<DeviceStateListener> registered = deviceListeners.get(deviceId);
+    if (registered != null) {
+      registered.forEach(listener -> call(listener, previous, current));
+    }
+    listeners.forEach(listener -> call(listener, previous, current));
+  }
+
+  private static void call(DeviceStateListener listener, DeviceState previous,
+      DeviceState current) {
+    try {
+      listener.stateChanged(previous, current);
+    } catch (RuntimeException e) {
+      log.warn("state listener failed", e);
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A thread that runs a {@link Selector}. Channels are registered with a {@link Handler} as
+ * attachment, which gets the ready keys. Everything that touches the selector or the channels has
+ * to run on the loop thread, so other threads hand it over using {@link #execute(Runnable)}.
+ */
+@Slf4j
+class EventLoop implements AutoCloseable {
+
+  /** attachment of the registered keys */
+  interface Handler {
+    /**
+     * Called on the loop thread when the key is ready.
+     */
+    void ready(SelectionKey key) throws IOException;
+
+    /**
+     * Called on the loop thread if {@link #ready(SelectionKey)} failed or the loop stops.
+     */
+    void failed(IOException cause);
+  }
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  EventLoop(String name) throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Runs the task on the loop thread.
+   *
+   * @return <code>false</code> if the loop has stopped and will not run the task. The caller has
+   *         to fail whatever waits for it.
+   */
+  boolean execute(Runnable task) {
+    if (!running) {
+      return false;
+    }
+    tasks.add(task);
+    selector.wakeup();
+    // if the loop has stopped in the meantime, the task is either run by it or still queued
+    return running || !tasks.remove(task);
+  }
+
+  /**
+   * @return the selector of the loop. Only use it on the loop thread.
+   */
+  Selector getSelector() {
+    return selector;
+  }
+
+  private void run() {
+    try {
+      while (running) {
+        selector.select();
+        runTasks();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Handler handler = (Handler) key.attachment();
+          try {
+            handler.ready(key);
+          } catch (IOException e) {
+            handler.failed(e);
+          } catch (CancelledKeyException e) {
+            // closed in the meantime
+          } catch (RuntimeException e) {
+            // a broken handler must not stop the loop for the other channels
+            key.cancel();
+            handler.failed(new IOException(e));
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      log.error("event loop [{}] failed", thread.getName(), e);
+    } finally {
+      running = false;
+      // e.g. connects that register their channels, so that their handlers are failed below
+      runTasks();
+      IOException stopped = new IOException("event loop [" + thread.getName() + "] has stopped");
+      for (SelectionKey key : selector.keys()) {
+        try {
+          ((Handler) key.attachment()).failed(stopped);
+        } catch (RuntimeException e) {
+          log.debug("could not fail handler", e);
+        }
+        try {
+          key.channel().close();
+        } catch (IOException e) {
+          log.debug("could not close channel", e);
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.debug("could not close selector", e);
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.warn("task of event loop [{}] failed", thread.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * Stops the loop, fails the handlers of all registered channels and closes the channels.
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+}
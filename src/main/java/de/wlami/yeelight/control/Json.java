@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the control protocol. Encodes commands and parses the single-line
+ * responses and notifications of the devices. Objects are parsed into {@link Map}s, arrays into
+ * {@link List}s, numbers into {@link Long}s or {@link Double}s.
+ */
+final class Json {
+
+  private final String text;
+  private int position;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Encodes a command line without line terminator, e.g.
+   * <code>{"id":1,"method":"set_power","params":["on","smooth",500]}</code>.
+   *
+   * @param params strings, numbers and booleans.
+   */
+  static String command(int id, String method, List<?> params) {
+    StringBuilder result = new StringBuilder(64);
+    result.append("{\"id\":").append(id).append(",\"method\":");
+    appendString(result, method);
+    result.append(",\"params\":[");
+    for (int i = 0; i < params.size(); i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      appendValue(result, params.get(i));
+    }
+    return result.append("]}").toString();
+  }
+
+  private static void appendValue(StringBuilder result, Object value) {
+    if (value == null) {
+      result.append("null");
+    } else if (value instanceof Number || value instanceof Boolean) {
+      result.append(value);
+    } else {
+      appendString(result, value.toString());
+    }
+  }
+
+  private static void appendString(StringBuilder result, String value) {
+    result.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          result.append("\\\"");
+          break;
+        case '\\':
+          result.append("\\\\");
+          break;
+        case '\n':
+          result.append("\\n");
+          break;
+        case '\r':
+          result.append("\\r");
+          break;
+        case '\t':
+          result.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            result.append(String.format("\\u%04x", (int) c));
+          } else {
+            result.append(c);
+          }
+      }
+    }
+    result.append('"');
+  }
+
+  /**
+   * Parses one JSON value.
+   *
+   * @throws IllegalArgumentException if the text is not valid JSON.
+   */
+  static Object parse(String text) {
+    Json parser = new Json(text);
+    Object result = parser.value();
+    parser.skipWhitespace();
+    if (parser.position < text.length()) {
+      throw parser.error("unexpected trailing characters");
+    }
+    return result;
+  }
+
+  private Object value() {
+    skipWhitespace();
+    if (position >= text.length()) {
+      throw error("unexpected end");
+    }
+    char c = text.charAt(position);
+    switch (c) {
+      case '{':
+        return object();
+      case '[':
+        return array();
+      case '"':
+        return string();
+      case 't':
+        return literal("true", Boolean.TRUE);
+      case 'f':
+        return literal("false", Boolean.FALSE);
+      case 'n':
+        return literal("null", null);
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return number();
+        }
+        throw error("unexpected character");
+    }
+  }
+
+  private Map<String, Object> object() {
+    Map<String, Object> result = new LinkedHashMap<>();
+    position++;
+    skipWhitespace();
+    if (peek() == '}') {
+      position++;
+      return result;
+    }
+    while (true) {
+      skipWhitespace();
+      if (peek() != '"') {
+        throw error("expected key");
+      }
+      String key = string();
+      skipWhitespace();
+      expect(':');
+      result.put(key, value());
+      skipWhitespace();
+      if (peek() == ',') {
+        position++;
+      } else {
+        expect('}');
+        return result;
+      }
+    }
+  }
+
+  private List<Object> array() {
+    List<Object> result = new ArrayList<>();
+    position++;
+    skipWhitespace();
+    if (peek() == ']') {
+      position++;
+      return result;
+    }
+    while (true) {
+      result.add(value());
+      skipWhitespace();
+      if (peek() == ',') {
+        position++;
+      } else {
+        expect(']');
+        return result;
+      }
+    }
+  }
+
+  private String string() {
+    position++;
+    StringBuilder result = new StringBuilder();
+    while (position < text.length()) {
+      char c = text.charAt(position++);
+      if (c == '"') {
+        return result.toString();
+      }
+      if (c != '\\') {
+        result.append(c);
+        continue;
+      }
+      if (position >= text.length()) {
+        break;
+      }
+      char escaped = text.charAt(position++);
+      switch (escaped) {
+        case 'b':
+          result.append('\b');
+          break;
+        case 'f':
+          result.append('\f');
+          break;
+        case 'n':
+          result.append('\n');
+          break;
+        case 'r':
+          result.append('\r');
+          break;
+        case 't':
+          result.append('\t');
+          break;
+        case 'u':
+          if (position + 4 > text.length()) {
+            throw error("invalid unicode escape");
+          }
+          try {
+            result.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("invalid unicode escape");
+          }
+          position += 4;
+          break;
+        default:
+          result.append(escaped);
+      }
+    }
+    throw error("unterminated string");
+  }
+
+  private Number number() {
+    int start = position;
+    boolean decimal = false;
+    while (position < text.length()) {
+      char c = text.charAt(position);
+      if (c == '.' || c == 'e' || c == 'E') {
+        decimal = true;
+      } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+        break;
+      }
+      position++;
+    }
+    String value = text.substring(start, position);
+    try {
+      return decimal ? (Number) Double.valueOf(value) : (Number) Long.valueOf(value);
+    } catch (NumberFormatException e) {
+      throw error("invalid number [" + value + "]");
+    }
+  }
+
+  private Object literal(String literal, Object value) {
+    if (!text.startsWith(literal, position)) {
+      throw error("unexpected character");
+    }
+    position += literal.length();
+    return value;
+  }
+
+  private void expect(char c) {
+    if (peek() != c) {
+      throw error("expected [" + c + "]");
+    }
+    position++;
+  }
+
+  private char peek() {
+    return position < text.length() ? text.charAt(position) : 0;
+  }
+
+  private void skipWhitespace() {
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + position + " of [" + text + "]");
+  }
+
+}
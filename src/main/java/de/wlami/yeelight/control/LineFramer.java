@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits the received bytes into the newline-delimited messages of the control protocol. The data
+ * may be fed in arbitrary chunks: an incomplete line is kept until the rest of it arrives.
+ */
+class LineFramer {
+
+  private final int maxLineLength;
+  private byte[] line = new byte[256];
+  private int length;
+
+  /**
+   * @param maxLineLength longer lines are considered a protocol error.
+   */
+  LineFramer(int maxLineLength) {
+    this.maxLineLength = maxLineLength;
+  }
+
+  /**
+   * Consumes all remaining bytes of the buffer and hands every completed line to the consumer,
+   * without line terminator. Empty lines are skipped.
+   *
+   * @throws IOException if a line is longer than allowed.
+   */
+  void feed(ByteBuffer data, Consumer<String> lines) throws IOException {
+    while (data.hasRemaining()) {
+      byte b = data.get();
+      if (b == '\n') {
+        int end = length;
+        if (end > 0 && line[end - 1] == '\r') {
+          end--;
+        }
+        length = 0;
+        if (end > 0) {
+          lines.accept(new String(line, 0, end, StandardCharsets.UTF_8));
+        }
+        continue;
+      }
+      if (length == maxLineLength) {
+        length = 0;
+        throw new IOException("line exceeds [" + maxLineLength + "] bytes");
+      }
+      if (length == line.length) {
+        line = Arrays.copyOf(line, Math.min(line.length * 2, maxLineLength));
+      }
+      line[length++] = b;
+    }
+  }
+
+  /**
+   * @return number of bytes of the incomplete line.
+   */
+  int buffered() {
+    return length;
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+
+/**
+ * Converts the <code>location</code> of a device into the address of its control port.
+ */
+final class Locations {
+
+  static final String SCHEME = "yeelight";
+  static final int DEFAULT_PORT = 55443;
+
+  private Locations() {}
+
+  /**
+   * @return the unresolved address of the control port, e.g. <code>192.168.0.7:55443</code> for
+   *         <code>yeelight://192.168.0.7:55443</code>.
+   * @throws IllegalArgumentException if the device has no usable location.
+   */
+  static InetSocketAddress controlAddress(DiscoveredDevice device) {
+    URI location = device.getLocation();
+    if (location == null || location.getHost() == null) {
+      throw new IllegalArgumentException(
+          "device [" + device.getId() + "] has no location [" + location + "]");
+    }
+    if (location.getScheme() != null && !SCHEME.equalsIgnoreCase(location.getScheme())) {
+      throw new IllegalArgumentException("unsupported location [" + location + "]");
+    }
+    int port = location.getPort() > 0 ? location.getPort() : DEFAULT_PORT;
+    return InetSocketAddress.createUnresolved(location.getHost(), port);
+  }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.discovery.ThreadSupport;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streams commands to devices in music mode, e.g. for light shows. In music mode the device
+ * connects to a TCP server of the client and accepts any number of commands on that connection,
+ * without the usual quota and without answering them.<br>
+ * <br>
+ * The server listens on one port and runs one event loop for all {@link MusicStream}s. Calling
+ * {@link #open(DiscoveredDevice)} sends <code>set_music</code> over the given
+ * {@link DeviceController}, which makes the device connect back. Connections are assigned to the
+ * devices by their IP address. Example:<br>
+ * <code>MusicStream stream = musicServer.open(device).get();<br>
+ * stream.setRgb(0xff0000);</code><br>
+ * <br>
+ * All commands sent to any stream before the event loop gets to them are written in the same pass,
+ * so many strips can be driven at the same frame rate by one thread.
+ */
+@Slf4j
+public class MusicServer implements AutoCloseable {
+
+  /** the method that switches music mode on and off */
+  public static final String SET_MUSIC = "set_music";
+
+  private final DeviceController controller;
+  private final InetAddress localAddress;
+  private final EventLoop loop;
+  private final ServerSocketChannel server;
+  /** the port the devices connect to */
+  @Getter
+  private final int port;
+  private final Queue<PendingStream> pending = new ConcurrentLinkedQueue<>();
+  private final Set<MusicStream> streams = ConcurrentHashMap.newKeySet();
+  private final Queue<MusicStream> dirty = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean();
+  private ScheduledExecutorService timeoutExecutor;
+  private volatile boolean closed;
+
+  /** time the device has to connect back after <code>set_music</code> */
+  @Getter
+  @Setter
+  private volatile long connectTimeoutMillis = 5000;
+
+  /** a device that has been told to connect */
+  private static final class PendingStream {
+    private final DiscoveredDevice device;
+    private final String host;
+    private final CompletableFuture<MusicStream> future = new CompletableFuture<>();
+
+    private PendingStream(DiscoveredDevice device, String host) {
+      this.device = device;
+      this.host = host;
+    }
+  }
+
+  /**
+   * Opens the server socket on an ephemeral port.
+   *
+   * @param controller is used to send <code>set_music</code>.
+   * @param localAddress address of this host in the network of the devices. The devices connect to
+   *        it.
+   * @throws IOException if the server socket cannot be opened.
+   */
+  public MusicServer(DeviceController controller, InetAddress localAddress) throws IOException {
+    this.controller = controller;
+    this.localAddress = localAddress;
+    this.server = ServerSocketChannel.open();
+    try {
+      server.bind(new InetSocketAddress(localAddress, 0));
+      server.configureBlocking(false);
+      this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+      this.loop = new EventLoop("yedi-music-loop");
+    } catch (IOException e) {
+      server.close();
+      throw e;
+    }
+    loop.execute(() -> {
+      try {
+        server.register(loop.getSelector(), SelectionKey.OP_ACCEPT, new Acceptor());
+      } catch (IOException e) {
+        log.error("could not listen for music connections", e);
+      }
+    });
+    log.debug("listening for music connections on [{}:{}]", localAddress, port);
+  }
+
+  /**
+   * Can be used to select the devices for a light show, e.g.
+   * <code>devices.stream().filter(MusicServer::supportsMusicMode)</code>.
+   *
+   * @return <code>true</code> if the device lists <code>set_music</code> in its supported
+   *         functions.
+   */
+  public static boolean supportsMusicMode(DiscoveredDevice device) {
+    return device.getSupportedFunctions() != null
+        && device.getSupportedFunctions().contains(SET_MUSIC);
+  }
+
+  /**
+   * Switches the device to music mode.
+   *
+   * @param device a device that lists <code>set_music</code> in its supported functions.
+   * @return a future for the stream. It completes exceptionally with an
+   *         {@link UnsupportedOperationException} if the device does not support music mode or
+   *         with a {@link TimeoutException} if it does not connect in time.
+   */
+  public CompletableFuture<MusicStream> open(DiscoveredDevice device) {
+    if (!supportsMusicMode(device)) {
+      CompletableFuture<MusicStream> result = new CompletableFuture<>();
+      result.completeExceptionally(new UnsupportedOperationException(
+          "device [" + device.getId() + "] does not support music mode"));
+      return result;
+    }
+    PendingStream stream;
+    try {
+      stream = new PendingStream(device, Locations.controlAddress(device).getHostString());
+    } catch (IllegalArgumentException e) {
+      CompletableFuture<MusicStream> result = new CompletableFuture<>();
+      result.completeExceptionally(e);
+      return result;
+    }
+    pending.add(stream);
+    long timeout = connectTimeoutMillis;
+    ScheduledFuture<?> timer = getTimeoutExecutor().schedule(
+        () -> stream.future.completeExceptionally(new TimeoutException("device ["
+            + device.getId() + "] did not connect within [" + timeout + "]ms")),
+        timeout, TimeUnit.MILLISECONDS);
+    stream.future.whenComplete((result, error) -> {
+      timer.cancel(false);
+      pending.remove(stream);
+    });
+    controller.send(device, SET_MUSIC, 1, localAddress.getHostAddress(), port)
+        .whenComplete((result, error) -> {
+          if (error != null) {
+            stream.future.completeExceptionally(error);
+          }
+        });
+    return stream.future;
+  }
+
+  /**
+   * @return streams that are open.
+   */
+  public List<MusicStream> getStreams() {
+    return new ArrayList<>(streams);
+  }
+
+  /**
+   * Assigns an accepted connection to the oldest device that waits for a connection from that
+   * address.
+   */
+  private final class Acceptor implements EventLoop.Handler {
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      SocketChannel channel;
+      while ((channel = server.accept()) != null) {
+        accept(channel);
+      }
+    }
+
+    private void accept(SocketChannel channel) throws IOException {
+      String host = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+      for (PendingStream candidate : pending) {
+        if (candidate.host.equals(host) && pending.remove(candidate)) {
+          MusicStream stream = new MusicStream(candidate.device, channel, MusicServer.this);
+          stream.register(loop);
+          streams.add(stream);
+          if (!candidate.future.complete(stream)) {
+            // timed out in the meantime
+            stream.close();
+          }
+          log.debug("device [{}] connected for music mode", candidate.device.getId());
+          return;
+        }
+      }
+      log.debug("closing unexpected music connection from [{}]", host);
+      channel.close();
+    }
+
+    @Override
+    public void failed(IOException cause) {
+      if (closed || cause instanceof ClosedChannelException) {
+        // the server socket is closed along with the event loop
+        log.debug("stopped accepting music connections on port [{}]", port, cause);
+      } else {
+        log.warn("could not accept music connection", cause);
+      }
+    }
+  }
+
+  /**
+   * Writes the stream with the next pass of the event loop.
+   */
+  void scheduleWrite(MusicStream stream) {
+    dirty.add(stream);
+    if (writeScheduled.compareAndSet(false, true)) {
+      loop.execute(this::writeAll);
+    }
+  }
+
+  private void writeAll() {
+    writeScheduled.set(false);
+    MusicStream stream;
+    while ((stream = dirty.poll()) != null) {
+      try {
+        stream.write();
+      } catch (IOException e) {
+        stream.failed(e);
+      }
+    }
+  }
+
+  void closed(MusicStream stream) {
+    streams.remove(stream);
+  }
+
+  /**
+   * Closes all streams and the server socket.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (MusicStream stream : getStreams()) {
+      stream.close();
+    }
+    for (PendingStream stream : pending) {
+      stream.future.cancel(false);
+    }
+    loop.close();
+    synchronized (this) {
+      if (timeoutExecutor != null) {
+        timeoutExecutor.shutdownNow();
+        timeoutExecutor = null;
+      }
+    }
+  }
+
+  private synchronized ScheduledExecutorService getTimeoutExecutor() {
+    if (timeoutExecutor == null) {
+      timeoutExecutor = Executors
+          .newSingleThreadScheduledExecutor(ThreadSupport.daemonThreads("yedi-music-timeout-"));
+    }
+    return timeoutExecutor;
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The music mode connection of one device, opened by {@link MusicServer#open(DiscoveredDevice)}.
+ * The device accepts any number of commands on it and does not answer them, so commands are
+ * fire-and-forget.<br>
+ * <br>
+ * Commands are frames: they are written by the event loop of the server, together with the
+ * commands of all other streams that are due. If a command has not been written yet when a newer
+ * one with the same method is sent, e.g. because the connection is slower than the frame rate,
+ * only the newer one is written.
+ */
+@Slf4j
+public class MusicStream implements AutoCloseable, EventLoop.Handler {
+
+  /** the device this stream controls */
+  @Getter
+  private final DiscoveredDevice device;
+  private final SocketChannel channel;
+  private final MusicServer server;
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Map<String, byte[]> frame = new LinkedHashMap<>();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private final AtomicLong commandsWritten = new AtomicLong();
+  private final AtomicLong commandsReplaced = new AtomicLong();
+  private volatile boolean open = true;
+
+  // only used on the loop thread
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+  private ByteBuffer outgoing;
+  private SelectionKey key;
+
+  MusicStream(DiscoveredDevice device, SocketChannel channel, MusicServer server) {
+    this.device = device;
+    this.channel = channel;
+    this.server = server;
+  }
+
+  /**
+   * Registers the channel. Called on the loop thread.
+   */
+  void register(EventLoop loop) throws IOException {
+    channel.configureBlocking(false);
+    key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+  }
+
+  /**
+   * Queues a command for the next frame.
+   *
+   * @return <code>false</code> if the stream has been closed, e.g. because the device left music
+   *         mode.
+   */
+  public boolean send(String method, Object... params) {
+    if (!open) {
+      return false;
+    }
+    int id = nextId.updateAndGet(previous -> previous == Integer.MAX_VALUE ? 1 : previous + 1);
+    byte[] line = (Json.command(id, method, Arrays.asList(params)) + "\r\n")
+        .getBytes(StandardCharsets.UTF_8);
+    synchronized (frame) {
+      if (frame.put(method, line) != null) {
+        commandsReplaced.incrementAndGet();
+      }
+    }
+    if (dirty.compareAndSet(false, true)) {
+      server.scheduleWrite(this);
+    }
+    return true;
+  }
+
+  /**
+   * @param rgb color as <code>0xRRGGBB</code>.
+   */
+  public boolean setRgb(int rgb) {
+    return send("set_rgb", rgb, DeviceController.EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @param hue 0 to 359.
+   * @param saturation 0 to 100.
+   */
+  public boolean setHsv(int hue, int saturation) {
+    return send("set_hsv", hue, saturation, DeviceController.EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @param brightness 1 to 100 percent.
+   */
+  public boolean setBrightness(int brightness) {
+    return send("set_bright", brightness, DeviceController.EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @param colorTemperature 1700 to 6500 Kelvin.
+   */
+  public boolean setColorTemperature(int colorTemperature) {
+    return send("set_ct_abx", colorTemperature, DeviceController.EFFECT_SUDDEN, 0);
+  }
+
+  /**
+   * @return number of commands that have been handed to the socket.
+   */
+  public long getCommandsWritten() {
+    return commandsWritten.get();
+  }
+
+  /**
+   * @return number of commands that have been replaced by a newer one before being written.
+   */
+  public long getCommandsReplaced() {
+    return commandsReplaced.get();
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Writes the due commands. Called on the loop thread.
+   */
+  void write() throws IOException {
+    while (open) {
+      if (outgoing == null || !outgoing.hasRemaining()) {
+        dirty.set(false);
+        outgoing = takeFrame();
+        if (outgoing == null) {
+          key.interestOps(SelectionKey.OP_READ);
+          return;
+        }
+      }
+      channel.write(outgoing);
+      if (outgoing.hasRemaining()) {
+        // continue when the socket can take more, newer commands replace the queued ones meanwhile
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+  }
+
+  private ByteBuffer takeFrame() {
+    synchronized (frame) {
+      if (frame.isEmpty()) {
+        return null;
+      }
+      int length = 0;
+      for (byte[] line : frame.values()) {
+        length += line.length;
+      }
+      ByteBuffer result = ByteBuffer.allocate(length);
+      for (byte[] line : frame.values()) {
+        result.put(line);
+      }
+      commandsWritten.addAndGet(frame.size());
+      frame.clear();
+      result.flip();
+      return result;
+    }
+  }
+
+  @Override
+  public void ready(SelectionKey key) throws IOException {
+    if (key.isReadable()) {
+      readBuffer.clear();
+      // the device does not answer in music mode, end of stream means it has left music mode
+      if (channel.read(readBuffer) < 0) {
+        failed(new IOException("device [" + device.getId() + "] closed the music connection"));
+        return;
+      }
+    }
+    if (key.isValid() && key.isWritable()) {
+      write();
+    }
+  }
+
+  @Override
+  public void failed(IOException cause) {
+    log.debug("music stream of device [{}] failed: {}", device.getId(), cause.getMessage());
+    close();
+  }
+
+  /**
+   * Closes the connection, which makes the device leave music mode.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (!open) {
+        return;
+      }
+      open = false;
+    }
+    server.closed(this);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.debug("could not close music stream of device [{}]", device.getId(), e);
+    }
+  }
+
+}
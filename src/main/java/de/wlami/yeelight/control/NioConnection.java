@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A non-blocking connection to the control port of one device, driven by an {@link EventLoop}.
+ * Commands are queued by the calling thread and written by the loop thread, which gathers all
+ * queued commands into one write. Responses and notifications are framed and dispatched on the
+ * loop thread as soon as a line is complete. Commands sent while the connection is being
+ * established are written once it is.
+ */
+@Slf4j
+class NioConnection implements ControllerConnection, EventLoop.Handler {
+
+  /** longest accepted message. Yeelight messages are a few hundred bytes. */
+  static final int MAX_LINE_LENGTH = 16 * 1024;
+  /** maximum number of commands per write */
+  private static final int WRITE_BATCH = 64;
+
+  @Getter
+  private final String deviceId;
+  @Getter
+  private final InetSocketAddress address;
+  private final EventLoop loop;
+  private final PendingCommands pending;
+  private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private volatile boolean open = true;
+  private volatile boolean connected;
+
+  // only used on the loop thread
+  private final LineFramer framer = new LineFramer(MAX_LINE_LENGTH);
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+  private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+  private SocketChannel channel;
+  private SelectionKey key;
+
+  /**
+   * @param address unresolved address of the control port.
+   * @param notifications gets the parameters of the <code>props</code> notifications on the loop
+   *        thread.
+   */
+  NioConnection(String deviceId, InetSocketAddress address, EventLoop loop,
+      Consumer<Map<String, Object>> notifications) {
+    this.deviceId = deviceId;
+    this.address = address;
+    this.loop = loop;
+    this.pending = new PendingCommands(deviceId, notifications);
+  }
+
+  /**
+   * Starts connecting without waiting for the connection to be established.
+   *
+   * @param timer is used to close the connection if it cannot be established in time.
+   */
+  void open(ScheduledExecutorService timer, int connectTimeoutMillis) {
+    if (!loop.execute(this::connect)) {
+      close(loopStopped());
+      return;
+    }
+    timer.schedule(() -> {
+      if (!connected) {
+        close(new SocketTimeoutException("could not connect to [" + deviceId + "] at ["
+            + address + "] within [" + connectTimeoutMillis + "]ms"));
+      }
+    }, connectTimeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void connect() {
+    if (!open) {
+      return;
+    }
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      key = channel.register(loop.getSelector(), SelectionKey.OP_CONNECT, this);
+      // the locations contain IP addresses, so this does not block on a name lookup
+      if (channel.connect(new InetSocketAddress(address.getHostString(), address.getPort()))) {
+        finishConnect();
+      }
+    } catch (IOException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<List<Object>> send(String method, List<?> params) {
+    CompletableFuture<List<Object>> future = new CompletableFuture<>();
+    int id = pending.register(future);
+    if (!open) {
+      future.completeExceptionally(new IOException("connection to [" + deviceId + "] is closed"));
+      return future;
+    }
+    byte[] line = (Json.command(id, method, params) + "\r\n").getBytes(StandardCharsets.UTF_8);
+    writeQueue.add(ByteBuffer.wrap(line));
+    // one flush writes all commands that have been queued until then
+    if (flushScheduled.compareAndSet(false, true) && !loop.execute(this::flush)) {
+      close(loopStopped());
+    }
+    return future;
+  }
+
+  @Override
+  public void ready(SelectionKey key) throws IOException {
+    if (key.isConnectable()) {
+      finishConnect();
+    }
+    if (key.isValid() && key.isReadable()) {
+      read();
+    }
+    if (key.isValid() && key.isWritable()) {
+      write();
+    }
+  }
+
+  private void finishConnect() throws IOException {
+    if (channel.finishConnect()) {
+      connected = true;
+      key.interestOps(SelectionKey.OP_READ);
+      log.debug("connected to device [{}] at [{}]", deviceId, address);
+      write();
+    }
+  }
+
+  private void read() throws IOException {
+    readBuffer.clear();
+    int read = channel.read(readBuffer);
+    if (read < 0) {
+      close(new IOException("connection to [" + deviceId + "] closed by device"));
+      return;
+    }
+    readBuffer.flip();
+    framer.feed(readBuffer, pending::dispatch);
+  }
+
+  private void flush() {
+    flushScheduled.set(false);
+    try {
+      write();
+    } catch (IOException e) {
+      failed(e);
+    }
+  }
+
+  private void write() throws IOException {
+    if (!connected || !open) {
+      return;
+    }
+    while (!writeQueue.isEmpty()) {
+      int count = 0;
+      for (ByteBuffer buffer : writeQueue) {
+        batch[count++] = buffer;
+        if (count == batch.length) {
+          break;
+        }
+      }
+      channel.write(batch, 0, count);
+      boolean complete = !batch[count - 1].hasRemaining();
+      Arrays.fill(batch, 0, count, null);
+      // only the loop thread removes from the queue, so the head is still the oldest command
+      while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+        writeQueue.poll();
+      }
+      if (!complete) {
+        // the socket buffer is full, continue when it can take more
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * @return <code>true</code> once the connection has been established.
+   */
+  boolean isConnected() {
+    return connected;
+  }
+
+  @Override
+  public void failed(IOException cause) {
+    close(cause);
+  }
+
+  @Override
+  public void close() {
+    close(new IOException("connection to [" + deviceId + "] has been closed"));
+  }
+
+  private void close(IOException cause) {
+    synchronized (this) {
+      if (!open) {
+        return;
+      }
+      open = false;
+    }
+    log.debug("disconnected from device [{}]: {}", deviceId, cause.getMessage());
+    pending.failAll(cause);
+    // a stopped loop has closed the channel already
+    loop.execute(this::closeChannel);
+  }
+
+  private IOException loopStopped() {
+    return new IOException("event loop of the connection to [" + deviceId + "] has stopped");
+  }
+
+  private void closeChannel() {
+    // on the loop thread, so that write() never sees the queue shrink under it
+    writeQueue.clear();
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.debug("could not close connection to [{}]", deviceId, e);
+      }
+    }
+  }
+
+}
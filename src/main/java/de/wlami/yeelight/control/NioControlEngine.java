@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Controls thousands of devices with a few threads. Like the {@link ControlClient} it keeps one
+ * long-lived connection per device id, but all connections are non-blocking and shared among a
+ * fixed number of event loops, each running one {@link java.nio.channels.Selector}. A device is
+ * always handled by the same loop.<br>
+ * <br>
+ * Connecting does not block the calling thread: commands sent while the connection is being
+ * established are written as soon as it is. The futures of the commands are completed and the
+ * {@link NotificationListener}s are called on the event loop threads, so they should not block.
+ * Hand longer work to another executor, e.g. with <code>thenApplyAsync</code>.
+ */
+public class NioControlEngine extends AbstractDeviceController<NioConnection> {
+
+  /** number of event loops used by {@link #NioControlEngine()} */
+  public static final int DEFAULT_EVENT_LOOPS =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  private final EventLoop[] loops;
+
+  /**
+   * Creates an engine with {@link #DEFAULT_EVENT_LOOPS} event loops.
+   *
+   * @throws IOException if a selector cannot be opened.
+   */
+  public NioControlEngine() throws IOException {
+    this(DEFAULT_EVENT_LOOPS);
+  }
+
+  /**
+   * @param eventLoops number of threads the connections are distributed over.
+   * @throws IOException if a selector cannot be opened.
+   */
+  public NioControlEngine(int eventLoops) throws IOException {
+    if (eventLoops <= 0) {
+      throw new IllegalArgumentException("eventLoops must be positive!");
+    }
+    loops = new EventLoop[eventLoops];
+    try {
+      for (int i = 0; i < eventLoops; i++) {
+        loops[i] = new EventLoop("yedi-control-loop-" + (i + 1));
+      }
+    } catch (IOException e) {
+      closeLoops();
+      throw e;
+    }
+  }
+
+  @Override
+  protected NioConnection connect(String deviceId, InetSocketAddress address,
+      Consumer<Map<String, Object>> notifications) {
+    EventLoop loop = loops[(deviceId.hashCode() & Integer.MAX_VALUE) % loops.length];
+    NioConnection connection = new NioConnection(deviceId, address, loop, notifications);
+    connection.open(getTimeoutExecutor(), getConnectTimeoutMillis());
+    return connection;
+  }
+
+  /**
+   * @return number of event loop threads.
+   */
+  public int getEventLoopCount() {
+    return loops.length;
+  }
+
+  /**
+   * Closes all connections and stops the event loops. The engine cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+    super.close();
+    closeLoops();
+  }
+
+  private void closeLoops() {
+    for (EventLoop loop : loops) {
+      if (loop != null) {
+        loop.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The commands of one connection that wait for their response. Hands out the request ids and
+ * completes the matching command for each received line.
+ */
+@Slf4j
+class PendingCommands {
+
+  private final String deviceId;
+  private final Consumer<Map<String, Object>> notifications;
+  private final ConcurrentMap<Integer, CompletableFuture<List<Object>>> pending =
+      new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * @param notifications gets the parameters of the <code>props</code> notifications.
+   */
+  PendingCommands(String deviceId, Consumer<Map<String, Object>> notifications) {
+    this.deviceId = deviceId;
+    this.notifications = notifications;
+  }
+
+  /**
+   * Adds the command. It is removed again as soon as the future completes, no matter how.
+   *
+   * @return the id of the request.
+   */
+  int register(CompletableFuture<List<Object>> future) {
+    int id = nextId.updateAndGet(previous -> previous == Integer.MAX_VALUE ? 1 : previous + 1);
+    pending.put(id, future);
+    // completed by a timeout or cancelled by the caller
+    future.whenComplete((result, error) -> pending.remove(id, future));
+    return id;
+  }
+
+  /**
+   * Completes the matching command or forwards the notification.
+   *
+   * @param line one message of the device without line terminator.
+   */
+  @SuppressWarnings("unchecked")
+  void dispatch(String line) {
+    Object message;
+    try {
+      message = Json.parse(line);
+    } catch (IllegalArgumentException e) {
+      log.warn("ignoring malformed message from device [{}]: {}", deviceId, e.getMessage());
+      return;
+    }
+    if (!(message instanceof Map)) {
+      log.warn("ignoring unexpected message from device [{}]: [{}]", deviceId, line);
+      return;
+    }
+    Map<String, Object> map = (Map<String, Object>) message;
+    Object id = map.get("id");
+    if (id instanceof Number) {
+      CompletableFuture<List<Object>> future = pending.remove(((Number) id).intValue());
+      if (future == null) {
+        log.debug("no pending command for response [{}] of device [{}]", line, deviceId);
+      } else if (map.get("error") instanceof Map) {
+        Map<String, Object> error = (Map<String, Object>) map.get("error");
+        Object code = error.get("code");
+        future.completeExceptionally(new CommandException(
+            code instanceof Number ? ((Number) code).longValue() : 0, String.valueOf(error
+                .get("message"))));
+      } else if (map.get("result") instanceof List) {
+        future.complete((List<Object>) map.get("result"));
+      } else {
+        future.complete(new ArrayList<>());
+      }
+    } else if ("props".equals(map.get("method")) && map.get("params") instanceof Map) {
+      try {
+        notifications.accept((Map<String, Object>) map.get("params"));
+      } catch (RuntimeException e) {
+        log.warn("notification listener failed", e);
+      }
+    } else {
+      log.debug("ignoring message [{}] of device [{}]", line, deviceId);
+    }
+  }
+
+  /**
+   * Fails all pending commands.
+   */
+  void failAll(IOException cause) {
+    for (Integer id : pending.keySet()) {
+      CompletableFuture<List<Object>> future = pending.remove(id);
+      if (future != null) {
+        future.completeExceptionally(cause);
+      }
+    }
+  }
+
+  /**
+   * @return number of commands waiting for a response.
+   */
+  int size() {
+    return pending.size();
+  }
+
+}
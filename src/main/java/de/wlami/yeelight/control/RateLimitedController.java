@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.discovery.ThreadSupport;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the commands per device within the quota of the devices, which drop commands beyond about
+ * 60 per minute. Wraps another {@link DeviceController}:<br>
+ * <code>DeviceController control = new RateLimitedController(new NioControlEngine());</code><br>
+ * <br>
+ * Each device has a token bucket. Commands are passed on right away while the device has tokens
+ * left and queued otherwise. While commands are queued, a new command with one of the
+ * {@link #getCoalescedMethods()} replaces the value of the queued command with the same method, so
+ * e.g. a slider that sends many <code>set_bright</code> commands only sends the latest value at the
+ * position of the first one. The futures of replaced commands complete with the result of the
+ * command that replaced them.<br>
+ * <br>
+ * The state of a device is dropped once its queue is empty and its bucket is full again.
+ */
+@Slf4j
+public class RateLimitedController implements DeviceController {
+
+  /** commands a device can receive at once */
+  public static final int DEFAULT_BURST = 10;
+  /** sustained rate. Together with the burst it stays within 60 commands in any minute. */
+  public static final int DEFAULT_COMMANDS_PER_MINUTE = 50;
+  /**
+   * methods that set an absolute brightness or colour, so that only the latest command matters.
+   * Commands like <code>set_power</code> are not coalesced, since their order relative to the other
+   * commands matters.
+   */
+  public static final Set<String> DEFAULT_COALESCED_METHODS = Collections.unmodifiableSet(
+      new HashSet<>(Arrays.asList("set_bright", "set_rgb", "set_ct_abx", "set_hsv")));
+
+  private final DeviceController delegate;
+  private final int burst;
+  private final long refillNanos;
+  @Getter
+  private final Set<String> coalescedMethods;
+  private final ConcurrentMap<String, DeviceQueue> queues = new ConcurrentHashMap<>();
+  private ScheduledExecutorService scheduler;
+  private volatile boolean closed;
+
+  /** maximum number of queued commands per device. Further commands are rejected. */
+  @Getter
+  @Setter
+  private volatile int maxQueueLength = 100;
+
+  /**
+   * Uses {@link #DEFAULT_BURST}, {@link #DEFAULT_COMMANDS_PER_MINUTE} and
+   * {@link #DEFAULT_COALESCED_METHODS}.
+   *
+   * @param delegate sends the commands.
+   */
+  public RateLimitedController(DeviceController delegate) {
+    this(delegate, DEFAULT_BURST, DEFAULT_COMMANDS_PER_MINUTE, DEFAULT_COALESCED_METHODS);
+  }
+
+  /**
+   * @param delegate sends the commands.
+   * @param burst number of commands a device can receive at once.
+   * @param commandsPerMinute sustained number of commands per device.
+   * @param coalescedMethods methods whose queued commands are replaced by newer ones.
+   */
+  public RateLimitedController(DeviceController delegate, int burst, int commandsPerMinute,
+      Set<String> coalescedMethods) {
+    if (burst <= 0 || commandsPerMinute <= 0) {
+      throw new IllegalArgumentException("burst and commandsPerMinute must be positive!");
+    }
+    this.delegate = delegate;
+    this.burst = burst;
+    this.refillNanos = TimeUnit.MINUTES.toNanos(1) / commandsPerMinute;
+    this.coalescedMethods = Collections.unmodifiableSet(new HashSet<>(coalescedMethods));
+  }
+
+  /**
+   * Sends the command now or as soon as the device has a token again. Fails with a
+   * {@link RejectedExecutionException} if too many commands are queued for the device and with an
+   * {@link IllegalStateException} if the controller has been closed.
+   */
+  @Override
+  public CompletableFuture<List<Object>> send(DiscoveredDevice device, String method,
+      Object... params) {
+    if (closed) {
+      CompletableFuture<List<Object>> result = new CompletableFuture<>();
+      result.completeExceptionally(new IllegalStateException("controller closed"));
+      return result;
+    }
+    if (device.getId() == null) {
+      return delegate.send(device, method, params);
+    }
+    while (true) {
+      CompletableFuture<List<Object>> result = queues
+          .computeIfAbsent(device.getId(), DeviceQueue::new).submit(device, method, params);
+      if (result != null) {
+        return result;
+      }
+      // the queue has just been dropped, the next one starts with a full bucket as well
+    }
+  }
+
+  /**
+   * @return number of queued commands of the device.
+   */
+  public int getQueueLength(String deviceId) {
+    DeviceQueue queue = queues.get(deviceId);
+    return queue == null ? 0 : queue.size();
+  }
+
+  /**
+   * @return number of devices whose bucket or queue is kept.
+   */
+  int getDeviceCount() {
+    return queues.size();
+  }
+
+  @Override
+  public void addNotificationListener(NotificationListener listener) {
+    delegate.addNotificationListener(listener);
+  }
+
+  @Override
+  public void removeNotificationListener(NotificationListener listener) {
+    delegate.removeNotificationListener(listener);
+  }
+
+  @Override
+  public int getConnectionCount() {
+    return delegate.getConnectionCount();
+  }
+
+  @Override
+  public void disconnect(String deviceId) {
+    delegate.disconnect(deviceId);
+  }
+
+  /**
+   * Fails all queued commands and closes the wrapped controller. Commands that are sent afterwards
+   * fail right away.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+      }
+    }
+    for (DeviceQueue queue : queues.values()) {
+      queue.fail(new IOException("controller has been closed"));
+    }
+    queues.clear();
+    delegate.close();
+  }
+
+  /** a queued command and the futures of the commands it replaced */
+  private static final class Queued {
+    private DiscoveredDevice device;
+    private final String method;
+    private Object[] params;
+    private final List<CompletableFuture<List<Object>>> futures = new ArrayList<>(1);
+
+    private Queued(DiscoveredDevice device, String method, Object[] params) {
+      this.device = device;
+      this.method = method;
+      this.params = params;
+    }
+  }
+
+  /** the bucket and the waiting commands of one device */
+  private final class DeviceQueue {
+    private final String deviceId;
+    private final TokenBucket bucket = new TokenBucket(burst, refillNanos, System.nanoTime());
+    private final Deque<Queued> queue = new ArrayDeque<>();
+    private boolean drainScheduled;
+    private boolean pruneScheduled;
+    /** set once the queue has been dropped from {@link RateLimitedController#queues} */
+    private boolean removed;
+
+    private DeviceQueue(String deviceId) {
+      this.deviceId = deviceId;
+    }
+
+    /**
+     * @return <code>null</code> if the queue has been dropped in the meantime.
+     */
+    private CompletableFuture<List<Object>> submit(DiscoveredDevice device, String method,
+        Object[] params) {
+      CompletableFuture<List<Object>> result = new CompletableFuture<>();
+      Queued command = new Queued(device, method, params);
+      command.futures.add(result);
+      synchronized (this) {
+        if (removed) {
+          return null;
+        }
+        if (!queue.isEmpty() || !bucket.tryAcquire(System.nanoTime())) {
+          enqueue(command);
+          return result;
+        }
+        schedulePrune();
+      }
+      forward(command);
+      return result;
+    }
+
+    private void enqueue(Queued command) {
+      if (coalescedMethods.contains(command.method)) {
+        for (Queued queued : queue) {
+          if (queued.method.equals(command.method)) {
+            // the newer value wins but keeps the position of the queued command
+            queued.device = command.device;
+            queued.params = command.params;
+            queued.futures.addAll(command.futures);
+            log.trace("replaced queued [{}] of device [{}]", command.method, deviceId);
+            return;
+          }
+        }
+      }
+      if (queue.size() >= maxQueueLength) {
+        RejectedExecutionException error = new RejectedExecutionException("more than ["
+            + maxQueueLength + "] commands queued for device [" + deviceId + "]");
+        command.futures.forEach(future -> future.completeExceptionally(error));
+        return;
+      }
+      queue.add(command);
+      scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+      if (!drainScheduled) {
+        try {
+          getScheduler().schedule(this::drain, bucket.nanosUntilAvailable(System.nanoTime()),
+              TimeUnit.NANOSECONDS);
+          drainScheduled = true;
+        } catch (RejectedExecutionException e) {
+          // closed in the meantime, nobody would send the queued commands
+          for (Queued queued : queue) {
+            queued.futures.forEach(future -> future.completeExceptionally(e));
+          }
+          queue.clear();
+        }
+      }
+    }
+
+    /**
+     * Drops the queue once it is idle and the bucket is full, so a new queue behaves the same.
+     */
+    private void schedulePrune() {
+      if (!pruneScheduled) {
+        try {
+          getScheduler().schedule(this::prune, bucket.nanosUntilFull(System.nanoTime()),
+              TimeUnit.NANOSECONDS);
+          pruneScheduled = true;
+        } catch (RejectedExecutionException e) {
+          // closed, the queues are cleared anyway
+        }
+      }
+    }
+
+    private synchronized void prune() {
+      pruneScheduled = false;
+      if (!queue.isEmpty()) {
+        // the drain schedules the next prune
+        return;
+      }
+      if (bucket.nanosUntilFull(System.nanoTime()) > 0) {
+        schedulePrune();
+      } else {
+        removed = true;
+        queues.remove(deviceId, this);
+      }
+    }
+
+    private void drain() {
+      List<Queued> ready = new ArrayList<>();
+      synchronized (this) {
+        drainScheduled = false;
+        long now = System.nanoTime();
+        while (!queue.isEmpty() && bucket.tryAcquire(now)) {
+          ready.add(queue.poll());
+        }
+        if (queue.isEmpty()) {
+          schedulePrune();
+        } else {
+          scheduleDrain();
+        }
+      }
+      ready.forEach(this::forward);
+    }
+
+    private void forward(Queued command) {
+      CompletableFuture<List<Object>> response;
+      try {
+        response = delegate.send(command.device, command.method, command.params);
+      } catch (RuntimeException e) {
+        response = new CompletableFuture<>();
+        response.completeExceptionally(e);
+      }
+      response.whenComplete((value, error) -> {
+        for (CompletableFuture<List<Object>> future : command.futures) {
+          if (error == null) {
+            future.complete(value);
+          } else {
+            future.completeExceptionally(
+                error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+          }
+        }
+      });
+    }
+
+    private synchronized int size() {
+      return queue.size();
+    }
+
+    private void fail(Throwable cause) {
+      List<Queued> failed;
+      synchronized (this) {
+        failed = new ArrayList<>(queue);
+        queue.clear();
+      }
+      for (Queued command : failed) {
+        command.futures.forEach(future -> future.completeExceptionally(cause));
+      }
+    }
+  }
+
+  private synchronized ScheduledExecutorService getScheduler() {
+    if (closed) {
+      throw new RejectedExecutionException("controller closed");
+    }
+    if (scheduler == null) {
+      scheduler = Executors
+          .newSingleThreadScheduledExecutor(ThreadSupport.daemonThreads("yedi-rate-limiter-"));
+    }
+    return scheduler;
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+/**
+ * Classic token bucket: holds up to <code>capacity</code> tokens and gains one token per
+ * <code>refillNanos</code>. Every command takes one token.<br>
+ * <br>
+ * This class is not thread-safe. The owner has to synchronize access.
+ */
+class TokenBucket {
+
+  private final int capacity;
+  private final long refillNanos;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Creates a full bucket.
+   *
+   * @param capacity maximum number of tokens, i.e. the largest burst.
+   * @param refillNanos time it takes to gain one token.
+   * @param nowNanos the current time.
+   */
+  TokenBucket(int capacity, long refillNanos, long nowNanos) {
+    if (capacity <= 0 || refillNanos <= 0) {
+      throw new IllegalArgumentException("capacity and refillNanos must be positive!");
+    }
+    this.capacity = capacity;
+    this.refillNanos = refillNanos;
+    this.tokens = capacity;
+    this.lastRefill = nowNanos;
+  }
+
+  /**
+   * Takes one token if there is one.
+   *
+   * @return <code>true</code> if a token has been taken.
+   */
+  boolean tryAcquire(long nowNanos) {
+    refill(nowNanos);
+    if (tokens >= 1) {
+      tokens -= 1;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return time until the next token is available. 0 if there is one already.
+   */
+  long nanosUntilAvailable(long nowNanos) {
+    refill(nowNanos);
+    return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * refillNanos);
+  }
+
+  /**
+   * @return time until the bucket is full again. 0 if it is full already.
+   */
+  long nanosUntilFull(long nowNanos) {
+    refill(nowNanos);
+    return (long) Math.ceil((capacity - tokens) * refillNanos);
+  }
+
+  private void refill(long nowNanos) {
+    long elapsed = nowNanos - lastRefill;
+    if (elapsed > 0) {
+      tokens = Math.min(capacity, tokens + (double) elapsed / refillNanos);
+      lastRefill = nowNanos;
+    }
+  }
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory-efficient, immutable representation of a {@link DiscoveredDevice} for keeping tens of
+ * thousands of devices. Instead of boxed values, a {@link URI} and a list of strings per device it
+ * stores
+ * <ul>
+ * <li>numeric values in primitive fields along with a bit that tells whether they are present,</li>
+ * <li>the id <code>0x0123456789abcdef</code> as a <code>long</code>,</li>
+ * <li>the location <code>yeelight://a.b.c.d:port</code> as an IPv4 address and a port,</li>
+ * <li>the supported functions as a bitset over {@link #KNOWN_FUNCTIONS},</li>
+ * <li>model, server and power as interned strings that are shared by all devices.</li>
+ * </ul>
+ * Values that do not fit one of these encodings, e.g. a host name as location or an unknown
+ * function, are kept as they are, so the conversion back with {@link #toDiscoveredDevice()} is
+ * always exact.
+ */
+public final class CompactDevice {
+
+  /**
+   * methods of the Yeelight protocol, in the order the devices list them. The index is the bit in
+   * the bitset.
+   */
+  public static final List<String> KNOWN_FUNCTIONS = Collections.unmodifiableList(Arrays.asList(
+      "get_prop", "set_default", "set_power", "toggle", "set_bright", "start_cf", "stop_cf",
+      "set_scene", "cron_add", "cron_get", "cron_del", "set_ct_abx", "set_rgb", "set_hsv",
+      "set_adjust", "adjust_bright", "adjust_ct", "adjust_color", "set_music", "set_name",
+      "bg_set_rgb", "bg_set_hsv", "bg_set_ct_abx", "bg_start_cf", "bg_stop_cf", "bg_set_scene",
+      "bg_set_default", "bg_set_power", "bg_set_bright", "bg_set_adjust", "bg_adjust_bright",
+      "bg_adjust_ct", "bg_adjust_color", "bg_toggle", "dev_toggle"));
+
+  private static final Map<String, Integer> FUNCTION_BITS = new HashMap<>();
+
+  static {
+    for (int i = 0; i < KNOWN_FUNCTIONS.size(); i++) {
+      FUNCTION_BITS.put(KNOWN_FUNCTIONS.get(i), i);
+    }
+  }
+
+  private static final String LOCATION_PREFIX = "yeelight://";
+
+  // presence bits of the primitive fields
+  private static final int ID = 1;
+  private static final int CACHE_CONTROL = 1 << 1;
+  private static final int LOCATION = 1 << 2;
+  private static final int FIRMWARE_VERSION = 1 << 3;
+  private static final int BRIGHTNESS = 1 << 4;
+  private static final int COLOR_MODE = 1 << 5;
+  private static final int COLOR_TEMPERATURE = 1 << 6;
+  private static final int COLOR_RGB = 1 << 7;
+  private static final int HUE = 1 << 8;
+  private static final int SATURATION = 1 << 9;
+  private static final int FIRST_SEEN = 1 << 10;
+  private static final int LAST_SEEN = 1 << 11;
+  private static final int FUNCTIONS = 1 << 12;
+
+  private int present;
+  private long id;
+  private long cacheControl;
+  private long firstSeen;
+  private long lastSeen;
+  private long functions;
+  private int address;
+  private int port;
+  private int firmwareVersion;
+  private int brightness;
+  private int colorMode;
+  private int colorTemperature;
+  private int colorRGB;
+  private int hue;
+  private int saturation;
+  private String model;
+  private String server;
+  private String power;
+  private String name;
+  /** the id if it does not have the usual format */
+  private String otherId;
+  /** the location if it is not an IPv4 address with port */
+  private URI otherLocation;
+  /** all functions if some are unknown or they are not in the usual order */
+  private String[] otherFunctions;
+
+  private CompactDevice() {}
+
+  /**
+   * Creates the compact representation of the device.
+   */
+  public static CompactDevice of(DiscoveredDevice device) {
+    CompactDevice result = new CompactDevice();
+    result.encodeId(device.getId());
+    result.encodeLocation(device.getLocation());
+    result.encodeFunctions(device.getSupportedFunctions());
+    if (device.getCacheControl() != null) {
+      result.present |= CACHE_CONTROL;
+      result.cacheControl = device.getCacheControl();
+    }
+    if (device.getFirmwareVersion() != null) {
+      result.present |= FIRMWARE_VERSION;
+      result.firmwareVersion = device.getFirmwareVersion();
+    }
+    if (device.getBrightness() != null) {
+      result.present |= BRIGHTNESS;
+      result.brightness = device.getBrightness();
+    }
+    if (device.getColorMode() != null) {
+      result.present |= COLOR_MODE;
+      result.colorMode = device.getColorMode();
+    }
+    if (device.getColorTemparature() != null) {
+      result.present |= COLOR_TEMPERATURE;
+      result.colorTemperature = device.getColorTemparature();
+    }
+    if (device.getColorRGB() != null) {
+      result.present |= COLOR_RGB;
+      result.colorRGB = device.getColorRGB();
+    }
+    if (device.getHue() != null) {
+      result.present |= HUE;
+      result.hue = device.getHue();
+    }
+    if (device.getSaturation() != null) {
+      result.present |= SATURATION;
+      result.saturation = device.getSaturation();
+    }
+    if (device.getFirstSeen() != null) {
+      result.present |= FIRST_SEEN;
+      result.firstSeen = device.getFirstSeen();
+    }
+    if (device.getLastSeen() != null) {
+      result.present |= LAST_SEEN;
+      result.lastSeen = device.getLastSeen();
+    }
+    result.model = intern(device.getModel());
+    result.server = intern(device.getServer());
+    result.power = intern(device.getPower());
+    result.name = device.getName();
+    return result;
+  }
+
+  /**
+   * Creates a new {@link DiscoveredDevice} with the same values.
+   */
+  public DiscoveredDevice toDiscoveredDevice() {
+    DiscoveredDevice result = new DiscoveredDevice();
+    result.setId(getId());
+    result.setCacheControl(getCacheControl());
+    result.setLocation(getLocation());
+    result.setModel(model);
+    result.setFirmwareVersion(getFirmwareVersion());
+    result.setSupportedFunctions(getSupportedFunctions());
+    result.setPower(power);
+    result.setBrightness(getBrightness());
+    result.setColorMode(getColorMode());
+    result.setColorTemparature(getColorTemperature());
+    result.setColorRGB(getColorRGB());
+    result.setHue(getHue());
+    result.setSaturation(getSaturation());
+    result.setName(name);
+    result.setServer(server);
+    result.setFirstSeen(getFirstSeen());
+    result.setLastSeen(getLastSeen());
+    return result;
+  }
+
+  private void encodeId(String value) {
+    if (value != null && value.length() == 18 && value.startsWith("0x") && isLowerHex(value)) {
+      present |= ID;
+      id = Long.parseUnsignedLong(value.substring(2), 16);
+    } else {
+      otherId = value;
+    }
+  }
+
+  private static boolean isLowerHex(String value) {
+    for (int i = 2; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void encodeLocation(URI value) {
+    if (value == null) {
+      return;
+    }
+    String text = value.toString();
+    int colon = text.lastIndexOf(':');
+    if (text.startsWith(LOCATION_PREFIX) && colon > LOCATION_PREFIX.length()) {
+      long parsedAddress = Ipv4Network.parseAddress(text, LOCATION_PREFIX.length(), colon);
+      int parsedPort = parsePort(text, colon + 1);
+      // only use the compact form if it gives back exactly the same text, e.g. no leading zeros
+      if (parsedAddress >= 0 && parsedPort >= 0
+          && text.equals(formatLocation((int) parsedAddress, parsedPort))) {
+        present |= LOCATION;
+        address = (int) parsedAddress;
+        port = parsedPort;
+        return;
+      }
+    }
+    otherLocation = value;
+  }
+
+  private static int parsePort(String text, int start) {
+    if (start >= text.length() || text.length() - start > 5) {
+      return -1;
+    }
+    int result = 0;
+    for (int i = start; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      result = result * 10 + (c - '0');
+    }
+    return result <= 0xffff ? result : -1;
+  }
+
+  private static String formatLocation(int address, int port) {
+    return LOCATION_PREFIX + (address >>> 24) + '.' + ((address >>> 16) & 0xff) + '.'
+        + ((address >>> 8) & 0xff) + '.' + (address & 0xff) + ':' + port;
+  }
+
+  private void encodeFunctions(List<String> value) {
+    if (value == null) {
+      return;
+    }
+    present |= FUNCTIONS;
+    int previousBit = -1;
+    boolean canonical = true;
+    for (String function : value) {
+      Integer bit = FUNCTION_BITS.get(function);
+      if (bit == null || bit <= previousBit) {
+        canonical = false;
+      } else {
+        previousBit = bit;
+      }
+      if (bit != null) {
+        functions |= 1L << bit;
+      }
+    }
+    if (!canonical) {
+      otherFunctions = new String[value.size()];
+      for (int i = 0; i < otherFunctions.length; i++) {
+        otherFunctions[i] = intern(value.get(i));
+      }
+    }
+  }
+
+  private static String intern(String value) {
+    return value == null ? null : value.intern();
+  }
+
+  private static Integer integer(int flag, int present, int value) {
+    return (present & flag) != 0 ? value : null;
+  }
+
+  private static Long number(int flag, int present, long value) {
+    return (present & flag) != 0 ? value : null;
+  }
+
+  public String getId() {
+    if ((present & ID) == 0) {
+      return otherId;
+    }
+    String hex = Long.toHexString(id);
+    StringBuilder result = new StringBuilder(18).append("0x");
+    for (int i = hex.length(); i < 16; i++) {
+      result.append('0');
+    }
+    return result.append(hex).toString();
+  }
+
+  public URI getLocation() {
+    if ((present & LOCATION) == 0) {
+      return otherLocation;
+    }
+    return URI.create(formatLocation(address, port));
+  }
+
+  /**
+   * @return the IPv4 address of the location as <code>int</code>, e.g. for grouping devices by
+   *         subnet, or <code>null</code> if the location is not an IPv4 address.
+   */
+  public Integer getIpv4Address() {
+    return integer(LOCATION, present, address);
+  }
+
+  /**
+   * @return the port of the location or <code>null</code> if the location is not an IPv4 address.
+   */
+  public Integer getPort() {
+    return integer(LOCATION, present, port);
+  }
+
+  /**
+   * @return <code>true</code> if the device lists the method in its supported functions.
+   */
+  public boolean supports(String function) {
+    Integer bit = FUNCTION_BITS.get(function);
+    if (bit != null) {
+      return (functions & (1L << bit)) != 0;
+    }
+    return otherFunctions != null && Arrays.asList(otherFunctions).contains(function);
+  }
+
+  /**
+   * @return a new list of the supported functions or <code>null</code> if the device had none.
+   */
+  public List<String> getSupportedFunctions() {
+    if ((present & FUNCTIONS) == 0) {
+      return null;
+    }
+    if (otherFunctions != null) {
+      return new ArrayList<>(Arrays.asList(otherFunctions));
+    }
+    List<String> result = new ArrayList<>(Long.bitCount(functions));
+    for (int bit = 0; bit < KNOWN_FUNCTIONS.size(); bit++) {
+      if ((functions & (1L << bit)) != 0) {
+        result.add(KNOWN_FUNCTIONS.get(bit));
+      }
+    }
+    return result;
+  }
+
+  public Long getCacheControl() {
+    return number(CACHE_CONTROL, present, cacheControl);
+  }
+
+  public String getModel() {
+    return model;
+  }
+
+  public Integer getFirmwareVersion() {
+    return integer(FIRMWARE_VERSION, present, firmwareVersion);
+  }
+
+  public String getPower() {
+    return power;
+  }
+
+  public Integer getBrightness() {
+    return integer(BRIGHTNESS, present, brightness);
+  }
+
+  public Integer getColorMode() {
+    return integer(COLOR_MODE, present, colorMode);
+  }
+
+  public Integer getColorTemperature() {
+    return integer(COLOR_TEMPERATURE, present, colorTemperature);
+  }
+
+  public Integer getColorRGB() {
+    return integer(COLOR_RGB, present, colorRGB);
+  }
+
+  public Integer getHue() {
+    return integer(HUE, present, hue);
+  }
+
+  public Integer getSaturation() {
+    return integer(SATURATION, present, saturation);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getServer() {
+    return server;
+  }
+
+  public Long getFirstSeen() {
+    return number(FIRST_SEEN, present, firstSeen);
+  }
+
+  public Long getLastSeen() {
+    return number(LAST_SEEN, present, lastSeen);
+  }
+
+  /**
+   * Devices are equal if they have the same id, like {@link DiscoveredDevice}s.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof CompactDevice)) {
+      return false;
+    }
+    CompactDevice device = (CompactDevice) other;
+    return (present & ID) == (device.present & ID) && id == device.id
+        && (otherId == null ? device.otherId == null : otherId.equals(device.otherId));
+  }
+
+  @Override
+  public int hashCode() {
+    return (present & ID) != 0 ? Long.hashCode(id) : otherId == null ? 0 : otherId.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDevice(" + toDiscoveredDevice() + ")";
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * One entry of a {@link DeviceChangeFeed}: a device has appeared, changed, expired or has been
+ * removed.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class DeviceChange {
+
+  public enum Type {
+    /** a device with an id that was not known before */
+    APPEARED,
+    /** a known device has advertised different values, see {@link DeviceChange#getFields()} */
+    UPDATED,
+    /** the device did not advertise itself again within its <code>max-age</code> */
+    EXPIRED,
+    /** the device has been removed from the registry */
+    REMOVED
+  }
+
+  /** position in the feed. Every change has a version one higher than the change before */
+  private long version;
+  private Type type;
+  /** the device after the change, or the last known state if it has expired or been removed */
+  private DiscoveredDevice device;
+  /** for {@link Type#UPDATED} the names of the properties that have changed, otherwise empty */
+  private Set<String> fields;
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes the changes of a {@link DeviceRegistry} instead of its full content, so consumers only
+ * process what has changed between two discoveries or advertisements:<br>
+ * <code>DeviceChangeFeed feed = new DeviceChangeFeed();<br>
+ * feed.track(service.getRegistry());<br>
+ * List&lt;DeviceChange&gt; changes = feed.changesSince(lastVersion);</code><br>
+ * <br>
+ * Every change gets a version one higher than the one before. A consumer remembers the version of
+ * the last change it has processed and asks for the changes since then. The feed keeps the latest
+ * {@link #getCapacity()} changes. A consumer that has fallen further behind starts over with
+ * {@link #snapshot()}, which returns all current devices together with the version they belong
+ * to.<br>
+ * <br>
+ * An advertisement that repeats the known values is not a change. Only the properties in
+ * {@link #FIELDS} are compared, the timestamps and the <code>max-age</code> are not.
+ */
+@Slf4j
+public class DeviceChangeFeed implements DeviceRegistryListener {
+
+  /** number of changes that are kept by default */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** names of the compared properties */
+  public static final Set<String> FIELDS;
+
+  private static final Map<String, Function<DiscoveredDevice, Object>> PROPERTIES =
+      new LinkedHashMap<>();
+
+  static {
+    PROPERTIES.put("location", DiscoveredDevice::getLocation);
+    PROPERTIES.put("model", DiscoveredDevice::getModel);
+    PROPERTIES.put("firmwareVersion", DiscoveredDevice::getFirmwareVersion);
+    PROPERTIES.put("supportedFunctions", DiscoveredDevice::getSupportedFunctions);
+    PROPERTIES.put("power", DiscoveredDevice::getPower);
+    PROPERTIES.put("brightness", DiscoveredDevice::getBrightness);
+    PROPERTIES.put("colorMode", DiscoveredDevice::getColorMode);
+    PROPERTIES.put("colorTemparature", DiscoveredDevice::getColorTemparature);
+    PROPERTIES.put("colorRGB", DiscoveredDevice::getColorRGB);
+    PROPERTIES.put("hue", DiscoveredDevice::getHue);
+    PROPERTIES.put("saturation", DiscoveredDevice::getSaturation);
+    PROPERTIES.put("name", DiscoveredDevice::getName);
+    PROPERTIES.put("server", DiscoveredDevice::getServer);
+    FIELDS = Collections.unmodifiableSet(PROPERTIES.keySet());
+  }
+
+  @Getter
+  private final int capacity;
+  /** the latest changes, the change with version v is at v % capacity */
+  private final DeviceChange[] changes;
+  private final Map<String, DiscoveredDevice> devices = new LinkedHashMap<>();
+  private final List<Consumer<DeviceChange>> subscribers = new CopyOnWriteArrayList<>();
+  /** version of the latest change */
+  private long version;
+
+  /**
+   * Creates a feed that keeps the latest {@value #DEFAULT_CAPACITY} changes.
+   */
+  public DeviceChangeFeed() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity number of changes that are kept for {@link #changesSince(long)}.
+   */
+  public DeviceChangeFeed(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.changes = new DeviceChange[capacity];
+  }
+
+  /**
+   * Publishes the devices of the registry as appeared and keeps track of its changes.
+   */
+  public void track(DeviceRegistry registry) {
+    registry.addListener(this);
+    registry.getDevices().forEach(this::update);
+  }
+
+  /**
+   * Adds a subscriber that gets every change as soon as it has been published. It is called on the
+   * thread that changed the registry, while the registry and the feed are locked, so it has to
+   * return quickly. The changes arrive in the order of their versions.
+   */
+  public void subscribe(Consumer<DeviceChange> subscriber) {
+    subscribers.add(subscriber);
+  }
+
+  public void unsubscribe(Consumer<DeviceChange> subscriber) {
+    subscribers.remove(subscriber);
+  }
+
+  /**
+   * Publishes the device as appeared or, if a device with the same id is known, the properties
+   * that differ. Devices without id are ignored.
+   */
+  public synchronized void update(DiscoveredDevice device) {
+    String id = device.getId();
+    if (id == null) {
+      return;
+    }
+    DiscoveredDevice previous = devices.put(id, device);
+    if (previous == null) {
+      append(DeviceChange.Type.APPEARED, device, Collections.emptySet());
+    } else {
+      Set<String> fields = changedFields(previous, device);
+      if (!fields.isEmpty()) {
+        append(DeviceChange.Type.UPDATED, device, fields);
+      }
+    }
+  }
+
+  @Override
+  public void deviceAdded(DiscoveredDevice device) {
+    update(device);
+  }
+
+  @Override
+  public void deviceRefreshed(DiscoveredDevice previous, DiscoveredDevice current) {
+    update(current);
+  }
+
+  @Override
+  public void deviceExpired(DiscoveredDevice device) {
+    remove(device.getId(), DeviceChange.Type.EXPIRED);
+  }
+
+  @Override
+  public void deviceRemoved(DiscoveredDevice device) {
+    remove(device.getId(), DeviceChange.Type.REMOVED);
+  }
+
+  private synchronized void remove(String id, DeviceChange.Type type) {
+    DiscoveredDevice removed = devices.remove(id);
+    if (removed != null) {
+      append(type, removed, Collections.emptySet());
+    }
+  }
+
+  private void append(DeviceChange.Type type, DiscoveredDevice device, Set<String> fields) {
+    version++;
+    DeviceChange change = new DeviceChange(version, type, device, fields);
+    changes[(int) (version % capacity)] = change;
+    for (Consumer<DeviceChange> subscriber : subscribers) {
+      try {
+        subscriber.accept(change);
+      } catch (RuntimeException e) {
+        log.warn("subscriber [{}] failed on change [{}]", subscriber, change, e);
+      }
+    }
+  }
+
+  /**
+   * @return version of the latest change, <code>0</code> if nothing has been published yet.
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the changes a consumer has not seen yet.
+   *
+   * @param version the version of the last change the consumer has processed, <code>0</code> for
+   *        all changes.
+   * @return the changes with a higher version, oldest first. Empty if there are none.
+   * @throws IllegalArgumentException if some of these changes are no longer kept. Start over with
+   *         {@link #snapshot()} then.
+   */
+  public synchronized List<DeviceChange> changesSince(long version) {
+    if (version < 0 || version > this.version) {
+      throw new IllegalArgumentException(
+          "unknown version [" + version + "], latest is [" + this.version + "]");
+    }
+    if (this.version - version > capacity) {
+      throw new IllegalArgumentException("changes since version [" + version
+          + "] are no longer kept, oldest is [" + (this.version - capacity + 1) + "]");
+    }
+    List<DeviceChange> result = new ArrayList<>((int) (this.version - version));
+    for (long next = version + 1; next <= this.version; next++) {
+      result.add(changes[(int) (next % capacity)]);
+    }
+    return result;
+  }
+
+  /**
+   * @return all current devices and the version of the latest change they contain.
+   */
+  public synchronized Snapshot snapshot() {
+    return new Snapshot(version, new ArrayList<>(devices.values()));
+  }
+
+  /**
+   * The devices at one version of the feed. Continue with
+   * {@link DeviceChangeFeed#changesSince(long)} using its version.
+   */
+  @Getter
+  public static final class Snapshot {
+    private final long version;
+    private final List<DiscoveredDevice> devices;
+
+    Snapshot(long version, List<DiscoveredDevice> devices) {
+      this.version = version;
+      this.devices = Collections.unmodifiableList(devices);
+    }
+  }
+
+  /**
+   * @return names of the properties in {@link #FIELDS} that differ.
+   */
+  static Set<String> changedFields(DiscoveredDevice previous, DiscoveredDevice current) {
+    Set<String> result = new LinkedHashSet<>();
+    for (Map.Entry<String, Function<DiscoveredDevice, Object>> property : PROPERTIES.entrySet()) {
+      if (!Objects.equals(property.getValue().apply(previous),
+          property.getValue().apply(current))) {
+        result.add(property.getKey());
+      }
+    }
+    return result.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(result);
+  }
+
+}
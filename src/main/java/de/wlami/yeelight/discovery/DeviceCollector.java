@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread-safe collector for the devices received by an {@link UDPListener}. Devices often answer a
+ * search several times or send advertisements in between. All messages of a device are merged
+ * into one {@link DiscoveredDevice}: the latest state wins while
+ * {@link DiscoveredDevice#getFirstSeen()} is kept. The entries are stored in a
+ * {@link ConcurrentHashMap} and merged with {@link ConcurrentHashMap#merge}, so writers of
+ * different devices don't block each other and readers never block.<br>
+ * <br>
+ * Merged entries are new instances, a {@link DiscoveredDevice} returned by this collector is never
+ * changed afterwards.
+ */
+@Slf4j
+class DeviceCollector implements Consumer<DiscoveredDevice> {
+
+  private final ConcurrentMap<String, DiscoveredDevice> devices = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  DeviceCollector() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock source of the timestamps in milliseconds.
+   */
+  DeviceCollector(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public void accept(DiscoveredDevice device) {
+    add(device);
+  }
+
+  /**
+   * Merges the device into the collected devices. Devices without id are ignored.
+   *
+   * @param device a freshly received device. Its timestamps are set if missing.
+   * @return <code>true</code> if no device with this id has been collected before.
+   */
+  boolean add(DiscoveredDevice device) {
+    if (device.getId() == null) {
+      log.debug("ignoring device without id [{}]", device);
+      return false;
+    }
+    stamp(device, clock.getAsLong());
+    boolean[] added = new boolean[1];
+    devices.compute(device.getId(), (id, previous) -> {
+      added[0] = previous == null;
+      return previous == null ? device : merge(previous, device);
+    });
+    return added[0];
+  }
+
+  /**
+   * @return the device with the given id or <code>null</code>.
+   */
+  DiscoveredDevice get(String id) {
+    return devices.get(id);
+  }
+
+  /**
+   * @return a snapshot of the collected devices.
+   */
+  List<DiscoveredDevice> getDevices() {
+    return new ArrayList<>(devices.values());
+  }
+
+  int size() {
+    return devices.size();
+  }
+
+  /**
+   * Sets {@link DiscoveredDevice#getLastSeen()} and {@link DiscoveredDevice#getFirstSeen()} to the
+   * given time unless they are already set.
+   */
+  static void stamp(DiscoveredDevice device, long now) {
+    if (device.getLastSeen() == null) {
+      device.setLastSeen(now);
+    }
+    if (device.getFirstSeen() == null) {
+      device.setFirstSeen(device.getLastSeen());
+    }
+  }
+
+  /**
+   * Creates a new device from the previous state and the update. Fields that are not contained in
+   * the update keep their previous value.
+   *
+   * @param previous the known state of the device.
+   * @param update the newer message of the same device.
+   * @return a new instance with the merged state.
+   */
+  static DiscoveredDevice merge(DiscoveredDevice previous, DiscoveredDevice update) {
+    DiscoveredDevice result = new DiscoveredDevice();
+    result.setId(update.getId());
+    result.setCacheControl(latest(previous.getCacheControl(), update.getCacheControl()));
+    result.setLocation(latest(previous.getLocation(), update.getLocation()));
+    result.setModel(latest(previous.getModel(), update.getModel()));
+    result.setFirmwareVersion(latest(previous.getFirmwareVersion(), update.getFirmwareVersion()));
+    result.setSupportedFunctions(update.getSupportedFunctions() == null
+        || update.getSupportedFunctions().isEmpty() ? previous.getSupportedFunctions()
+            : update.getSupportedFunctions());
+    result.setPower(latest(previous.getPower(), update.getPower()));
+    result.setBrightness(latest(previous.getBrightness(), update.getBrightness()));
+    result.setColorMode(latest(previous.getColorMode(), update.getColorMode()));
+    result.setColorTemparature(
+        latest(previous.getColorTemparature(), update.getColorTemparature()));
+    result.setColorRGB(latest(previous.getColorRGB(), update.getColorRGB()));
+    result.setHue(latest(previous.getHue(), update.getHue()));
+    result.setSaturation(latest(previous.getSaturation(), update.getSaturation()));
+    result.setName(latest(previous.getName(), update.getName()));
+    result.setServer(latest(previous.getServer(), update.getServer()));
+    result.setFirstSeen(previous.getFirstSeen() != null ? previous.getFirstSeen()
+        : update.getFirstSeen());
+    result.setLastSeen(latest(previous.getLastSeen(), update.getLastSeen()));
+    return result;
+  }
+
+  private static <T> T latest(T previous, T update) {
+    return update != null ? update : previous;
+  }
+
+}
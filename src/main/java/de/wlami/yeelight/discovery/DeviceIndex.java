@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Devices with secondary indexes on model, supported functions, power state and IPv4 subnet, so
+ * that selectors like "all color bulbs in 192.168.1.0/24 that support <code>set_rgb</code> and are
+ * on" are answered by index lookups instead of scanning all devices:<br>
+ * <code>index.query().model(DiscoveredDevice.Constants.MODEL_COLOR_BULB).supports("set_rgb")
+ * .power(DiscoveredDevice.Constants.POWER_ON).subnet("192.168.1.0/24").list()</code><br>
+ * <br>
+ * Wire it to a registry with {@link #track(DeviceRegistry)}. The indexes are then updated
+ * incrementally whenever a device is added, refreshed, expires or is removed. Queries don't lock
+ * and may run concurrently with updates; they only return devices that match in their current
+ * state.
+ */
+public class DeviceIndex implements DeviceRegistryListener {
+
+  /** the subnet index is kept per /24 network */
+  private static final int SUBNET_MASK = 0xffffff00;
+
+  private final ConcurrentMap<String, DiscoveredDevice> devices = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<String>> byModel = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<String>> byFunction = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Set<String>> byPower = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Set<String>> bySubnet = new ConcurrentHashMap<>();
+  /** guards all modifications. queries read the concurrent maps directly */
+  private final Object lock = new Object();
+
+  /**
+   * Adds all devices of the registry and keeps track of its changes.
+   */
+  public void track(DeviceRegistry registry) {
+    registry.addListener(this);
+    registry.getDevices().forEach(this::update);
+  }
+
+  /**
+   * Adds the device or replaces the device with the same id. Only the index entries of values that
+   * have changed are touched. Devices without id are ignored.
+   */
+  public void update(DiscoveredDevice device) {
+    String id = device.getId();
+    if (id == null) {
+      return;
+    }
+    synchronized (lock) {
+      DiscoveredDevice previous = devices.put(id, device);
+      if (previous == null) {
+        previous = new DiscoveredDevice();
+        previous.setSupportedFunctions(null);
+      }
+      reindex(byModel, previous.getModel(), device.getModel(), id);
+      reindex(byPower, previous.getPower(), device.getPower(), id);
+      reindex(bySubnet, subnet(previous.getLocation()), subnet(device.getLocation()), id);
+      List<String> oldFunctions = functions(previous);
+      List<String> newFunctions = functions(device);
+      if (!oldFunctions.equals(newFunctions)) {
+        Set<String> remaining = new HashSet<>(newFunctions);
+        for (String function : oldFunctions) {
+          if (!remaining.contains(function)) {
+            unindex(byFunction, function, id);
+          }
+        }
+        for (String function : newFunctions) {
+          index(byFunction, function, id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the device with the given id.
+   *
+   * @return the removed device or <code>null</code> if there was none.
+   */
+  public DiscoveredDevice remove(String id) {
+    synchronized (lock) {
+      DiscoveredDevice removed = devices.remove(id);
+      if (removed != null) {
+        unindex(byModel, removed.getModel(), id);
+        unindex(byPower, removed.getPower(), id);
+        unindex(bySubnet, subnet(removed.getLocation()), id);
+        for (String function : functions(removed)) {
+          unindex(byFunction, function, id);
+        }
+      }
+      return removed;
+    }
+  }
+
+  /**
+   * @return the device or <code>null</code> if there is no device with that id.
+   */
+  public DiscoveredDevice get(String id) {
+    return devices.get(id);
+  }
+
+  /**
+   * @return number of indexed devices.
+   */
+  public int size() {
+    return devices.size();
+  }
+
+  /**
+   * @return a new query. Without any criteria it matches all devices.
+   */
+  public Query query() {
+    return new Query();
+  }
+
+  @Override
+  public void deviceAdded(DiscoveredDevice device) {
+    update(device);
+  }
+
+  @Override
+  public void deviceRefreshed(DiscoveredDevice previous, DiscoveredDevice current) {
+    update(current);
+  }
+
+  @Override
+  public void deviceExpired(DiscoveredDevice device) {
+    remove(device.getId());
+  }
+
+  @Override
+  public void deviceRemoved(DiscoveredDevice device) {
+    remove(device.getId());
+  }
+
+  private static <K> void reindex(Map<K, Set<String>> index, K previous, K current, String id) {
+    if (!Objects.equals(previous, current)) {
+      unindex(index, previous, id);
+      index(index, current, id);
+    }
+  }
+
+  private static <K> void index(Map<K, Set<String>> index, K key, String id) {
+    if (key != null) {
+      index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  private static <K> void unindex(Map<K, Set<String>> index, K key, String id) {
+    if (key != null) {
+      index.computeIfPresent(key, (k, ids) -> {
+        ids.remove(id);
+        return ids.isEmpty() ? null : ids;
+      });
+    }
+  }
+
+  private static List<String> functions(DiscoveredDevice device) {
+    return device.getSupportedFunctions() == null ? Collections.emptyList()
+        : device.getSupportedFunctions();
+  }
+
+  /**
+   * @return the /24 network of the IPv4 address in the location or <code>null</code>.
+   */
+  private static Integer subnet(URI location) {
+    long address = ipv4(location);
+    return address < 0 ? null : (int) address & SUBNET_MASK;
+  }
+
+  private static long ipv4(URI location) {
+    String host = location == null ? null : location.getHost();
+    return host == null ? -1 : Ipv4Network.parseAddress(host, 0, host.length());
+  }
+
+  /**
+   * Selects devices by model, supported functions, power state and subnet. All criteria have to
+   * match. The query starts from the smallest index set and checks the others for each candidate.
+   */
+  public final class Query {
+
+    private String model;
+    private final List<String> functions = new ArrayList<>();
+    private String power;
+    private Ipv4Network network;
+
+    private Query() {}
+
+    /**
+     * @param model one of the <code>DiscoveredDevice.Constants.MODEL_*</code> values.
+     */
+    public Query model(String model) {
+      this.model = model;
+      return this;
+    }
+
+    /**
+     * @param function a method the device has to support. Can be called several times.
+     */
+    public Query supports(String function) {
+      functions.add(function);
+      return this;
+    }
+
+    /**
+     * @param power <code>DiscoveredDevice.Constants.POWER_ON</code> or <code>POWER_OFF</code>.
+     */
+    public Query power(String power) {
+      this.power = power;
+      return this;
+    }
+
+    /**
+     * @param cidr an IPv4 network like <code>192.168.1.0/24</code>. A plain address selects
+     *        exactly that address.
+     * @throws IllegalArgumentException if the text is no IPv4 network.
+     */
+    public Query subnet(String cidr) {
+      this.network = Ipv4Network.parse(cidr);
+      return this;
+    }
+
+    /**
+     * @return the matching devices.
+     */
+    public List<DiscoveredDevice> list() {
+      List<Set<String>> sets = candidateSets();
+      List<DiscoveredDevice> result = new ArrayList<>();
+      if (sets == null) {
+        return result;
+      }
+      if (sets.isEmpty()) {
+        for (DiscoveredDevice device : devices.values()) {
+          if (matches(device)) {
+            result.add(device);
+          }
+        }
+        return result;
+      }
+      Set<String> smallest = sets.get(0);
+      for (Set<String> set : sets) {
+        if (set.size() < smallest.size()) {
+          smallest = set;
+        }
+      }
+      for (String id : smallest) {
+        if (containedInAll(sets, id)) {
+          DiscoveredDevice device = devices.get(id);
+          // the device may have changed since the index sets have been read
+          if (device != null && matches(device)) {
+            result.add(device);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return number of matching devices.
+     */
+    public int count() {
+      return list().size();
+    }
+
+    /**
+     * @return the index sets of all criteria, an empty list if there are none or
+     *         <code>null</code> if a criterion matches no device at all.
+     */
+    private List<Set<String>> candidateSets() {
+      List<Set<String>> result = new ArrayList<>();
+      if (model != null && !add(result, byModel.get(model))) {
+        return null;
+      }
+      for (String function : functions) {
+        if (!add(result, byFunction.get(function))) {
+          return null;
+        }
+      }
+      if (power != null && !add(result, byPower.get(power))) {
+        return null;
+      }
+      if (network != null && network.getPrefixLength() >= 24) {
+        if (!add(result, bySubnet.get(network.getAddress() & SUBNET_MASK))) {
+          return null;
+        }
+      } else if (network != null) {
+        // a larger network spans several /24 entries
+        Set<String> ids = new HashSet<>();
+        bySubnet.forEach((subnet, subnetIds) -> {
+          if (network.contains(subnet)) {
+            ids.addAll(subnetIds);
+          }
+        });
+        if (!add(result, ids)) {
+          return null;
+        }
+      }
+      return result;
+    }
+
+    private boolean add(List<Set<String>> sets, Set<String> set) {
+      if (set == null || set.isEmpty()) {
+        return false;
+      }
+      sets.add(set);
+      return true;
+    }
+
+    private boolean containedInAll(List<Set<String>> sets, String id) {
+      for (Set<String> set : sets) {
+        if (!set.contains(id)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean matches(DiscoveredDevice device) {
+      if (model != null && !model.equals(device.getModel())) {
+        return false;
+      }
+      if (power != null && !power.equals(device.getPower())) {
+        return false;
+      }
+      if (!functions.isEmpty() && !functions(device).containsAll(functions)) {
+        return false;
+      }
+      if (network != null) {
+        long address = ipv4(device.getLocation());
+        return address >= 0 && network.contains((int) address);
+      }
+      return true;
+    }
+
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread-safe registry of the currently known Yeelight devices. Devices are keyed by their
+ * {@link DiscoveredDevice#getId() id}, so lookups are cheap and a device that advertises itself
+ * again updates its previous entry.<br>
+ * <br>
+ * Each entry expires after the <code>max-age</code> the device sent along
+ * ({@link DiscoveredDevice#getCacheControl()}) counted from its
+ * {@link DiscoveredDevice#getLastSeen() last message} unless the device advertises itself again. The
+ * deadlines are kept in a hashed timing wheel which is advanced by {@link #expire()}, so there is
+ * neither a timer per device nor a scan over all entries. Devices without a max-age never expire.
+ * Changes are reported to the registered {@link DeviceRegistryListener}s, the size and the expiries
+ * to the {@link DiscoveryMetrics}.
+ */
+@Slf4j
+public class DeviceRegistry {
+
+  /** resolution of the expiry */
+  public static final long TICK_MILLIS = 1000;
+  /** number of buckets of the timing wheel. one revolution covers about 8.5 minutes */
+  private static final int WHEEL_SIZE = 512;
+
+  private static final class Entry {
+    private final DiscoveredDevice device;
+    private final TimingWheel.Timeout<String> timeout;
+
+    private Entry(DiscoveredDevice device, TimingWheel.Timeout<String> timeout) {
+      this.device = device;
+      this.timeout = timeout;
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> devices = new ConcurrentHashMap<>();
+  private final List<DeviceRegistryListener> listeners = new CopyOnWriteArrayList<>();
+  private final LongSupplier clock;
+  /** guards all modifications. reads go to the concurrent map directly */
+  private final Object lock = new Object();
+  private final TimingWheel<String> expiryWheel;
+  @Getter
+  private volatile DiscoveryMetrics metrics = DiscoveryMetrics.NOOP;
+  private volatile DiscoveryMetrics guardedMetrics = DiscoveryMetrics.NOOP;
+
+  public DeviceRegistry() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock source of the current time in milliseconds.
+   */
+  DeviceRegistry(LongSupplier clock) {
+    this.clock = clock;
+    this.expiryWheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, clock.getAsLong());
+  }
+
+  /**
+   * Adds the device or merges it into the known entry with the same id: the latest values win and
+   * the first-seen timestamp is kept. Devices without an id (e.g. parsed from M-SEARCH requests of
+   * other clients) are ignored.
+   *
+   * @param device the device as it has been discovered.
+   */
+  public void update(DiscoveredDevice device) {
+    if (device.getId() == null) {
+      log.debug("ignoring device without id [{}]", device);
+      return;
+    }
+    DeviceCollector.stamp(device, clock.getAsLong());
+    synchronized (lock) {
+      Entry previous = devices.get(device.getId());
+      DiscoveredDevice current =
+          previous == null ? device : DeviceCollector.merge(previous.device, device);
+      TimingWheel.Timeout<String> timeout = null;
+      if (current.getCacheControl() != null) {
+        long deadline =
+            current.getLastSeen() + TimeUnit.SECONDS.toMillis(current.getCacheControl());
+        timeout = expiryWheel.schedule(current.getId(), deadline);
+      }
+      devices.put(current.getId(), new Entry(current, timeout));
+      if (previous == null) {
+        guardedMetrics.registrySizeChanged(devices.size());
+        listeners.forEach(listener -> listener.deviceAdded(current));
+      } else {
+        cancel(previous);
+        listeners.forEach(listener -> listener.deviceRefreshed(previous.device, current));
+      }
+    }
+  }
+
+  /**
+   * @param id the unique id of the device.
+   * @return the device or <code>null</code> if there is no device with that id.
+   */
+  public DiscoveredDevice get(String id) {
+    Entry entry = devices.get(id);
+    return entry == null ? null : entry.device;
+  }
+
+  /**
+   * Removes the device with the given id.
+   *
+   * @param id the unique id of the device.
+   * @return the removed device or <code>null</code> if there was none.
+   */
+  public DiscoveredDevice remove(String id) {
+    synchronized (lock) {
+      Entry removed = devices.remove(id);
+      if (removed == null) {
+        return null;
+      }
+      cancel(removed);
+      guardedMetrics.registrySizeChanged(devices.size());
+      listeners.forEach(listener -> listener.deviceRemoved(removed.device));
+      return removed.device;
+    }
+  }
+
+  /**
+   * Removes all devices whose max-age has passed. Call this periodically, e.g. every
+   * {@link #TICK_MILLIS}. {@link DiscoveryService} does so on its own.
+   */
+  public void expire() {
+    synchronized (lock) {
+      int size = devices.size();
+      expiryWheel.advance(clock.getAsLong(), id -> {
+        Entry expired = devices.remove(id);
+        log.debug("device [{}] has expired", id);
+        guardedMetrics.deviceExpired();
+        listeners.forEach(listener -> listener.deviceExpired(expired.device));
+      });
+      if (devices.size() != size) {
+        guardedMetrics.registrySizeChanged(devices.size());
+      }
+    }
+  }
+
+  /**
+   * @return a snapshot of all known devices.
+   */
+  public List<DiscoveredDevice> getDevices() {
+    List<DiscoveredDevice> result = new ArrayList<>(devices.size());
+    devices.values().forEach(entry -> result.add(entry.device));
+    return result;
+  }
+
+  /**
+   * @return number of known devices.
+   */
+  public int size() {
+    return devices.size();
+  }
+
+  /**
+   * @param metrics gets the size and the expiries of the registry. Its exceptions are logged.
+   */
+  public void setMetrics(DiscoveryMetrics metrics) {
+    this.metrics = metrics;
+    this.guardedMetrics = GuardedDiscoveryMetrics.of(metrics);
+  }
+
+  public void addListener(DeviceRegistryListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(DeviceRegistryListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void cancel(Entry entry) {
+    if (entry.timeout != null) {
+      expiryWheel.cancel(entry.timeout);
+    }
+  }
+
+}
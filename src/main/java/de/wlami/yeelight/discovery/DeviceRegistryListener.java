@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+/**
+ * Gets notified about changes of a {@link DeviceRegistry}. All methods are called while the
+ * registry holds its write lock, so the events of one registry arrive in order. Implementations
+ * should return quickly and must not modify the registry.
+ */
+public interface DeviceRegistryListener {
+
+  /**
+   * A device with an id that was not known before has been added.
+   */
+  default void deviceAdded(DiscoveredDevice device) {}
+
+  /**
+   * A known device has advertised itself again.
+   *
+   * @param previous the entry that has been replaced.
+   * @param current the new entry.
+   */
+  default void deviceRefreshed(DiscoveredDevice previous, DiscoveredDevice current) {}
+
+  /**
+   * The device did not advertise itself again within its <code>max-age</code>.
+   */
+  default void deviceExpired(DiscoveredDevice device) {}
+
+  /**
+   * The device has been removed using {@link DeviceRegistry#remove(String)}.
+   */
+  default void deviceRemoved(DiscoveredDevice device) {}
+
+}
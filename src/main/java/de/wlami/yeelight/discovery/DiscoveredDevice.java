@@ -72,4 +72,8 @@ public class DiscoveredDevice {
   private Integer saturation;
   private String name;
   private String server;
+  /** point in time (milliseconds since epoch) at which the device has been seen first */
+  private Long firstSeen;
+  /** point in time (milliseconds since epoch) of the latest message of the device */
+  private Long lastSeen;
 }
@@ -28,13 +28,26 @@ import java.net.NetworkInterface;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -43,9 +56,28 @@ import lombok.extern.slf4j.Slf4j;
  * current local network, as broadcast packets are not forwared to other networks.<br>
  * <br>
  * Call {@link #discover(long, TimeUnit, NetworkInterface)} in order to search for Yeelight devices.
+ * If you want to search on several network interfaces use
+ * {@link #discover(long, TimeUnit, Collection)}, which searches on all of them at once.<br>
+ * <br>
+ * The asynchronous variants {@link #discoverAsync(long, TimeUnit, NetworkInterface, Consumer)},
+ * {@link #discoverAsync(long, TimeUnit, NetworkInterface, Predicate, int)} and
+ * {@link #discoverFirst(long, TimeUnit, NetworkInterface, Predicate)} report devices as soon as
+ * they answer and can stop before the timeout.<br>
+ * <br>
+ * By default one search message is sent and the discovery waits for the whole timeout. Set a
+ * {@link RetransmitSearchPolicy} to repeat the message against packet loss and to stop as soon as
+ * the replies have stopped coming in.<br>
+ * <br>
+ * Concurrent calls of {@link #discover(long, TimeUnit, NetworkInterface)} for the same interface
+ * share one search. With {@link #setResultCacheMillis(long)} its result is also reused by the
+ * calls that follow shortly after.<br>
+ * <br>
+ * The listeners run on a shared executor which is created on demand or can be passed to the
+ * constructor, e.g. one of {@link ThreadSupport#newVirtualThreadExecutor(String)}. Close the client
+ * when you are done: running discoveries are finished and the threads are released.
  */
 @Slf4j
-public class DiscoveryClient {
+public class DiscoveryClient implements AutoCloseable {
 
   /** broadcast address for SSDP messages */
   public static final String DISCOVERY_ADDRESS = "239.255.255.250";
@@ -57,6 +89,53 @@ public class DiscoveryClient {
       + "MAN: \"ssdp:discover\"\r\n" //
       + "ST: wifi_bulb\r\n").getBytes(StandardCharsets.UTF_8);
 
+  /** number of idle receive buffers that are kept for the next discoveries */
+  private static final int BUFFER_POOL_CAPACITY = 8;
+
+  private ReceiveBufferPool bufferPool =
+      new ReceiveBufferPool(UDPListener.DEFAULT_PACKET_SIZE, BUFFER_POOL_CAPACITY);
+  private SelectorDiscoveryEngine selectorEngine;
+  private ExecutorService listenerExecutor;
+  /** <code>true</code> if the listener executor has been passed in and is not ours to shut down */
+  private final boolean listenerExecutorInjected;
+  private ScheduledExecutorService timeoutExecutor;
+  private final Set<DiscoveryScan> runningScans = ConcurrentHashMap.newKeySet();
+  /** the searches of {@link #discover(long, TimeUnit, NetworkInterface)} that are running */
+  private final Map<NetworkInterface, CompletableFuture<List<DiscoveredDevice>>> sharedScans =
+      new ConcurrentHashMap<>();
+  private final Map<NetworkInterface, CachedResult> resultCache = new ConcurrentHashMap<>();
+  /** how long the result of a search is reused, <code>0</code> disables the cache */
+  @Getter
+  private volatile long resultCacheMillis;
+  private boolean closed;
+  @Getter
+  @Setter
+  private volatile SearchPolicy searchPolicy = SearchPolicy.SINGLE;
+  /** gets the packet counts, parse times and response times of the discoveries */
+  @Getter
+  @Setter
+  private volatile DiscoveryMetrics metrics = DiscoveryMetrics.NOOP;
+
+  /**
+   * Creates a client that starts its listener threads on demand.
+   */
+  public DiscoveryClient() {
+    this.listenerExecutor = null;
+    this.listenerExecutorInjected = false;
+  }
+
+  /**
+   * Creates a client that runs its listeners on the given executor. Each running discovery
+   * occupies one task, which blocks while waiting for replies. The executor is not shut down by
+   * {@link #close()}.
+   *
+   * @param listenerExecutor the executor for the listeners.
+   */
+  public DiscoveryClient(ExecutorService listenerExecutor) {
+    this.listenerExecutor = listenerExecutor;
+    this.listenerExecutorInjected = true;
+  }
+
   /**
    * Searches for a predefined time for Yeelight devices in the LAN. Usually they respond within
    * fractions of a second. As multicast messages need to know on which interface they should be
@@ -66,7 +145,11 @@ public class DiscoveryClient {
    * <br>
    * You can lookup a network interface by its IP address. Example:<br>
    * <code>NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName("192.168.0.53"));</code>
-   * 
+   * <br>
+   * <br>
+   * A call that arrives while another one is searching on the same interface does not send a
+   * search of its own but waits for the running one, whose timeout applies. If a result cache has
+   * been set, a result that is younger than {@link #getResultCacheMillis()} is returned at once.
    * 
    * @param timeout Timeout for responses. As the devices usually respond within milliseconds some
    *        seconds should be enough.
@@ -78,27 +161,379 @@ public class DiscoveryClient {
       NetworkInterface networkInterface) {
     log.debug("trying to discover yeelights");
     log.debug("using network interface [{}]", networkInterface);
-    final List<DiscoveredDevice> result = new ArrayList<>();
-    Future<?> future = null;
-    try (MulticastSocket socket = new MulticastSocket()) {
+    try {
+      List<DiscoveredDevice> result =
+          new ArrayList<>(sharedDiscovery(timeout, unit, networkInterface).get());
+      log.debug("we have waited [{}][{}]. Discovered devices: [{}]", timeout, unit, result);
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the cached result, the search that is running on the interface or a new search.
+   */
+  private CompletableFuture<List<DiscoveredDevice>> sharedDiscovery(long timeout, TimeUnit unit,
+      NetworkInterface networkInterface) {
+    List<DiscoveredDevice> cached = getCachedResult(networkInterface);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    CompletableFuture<List<DiscoveredDevice>> shared = new CompletableFuture<>();
+    CompletableFuture<List<DiscoveredDevice>> running =
+        sharedScans.putIfAbsent(networkInterface, shared);
+    if (running != null) {
+      log.debug("joining the running search on interface [{}]", networkInterface);
+      return running;
+    }
+    // a search may have cached its result and finished since the lookup above
+    cached = getCachedResult(networkInterface);
+    if (cached != null) {
+      sharedScans.remove(networkInterface, shared);
+      shared.complete(cached);
+      return shared;
+    }
+    CompletableFuture<List<DiscoveredDevice>> scan;
+    try {
+      scan = discoverAsync(timeout, unit, networkInterface, device -> {
+      });
+    } catch (RuntimeException e) {
+      sharedScans.remove(networkInterface, shared);
+      shared.completeExceptionally(e);
+      throw e;
+    }
+    scan.whenComplete((devices, error) -> {
+      // cache first, so that no caller starts a new search in between
+      long ttl = resultCacheMillis;
+      if (error == null && ttl > 0) {
+        resultCache.put(networkInterface, new CachedResult(devices, SearchSchedule.now() + ttl));
+      }
+      sharedScans.remove(networkInterface, shared);
+      if (error == null) {
+        shared.complete(devices);
+      } else {
+        shared.completeExceptionally(error);
+      }
+    });
+    return shared;
+  }
+
+  /**
+   * @return the cached devices or <code>null</code> if there is no result that is still valid.
+   */
+  private List<DiscoveredDevice> getCachedResult(NetworkInterface networkInterface) {
+    CachedResult cached = resultCache.get(networkInterface);
+    if (cached == null || SearchSchedule.now() >= cached.expiresAt) {
+      return null;
+    }
+    log.debug("using cached result for interface [{}]", networkInterface);
+    return cached.devices;
+  }
+
+  /**
+   * Sets how long the result of {@link #discover(long, TimeUnit, NetworkInterface)} is returned to
+   * further calls for the same interface without searching again. Devices that have appeared in
+   * the meantime are not seen until the result has expired. The cache is disabled by default.
+   * 
+   * @param resultCacheMillis time to live of a result in milliseconds, <code>0</code> disables the
+   *        cache.
+   */
+  public void setResultCacheMillis(long resultCacheMillis) {
+    if (resultCacheMillis < 0) {
+      throw new IllegalArgumentException("resultCacheMillis must not be negative");
+    }
+    this.resultCacheMillis = resultCacheMillis;
+    if (resultCacheMillis == 0) {
+      resultCache.clear();
+    }
+  }
+
+  /**
+   * Drops the cached results, so that the next call of
+   * {@link #discover(long, TimeUnit, NetworkInterface)} searches again.
+   */
+  public void clearResultCache() {
+    resultCache.clear();
+  }
+
+  /**
+   * Searches like {@link #discover(long, TimeUnit, NetworkInterface)} but does not block. Each
+   * device is handed to the listener as soon as its first reply has been received. The returned
+   * future completes with all discovered devices when the timeout has passed. Cancelling or
+   * completing the future stops the search.
+   * 
+   * @param timeout Timeout for responses.
+   * @param unit The time unit you want to use.
+   * @param networkInterface The network interface you want to use for the discovery message.
+   * @param listener Is called once for each discovered device on the receiving thread.
+   * @return A future for all devices that have been discovered until the timeout.
+   */
+  public CompletableFuture<List<DiscoveredDevice>> discoverAsync(long timeout, TimeUnit unit,
+      NetworkInterface networkInterface, Consumer<DiscoveredDevice> listener) {
+    return startScan(networkInterface,
+        new DiscoveryScan(device -> true, Integer.MAX_VALUE, listener, schedule(timeout, unit)));
+  }
+
+  /**
+   * Searches for devices matching the filter. The returned future completes as soon as
+   * <code>limit</code> matching devices have answered or with the devices found so far when the
+   * timeout has passed. Cancelling the future stops the search.
+   * 
+   * @param timeout Maximum time to wait for responses.
+   * @param unit The time unit you want to use.
+   * @param networkInterface The network interface you want to use for the discovery message.
+   * @param filter Only matching devices are collected.
+   * @param limit Number of matching devices after which the search stops.
+   * @return A future for the matching devices.
+   */
+  public CompletableFuture<List<DiscoveredDevice>> discoverAsync(long timeout, TimeUnit unit,
+      NetworkInterface networkInterface, Predicate<DiscoveredDevice> filter, int limit) {
+    return startScan(networkInterface, new DiscoveryScan(filter, limit, device -> {
+    }, schedule(timeout, unit)));
+  }
+
+  /**
+   * Searches for the first device matching the filter, e.g. for a known id:<br>
+   * <code>client.discoverFirst(5, TimeUnit.SECONDS, networkInterface, device -&gt; id.equals(device.getId()))</code>
+   * 
+   * @param timeout Maximum time to wait for the device.
+   * @param unit The time unit you want to use.
+   * @param networkInterface The network interface you want to use for the discovery message.
+   * @param filter Predicate the device has to match.
+   * @return A future that completes with the first matching device or exceptionally with a
+   *         {@link TimeoutException} if no such device answered in time.
+   */
+  public CompletableFuture<DiscoveredDevice> discoverFirst(long timeout, TimeUnit unit,
+      NetworkInterface networkInterface, Predicate<DiscoveredDevice> filter) {
+    return discoverAsync(timeout, unit, networkInterface, filter, 1).thenApply(devices -> {
+      if (devices.isEmpty()) {
+        throw new CompletionException(new TimeoutException(
+            "no matching device answered within [" + timeout + "][" + unit + "]"));
+      }
+      return devices.get(0);
+    });
+  }
+
+  private SearchSchedule schedule(long timeout, TimeUnit unit) {
+    return new SearchSchedule(searchPolicy, SearchSchedule.now(), unit.toMillis(timeout));
+  }
+
+  private CompletableFuture<List<DiscoveredDevice>> startScan(NetworkInterface networkInterface,
+      DiscoveryScan scan) {
+    CompletableFuture<List<DiscoveredDevice>> future = scan.getFuture();
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("DiscoveryClient has been closed!");
+      }
+      runningScans.add(scan);
+    }
+    future.whenComplete((devices, error) -> runningScans.remove(scan));
+    MulticastSocket socket = null;
+    try {
+      socket = new MulticastSocket();
       log.debug("Created new MulticastSocket [{}]", socket);
       socket.setNetworkInterface(networkInterface);
       sendDiscoveryPacket(socket);
+      scan.getSchedule().sent(SearchSchedule.now());
       log.info("sent discovery message on interface [{}]", networkInterface);
-      ExecutorService executor = Executors.newSingleThreadExecutor();
-      future = executor.submit(new UDPListener(socket, result));
-      future.get(timeout, unit);
-    } catch (IOException | InterruptedException | ExecutionException e) {
-      throw new RuntimeException(e);
-    } catch (TimeoutException e) {
-      // this is the desired processing path as we wait for the future
-      // until we time out!
-      log.debug("we have waited [{}][{}]. Discovered devices: [{}]", timeout, unit, result);
-      if (future != null) {
-        future.cancel(false);
+    } catch (IOException e) {
+      if (socket != null) {
+        socket.close();
+      }
+      future.completeExceptionally(e);
+      return future;
+    }
+    DiscoveryMetrics scanMetrics = metrics;
+    UDPListener listener =
+        new UDPListener(socket, scan, getBufferPool(), scanMetrics, networkInterface);
+    try {
+      getListenerExecutor().execute(() -> {
+        try {
+          listener.run();
+        } catch (RuntimeException e) {
+          future.completeExceptionally(e.getCause() != null ? e.getCause() : e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      socket.close();
+      future.completeExceptionally(e);
+      return future;
+    }
+    MulticastSocket openSocket = socket;
+    AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+    // closing the socket stops the listener
+    future.whenComplete((devices, error) -> {
+      ScheduledFuture<?> tick = timer.get();
+      if (tick != null) {
+        tick.cancel(false);
+      }
+      openSocket.close();
+      SearchSchedule schedule = scan.getSchedule();
+      scanMetrics.discoveryCompleted(devices == null ? 0 : devices.size(),
+          schedule.getFirstResponseMillis(), schedule.getLastResponseMillis());
+    });
+    // the ticks run on the single timeout thread, so rescheduling there cannot race with them
+    scan.setRescheduler(() -> {
+      try {
+        getTimeoutExecutor().execute(() -> {
+          ScheduledFuture<?> tick = timer.get();
+          if (tick != null && tick.cancel(false) && !future.isDone()) {
+            scheduleTick(openSocket, scan, timer);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // the client has been closed, which finishes the scan
+      }
+    });
+    try {
+      scheduleTick(openSocket, scan, timer);
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Schedules the next retransmission or the end of the scan, whatever its schedule wants next.
+   */
+  private void scheduleTick(MulticastSocket socket, DiscoveryScan scan,
+      AtomicReference<ScheduledFuture<?>> timer) {
+    long delay = Math.max(0, scan.getSchedule().nextWakeUp() - SearchSchedule.now());
+    timer.set(getTimeoutExecutor().schedule(() -> {
+      if (scan.getFuture().isDone()) {
+        return;
+      }
+      SearchSchedule schedule = scan.getSchedule();
+      long now = SearchSchedule.now();
+      if (schedule.isSendDue(now)) {
+        try {
+          sendDiscoveryPacket(socket);
+          log.debug("sent discovery message [{}]", schedule.getSent() + 1);
+        } catch (IOException e) {
+          log.warn("could not resend discovery message", e);
+        }
+        schedule.sent(now);
+      }
+      if (schedule.isDone(now)) {
+        scan.finish();
+      } else {
+        scheduleTick(socket, scan, timer);
+      }
+    }, delay, TimeUnit.MILLISECONDS));
+  }
+
+  private synchronized ExecutorService getListenerExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("DiscoveryClient has been closed!");
+    }
+    if (listenerExecutor == null) {
+      listenerExecutor =
+          Executors.newCachedThreadPool(ThreadSupport.daemonThreads("yedi-listener-"));
+    }
+    return listenerExecutor;
+  }
+
+  private synchronized ScheduledExecutorService getTimeoutExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("DiscoveryClient has been closed!");
+    }
+    if (timeoutExecutor == null) {
+      timeoutExecutor = Executors.newSingleThreadScheduledExecutor(
+          ThreadSupport.daemonThreads("yedi-discovery-timeout-"));
+    }
+    return timeoutExecutor;
+  }
+
+  /**
+   * Finishes all running asynchronous discoveries with the devices found so far, which closes their
+   * sockets and ends their listeners, and shuts down the threads of the client. An executor that
+   * has been passed to the constructor is left running. Further discoveries fail with an
+   * {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    resultCache.clear();
+    // completing the futures closes the sockets, which stops the listeners
+    for (DiscoveryScan scan : runningScans) {
+      scan.finish();
+    }
+    synchronized (this) {
+      if (listenerExecutor != null && !listenerExecutorInjected) {
+        listenerExecutor.shutdown();
+        listenerExecutor = null;
+      }
+      if (timeoutExecutor != null) {
+        timeoutExecutor.shutdownNow();
+        timeoutExecutor = null;
       }
     }
-    return result;
+  }
+
+  /**
+   * Searches on all provided network interfaces at the same time. The search message is sent on
+   * every interface at once and all replies are received within the calling thread, so searching
+   * on several interfaces takes as long as searching on one of them. See
+   * {@link #discover(long, TimeUnit, NetworkInterface)} for details.
+   * 
+   * @param timeout Timeout for responses.
+   * @param unit The time unit you want to use.
+   * @param networkInterfaces The network interfaces you want to use for the discovery message.
+   * @return the merged result of all interfaces. Each device is contained once.
+   */
+  public List<DiscoveredDevice> discover(long timeout, TimeUnit unit,
+      Collection<NetworkInterface> networkInterfaces) {
+    log.debug("trying to discover yeelights on network interfaces [{}]", networkInterfaces);
+    try {
+      return getSelectorEngine().discover(timeout, unit, networkInterfaces, searchPolicy,
+          metrics);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  protected synchronized SelectorDiscoveryEngine getSelectorEngine() {
+    if (closed) {
+      throw new IllegalStateException("DiscoveryClient has been closed!");
+    }
+    if (selectorEngine == null) {
+      selectorEngine =
+          new SelectorDiscoveryEngine(createSearchRequest(), bufferPool);
+    }
+    return selectorEngine;
+  }
+
+  /**
+   * @return size of the buffers replies are received into.
+   */
+  public synchronized int getReceiveBufferSize() {
+    return bufferPool.getBufferSize();
+  }
+
+  /**
+   * Sets the size of the buffers replies are received into. Longer replies are truncated. The
+   * default of 4096 bytes is plenty for Yeelight replies.
+   * 
+   * @param receiveBufferSize size in bytes. At most 65507, the maximum UDP payload.
+   */
+  public synchronized void setReceiveBufferSize(int receiveBufferSize) {
+    if (receiveBufferSize != bufferPool.getBufferSize()) {
+      bufferPool = new ReceiveBufferPool(receiveBufferSize, BUFFER_POOL_CAPACITY);
+      selectorEngine = null;
+    }
+  }
+
+  private synchronized ReceiveBufferPool getBufferPool() {
+    return bufferPool;
   }
 
   protected void sendDiscoveryPacket(DatagramSocket socket)
@@ -120,4 +555,18 @@ public class DiscoveryClient {
     return DISCOVERY_MESSAGE;
   }
 
+  /**
+   * Result of a search that is reused until it expires.
+   */
+  private static final class CachedResult {
+    private final List<DiscoveredDevice> devices;
+    /** monotonic time in milliseconds, see {@link SearchSchedule#now()} */
+    private final long expiresAt;
+
+    CachedResult(List<DiscoveredDevice> devices, long expiresAt) {
+      this.devices = devices;
+      this.expiresAt = expiresAt;
+    }
+  }
+
 }
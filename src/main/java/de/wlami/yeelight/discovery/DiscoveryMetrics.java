@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.net.NetworkInterface;
+
+/**
+ * Receives measurements of the discovery. Implement it to feed the metrics library of your choice,
+ * e.g. Micrometer or Dropwizard Metrics. All methods have empty defaults, so you only need to
+ * implement what you are interested in. The methods are called on the receiving threads and must
+ * therefore be fast and thread-safe. Exceptions are logged, so they don't stop the discovery.
+ */
+public interface DiscoveryMetrics {
+
+  /** ignores all measurements */
+  DiscoveryMetrics NOOP = new DiscoveryMetrics() {};
+
+  /**
+   * A packet has been received.
+   *
+   * @param networkInterface the interface of the search or <code>null</code> if it is not known.
+   */
+  default void packetReceived(NetworkInterface networkInterface) {}
+
+  /**
+   * A packet has not been processed completely, e.g. because it did not fit into the receive
+   * buffer and was truncated.
+   */
+  default void packetDropped() {}
+
+  /**
+   * A packet has been discarded because the parser threads could not keep up and the receive queue
+   * was full, see {@link OverflowPolicy#DROP}.
+   */
+  default void packetOverflowed() {}
+
+  /**
+   * A packet could not be parsed into a device, e.g. because it lacks the device id. This includes
+   * the M-SEARCH messages of other clients.
+   */
+  default void packetMalformed() {}
+
+  /**
+   * @param nanos time it took to parse one packet.
+   */
+  default void packetParsed(long nanos) {}
+
+  /**
+   * A discovery has finished.
+   *
+   * @param devices number of devices that have been found.
+   * @param firstResponseMillis time from the start of the discovery to the first device or -1 if
+   *        none answered.
+   * @param lastResponseMillis time from the start of the discovery to the last new device or -1 if
+   *        none answered.
+   */
+  default void discoveryCompleted(int devices, long firstResponseMillis,
+      long lastResponseMillis) {}
+
+  /**
+   * The number of devices in a {@link DeviceRegistry} has changed.
+   *
+   * @param size the new number of devices.
+   */
+  default void registrySizeChanged(int size) {}
+
+  /**
+   * A device has expired from a {@link DeviceRegistry}.
+   */
+  default void deviceExpired() {}
+
+}
@@ -21,6 +21,8 @@ package de.wlami.yeelight.discovery;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -31,7 +33,12 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * Gets the contents of a discovery response as a string and extracts the information into a
- * {@link DiscoveredDevice}.
+ * {@link DiscoveredDevice}.<br>
+ * <br>
+ * Besides the {@link String} based variant there is a byte-level variant
+ * ({@link #parseResponse(byte[], int, int)} and {@link #parseResponse(ByteBuffer)}) which works
+ * directly on the received datagram. It neither decodes the whole packet nor splits or lowercases
+ * lines; only the values that end up in the {@link DiscoveredDevice} are turned into objects.
  */
 @Slf4j
 class DiscoveryResponseParser {
@@ -69,7 +76,7 @@ class DiscoveryResponseParser {
               result.setModel(model);
               break;
             case "fw_ver":
-              int firmwareVersion = parseInteger(line);
+              Integer firmwareVersion = parseInteger(line);
               result.setFirmwareVersion(firmwareVersion);
               break;
             case "support":
@@ -117,6 +124,244 @@ class DiscoveryResponseParser {
     return result;
   }
 
+  /**
+   * Parses a discovery response directly from the received bytes. Produces the same
+   * {@link DiscoveredDevice} as {@link #parseResponse(String)} for the decoded data.
+   * 
+   * @param data the buffer containing the response, e.g. {@link java.net.DatagramPacket#getData()}
+   * @param offset start of the response within <code>data</code>
+   * @param length number of bytes of the response
+   */
+  public DiscoveredDevice parseResponse(byte[] data, int offset, int length) {
+    if (data == null) {
+      throw new IllegalArgumentException("data must not be null!");
+    }
+    return parseResponse(ByteBuffer.wrap(data, offset, length));
+  }
+
+  /**
+   * Parses the bytes between the buffer's position and limit. Heap and direct buffers are
+   * supported. Neither the position nor the limit of the buffer are changed.
+   * 
+   * @param data buffer that contains the response
+   */
+  public DiscoveredDevice parseResponse(ByteBuffer data) {
+    if (data == null) {
+      throw new IllegalArgumentException("data must not be null!");
+    }
+    DiscoveredDevice result = new DiscoveredDevice();
+    int end = data.limit();
+    int lineStart = data.position();
+    while (lineStart < end) {
+      int lineEnd = indexOf(data, (byte) '\n', lineStart, end);
+      int contentEnd = lineEnd;
+      if (contentEnd > lineStart && data.get(contentEnd - 1) == '\r') {
+        contentEnd--;
+      }
+      parseHeaderLine(data, lineStart, contentEnd, result);
+      lineStart = lineEnd + 1;
+    }
+    return result;
+  }
+
+  private static final byte[] KEY_CACHE_CONTROL = ascii("cache-control");
+  private static final byte[] KEY_LOCATION = ascii("location");
+  private static final byte[] KEY_SERVER = ascii("server");
+  private static final byte[] KEY_ID = ascii("id");
+  private static final byte[] KEY_MODEL = ascii("model");
+  private static final byte[] KEY_FW_VER = ascii("fw_ver");
+  private static final byte[] KEY_SUPPORT = ascii("support");
+  private static final byte[] KEY_POWER = ascii("power");
+  private static final byte[] KEY_BRIGHT = ascii("bright");
+  private static final byte[] KEY_COLOR_MODE = ascii("color_mode");
+  private static final byte[] KEY_CT = ascii("ct");
+  private static final byte[] KEY_RGB = ascii("rgb");
+  private static final byte[] KEY_HUE = ascii("hue");
+  private static final byte[] KEY_SAT = ascii("sat");
+  private static final byte[] KEY_NAME = ascii("name");
+  private static final byte[] MAX_AGE = ascii("max-age=");
+
+  private void parseHeaderLine(ByteBuffer data, int from, int to, DiscoveredDevice result) {
+    int colon = indexOf(data, (byte) ':', from, to);
+    // just like the string variant we need a key and at least one character after the colon
+    if (colon == from || colon + 1 >= to) {
+      return;
+    }
+    int valueStart = colon + 1;
+    while (valueStart < to && isWhitespace(data.get(valueStart))) {
+      valueStart++;
+    }
+    int valueEnd = to;
+    while (valueEnd > valueStart && isWhitespace(data.get(valueEnd - 1))) {
+      valueEnd--;
+    }
+    if (keyEquals(data, from, colon, KEY_ID)) {
+      result.setId(decode(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_CACHE_CONTROL)) {
+      result.setCacheControl(parseMaxAge(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_LOCATION)) {
+      result.setLocation(toUri(decode(data, valueStart, valueEnd)));
+    } else if (keyEquals(data, from, colon, KEY_SERVER)) {
+      result.setServer(decode(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_MODEL)) {
+      result.setModel(decode(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_FW_VER)) {
+      result.setFirmwareVersion(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_SUPPORT)) {
+      result.setSupportedFunctions(parseSupportedFunctions(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_POWER)) {
+      result.setPower(decode(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_BRIGHT)) {
+      result.setBrightness(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_COLOR_MODE)) {
+      result.setColorMode(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_CT)) {
+      result.setColorTemparature(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_RGB)) {
+      result.setColorRGB(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_HUE)) {
+      result.setHue(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_SAT)) {
+      result.setSaturation(parseInteger(data, valueStart, valueEnd));
+    } else if (keyEquals(data, from, colon, KEY_NAME)) {
+      result.setName(decode(data, valueStart, valueEnd));
+    }
+  }
+
+  protected List<String> parseSupportedFunctions(ByteBuffer data, int from, int to) {
+    List<String> result = new ArrayList<>();
+    int tokenStart = from;
+    while (tokenStart < to) {
+      int tokenEnd = indexOf(data, (byte) ' ', tokenStart, to);
+      if (tokenEnd > tokenStart) {
+        result.add(decode(data, tokenStart, tokenEnd));
+      }
+      tokenStart = tokenEnd + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Parses a decimal integer without creating intermediate strings.
+   * 
+   * @return the value or <code>null</code> if the range is no valid integer.
+   */
+  protected Integer parseInteger(ByteBuffer data, int from, int to) {
+    int position = from;
+    boolean negative = false;
+    if (position < to && (data.get(position) == '-' || data.get(position) == '+')) {
+      negative = data.get(position) == '-';
+      position++;
+    }
+    if (position == to) {
+      log.debug("could not parse integer!");
+      return null;
+    }
+    long value = 0;
+    for (; position < to; position++) {
+      int digit = data.get(position) - '0';
+      if (digit < 0 || digit > 9) {
+        log.debug("could not parse integer!");
+        return null;
+      }
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        log.debug("could not parse integer!");
+        return null;
+      }
+    }
+    if (negative) {
+      value = -value;
+    }
+    if (value > Integer.MAX_VALUE) {
+      log.debug("could not parse integer!");
+      return null;
+    }
+    return (int) value;
+  }
+
+  /**
+   * Searches the <code>max-age=</code> directive of a Cache-Control value and parses its digits.
+   * 
+   * @return the max-age or <code>null</code> if there is none.
+   */
+  protected Long parseMaxAge(ByteBuffer data, int from, int to) {
+    int last = to - MAX_AGE.length;
+    for (int start = from; start <= last; start++) {
+      if (keyEquals(data, start, start + MAX_AGE.length, MAX_AGE)) {
+        int position = start + MAX_AGE.length;
+        long value = 0;
+        int digits = 0;
+        for (; position < to; position++, digits++) {
+          int digit = data.get(position) - '0';
+          if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+            break;
+          }
+          value = value * 10 + digit;
+        }
+        return digits > 0 ? value : null;
+      }
+    }
+    return null;
+  }
+
+  private URI toUri(String value) {
+    URI result = null;
+    try {
+      result = new URI(value);
+    } catch (URISyntaxException e) {
+      log.debug("could not parse location url", e);
+    }
+    return result;
+  }
+
+  private static int indexOf(ByteBuffer data, byte value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (data.get(i) == value) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  /** compares the range with a lowercase ASCII key ignoring the case of the range */
+  private static boolean keyEquals(ByteBuffer data, int from, int to, byte[] key) {
+    if (to - from != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      byte b = data.get(from + i);
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    // same definition as String.trim()
+    return (b & 0xff) <= ' ';
+  }
+
+  private static String decode(ByteBuffer data, int from, int to) {
+    if (data.hasArray()) {
+      return new String(data.array(), data.arrayOffset() + from, to - from,
+          StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[to - from];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = data.get(from + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
   protected List<String> parseSupportedFunctions(String line) {
     String valuePart = getValuePart(line);
     List<String> result = new ArrayList<>();
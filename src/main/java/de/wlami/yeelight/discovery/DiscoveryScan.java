@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * State of one asynchronous discovery. Gets the parsed devices from an {@link UDPListener}, hands
+ * every new matching device to the listener and completes its future as soon as enough devices
+ * have been found, when its {@link SearchSchedule} is done or when {@link #finish()} is called.
+ * Repeated messages of a device are merged by a {@link DeviceCollector}.
+ */
+@Slf4j
+class DiscoveryScan implements Consumer<DiscoveredDevice> {
+
+  private final Predicate<DiscoveredDevice> filter;
+  private final int limit;
+  private final Consumer<DiscoveredDevice> listener;
+  @Getter
+  private final SearchSchedule schedule;
+  private final DeviceCollector devices = new DeviceCollector();
+  @Getter
+  private final CompletableFuture<List<DiscoveredDevice>> future = new CompletableFuture<>();
+  /** is called when a reply has moved the next wake-up of the schedule earlier */
+  private volatile Runnable rescheduler = () -> {
+  };
+
+  /**
+   * @param filter only matching devices are reported and collected.
+   * @param limit the scan completes as soon as this number of matching devices has been found.
+   * @param listener is called once for every matching device as soon as it has been received.
+   * @param schedule is told about every new matching device.
+   */
+  DiscoveryScan(Predicate<DiscoveredDevice> filter, int limit, Consumer<DiscoveredDevice> listener,
+      SearchSchedule schedule) {
+    this.filter = filter;
+    this.limit = limit;
+    this.listener = listener;
+    this.schedule = schedule;
+  }
+
+  @Override
+  public void accept(DiscoveredDevice device) {
+    if (device.getId() == null || future.isDone() || !filter.test(device)) {
+      return;
+    }
+    if (!devices.add(device)) {
+      // a known device, its state has been merged
+      return;
+    }
+    try {
+      listener.accept(device);
+    } catch (RuntimeException e) {
+      log.warn("discovery listener failed for device [{}]", device.getId(), e);
+    }
+    long now = SearchSchedule.now();
+    long wakeUp = schedule.nextWakeUp();
+    schedule.found(now);
+    if (devices.size() >= limit || schedule.isDone(now)) {
+      future.complete(devices.getDevices());
+    } else if (schedule.nextWakeUp() < wakeUp) {
+      // e.g. the first reply after the last search message starts the quiet period
+      rescheduler.run();
+    }
+  }
+
+  /**
+   * @param rescheduler is called on the receiving thread when a reply has moved
+   *        {@link SearchSchedule#nextWakeUp()} earlier, so that the timer can be set anew.
+   */
+  void setRescheduler(Runnable rescheduler) {
+    this.rescheduler = rescheduler;
+  }
+
+  /**
+   * Completes the scan with the devices found so far.
+   */
+  void finish() {
+    future.complete(devices.getDevices());
+  }
+
+}
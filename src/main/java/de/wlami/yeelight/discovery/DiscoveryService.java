@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Long-running discovery that keeps a {@link DeviceRegistry} up to date. In contrast to
+ * {@link DiscoveryClient#discover(long, java.util.concurrent.TimeUnit, NetworkInterface)} it joins
+ * the multicast group <code>239.255.255.250:1982</code> and keeps listening. That way it receives
+ * the <code>NOTIFY</code> advertisements each device sends every <code>cacheControl</code> seconds
+ * as well as the replies to its own M-SEARCH messages.<br>
+ * <br>
+ * Call {@link #start()} once and {@link #close()} when you are done. The registry can be queried at
+ * any time using {@link #getRegistry()}. While the service is running it lets devices that stopped
+ * advertising themselves expire from the registry.<br>
+ * <br>
+ * With a {@link #setSnapshot(RegistrySnapshot) snapshot} the registry is saved periodically and
+ * when the service is closed. The next {@link #start()} restores the devices that have not expired
+ * yet before it starts listening, and the initial search then confirms or updates them.<br>
+ * <br>
+ * One thread only receives the packets and queues them for the {@link #setParserThreads(int)
+ * parser threads}, so that a storm of replies from a large site is taken out of the socket buffer
+ * before it overflows. What happens if the queue is full is decided by the
+ * {@link #setOverflowPolicy(OverflowPolicy) overflow policy}.
+ */
+@Slf4j
+public class DiscoveryService implements AutoCloseable {
+
+  public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final NetworkInterface networkInterface;
+  @Getter
+  private final DeviceRegistry registry;
+  private final DiscoveryClient searchClient = new DiscoveryClient();
+  /** where to persist the registry. <code>null</code> disables persistence */
+  @Getter
+  @Setter
+  private RegistrySnapshot snapshot;
+  @Getter
+  @Setter
+  private long snapshotIntervalMillis = DEFAULT_SNAPSHOT_INTERVAL_MILLIS;
+  @Getter
+  private volatile DiscoveryMetrics metrics = DiscoveryMetrics.NOOP;
+  /**
+   * creates the threads of the listener, the parsers, the expiry and the snapshots. E.g.
+   * {@link ThreadSupport#virtualThreads(String)}. Defaults to named daemon threads. Takes effect on
+   * the next {@link #start()}
+   */
+  @Getter
+  @Setter
+  private volatile ThreadFactory threadFactory = ThreadSupport.daemonThreads("yedi-discovery-");
+  /** number of threads that parse the received packets */
+  @Getter
+  private volatile int parserThreads = 1;
+  /** number of received packets that can wait for a parser thread */
+  @Getter
+  private volatile int receiveQueueCapacity = ReceivePipeline.DEFAULT_CAPACITY;
+  @Getter
+  @Setter
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+  private MulticastSocket socket;
+  private ScheduledExecutorService executor;
+  private volatile ReceivePipeline pipeline;
+
+  /**
+   * Creates a service with a new {@link DeviceRegistry}.
+   *
+   * @param networkInterface The network interface you want to listen on.
+   */
+  public DiscoveryService(NetworkInterface networkInterface) {
+    this(networkInterface, new DeviceRegistry());
+  }
+
+  /**
+   * @param networkInterface The network interface you want to listen on.
+   * @param registry The registry that should be kept up to date.
+   */
+  public DiscoveryService(NetworkInterface networkInterface, DeviceRegistry registry) {
+    this.networkInterface = networkInterface;
+    this.registry = registry;
+  }
+
+  /**
+   * Joins the multicast group, starts listening and sends an initial M-SEARCH so that the
+   * registry is populated without having to wait for the next advertisements. If a snapshot has
+   * been set, its devices are restored first. If the start fails, everything that has been
+   * started is closed again, so the service can be started once more.
+   *
+   * @throws IOException if the socket cannot be created or the search cannot be sent.
+   */
+  public synchronized void start() throws IOException {
+    if (socket != null) {
+      throw new IllegalStateException("DiscoveryService has already been started!");
+    }
+    restoreSnapshot();
+    socket = createSocket();
+    try {
+      log.debug("listening for advertisements on interface [{}]", networkInterface);
+      // one thread for the receiver, one for the expiry. the parsers get their own threads
+      executor = Executors.newScheduledThreadPool(2, threadFactory);
+      pipeline = new ReceivePipeline(socket, registry::update,
+          new PacketRing(receiveQueueCapacity, UDPListener.DEFAULT_PACKET_SIZE), parserThreads,
+          overflowPolicy, threadFactory, metrics, networkInterface);
+      executor.submit(pipeline);
+      executor.scheduleAtFixedRate(this::expire, DeviceRegistry.TICK_MILLIS,
+          DeviceRegistry.TICK_MILLIS, TimeUnit.MILLISECONDS);
+      if (snapshot != null) {
+        executor.scheduleWithFixedDelay(this::saveSnapshot, snapshotIntervalMillis,
+            snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+      search();
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Sets the metrics that get the received packets and the size and expiries of the registry.
+   * Takes effect for the packets on the next {@link #start()}.
+   *
+   * @param metrics the metrics. {@link DiscoveryMetrics#NOOP} turns them off.
+   */
+  public void setMetrics(DiscoveryMetrics metrics) {
+    this.metrics = metrics;
+    registry.setMetrics(metrics);
+  }
+
+  /**
+   * Sets the number of threads that parse the received packets and update the registry. Takes
+   * effect on the next {@link #start()}.
+   *
+   * @param parserThreads at least one. The default is one.
+   */
+  public void setParserThreads(int parserThreads) {
+    if (parserThreads < 1) {
+      throw new IllegalArgumentException("parserThreads must be positive");
+    }
+    this.parserThreads = parserThreads;
+  }
+
+  /**
+   * Sets the number of received packets that can wait for a parser thread. Each of them takes a
+   * buffer of 4096 bytes. Takes effect on the next {@link #start()}.
+   *
+   * @param receiveQueueCapacity at least one, rounded up to the next power of two. The default is
+   *        256.
+   */
+  public void setReceiveQueueCapacity(int receiveQueueCapacity) {
+    if (receiveQueueCapacity < 1) {
+      throw new IllegalArgumentException("receiveQueueCapacity must be positive");
+    }
+    this.receiveQueueCapacity = receiveQueueCapacity;
+  }
+
+  /**
+   * @return number of packets that have been dropped since the last {@link #start()} because the
+   *         parser threads could not keep up, see {@link OverflowPolicy#DROP}.
+   */
+  public long getDropped() {
+    ReceivePipeline current = pipeline;
+    return current == null ? 0 : current.getDropped();
+  }
+
+  /**
+   * Sends an M-SEARCH message. The replies are added to the registry.
+   *
+   * @throws IOException if the message cannot be sent.
+   */
+  public synchronized void search() throws IOException {
+    if (socket == null) {
+      throw new IllegalStateException("DiscoveryService has not been started!");
+    }
+    searchClient.sendDiscoveryPacket(socket);
+    log.debug("sent discovery message on interface [{}]", networkInterface);
+  }
+
+  /**
+   * Stops listening and saves the snapshot, if any. The registry keeps its content.
+   */
+  @Override
+  public synchronized void close() {
+    if (socket != null) {
+      socket.close();
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      socket = null;
+      executor = null;
+      saveSnapshot();
+    }
+  }
+
+  private void restoreSnapshot() {
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      snapshot.restore(registry);
+    } catch (IOException e) {
+      // we will discover the devices anyway, just not as fast
+      log.warn("could not restore devices from [{}]", snapshot.getFile(), e);
+    }
+  }
+
+  private void saveSnapshot() {
+    if (snapshot == null) {
+      return;
+    }
+    try {
+      snapshot.save(registry);
+    } catch (IOException | RuntimeException e) {
+      // an exception would cancel the periodic execution
+      log.warn("could not save devices to [{}]", snapshot.getFile(), e);
+    }
+  }
+
+  private void expire() {
+    try {
+      registry.expire();
+    } catch (RuntimeException e) {
+      // an exception would cancel the periodic execution
+      log.warn("could not expire devices", e);
+    }
+  }
+
+  /**
+   * Creates the socket that is bound to the discovery port and joined to the multicast group.
+   */
+  protected MulticastSocket createSocket() throws IOException {
+    MulticastSocket result = new MulticastSocket(DiscoveryClient.DISCOVERY_PORT);
+    result.setNetworkInterface(networkInterface);
+    result.joinGroup(new InetSocketAddress(InetAddress.getByName(DiscoveryClient.DISCOVERY_ADDRESS),
+        DiscoveryClient.DISCOVERY_PORT), networkInterface);
+    return result;
+  }
+
+}
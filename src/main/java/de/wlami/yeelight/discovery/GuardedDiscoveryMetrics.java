@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.net.NetworkInterface;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Passes the measurements on and logs the exceptions of a faulty {@link DiscoveryMetrics}, so they
+ * neither stop a listener nor interrupt an update of a {@link DeviceRegistry}.
+ */
+@Slf4j
+final class GuardedDiscoveryMetrics implements DiscoveryMetrics {
+
+  private final DiscoveryMetrics delegate;
+
+  private GuardedDiscoveryMetrics(DiscoveryMetrics delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * @return the metrics, guarded unless they can't throw anyway.
+   */
+  static DiscoveryMetrics of(DiscoveryMetrics metrics) {
+    if (metrics == DiscoveryMetrics.NOOP || metrics instanceof GuardedDiscoveryMetrics) {
+      return metrics;
+    }
+    return new GuardedDiscoveryMetrics(metrics);
+  }
+
+  @Override
+  public void packetReceived(NetworkInterface networkInterface) {
+    try {
+      delegate.packetReceived(networkInterface);
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void packetDropped() {
+    try {
+      delegate.packetDropped();
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void packetOverflowed() {
+    try {
+      delegate.packetOverflowed();
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void packetMalformed() {
+    try {
+      delegate.packetMalformed();
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void packetParsed(long nanos) {
+    try {
+      delegate.packetParsed(nanos);
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void discoveryCompleted(int devices, long firstResponseMillis,
+      long lastResponseMillis) {
+    try {
+      delegate.discoveryCompleted(devices, firstResponseMillis, lastResponseMillis);
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void registrySizeChanged(int size) {
+    try {
+      delegate.registrySizeChanged(size);
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  @Override
+  public void deviceExpired() {
+    try {
+      delegate.deviceExpired();
+    } catch (RuntimeException e) {
+      failed(e);
+    }
+  }
+
+  private static void failed(RuntimeException e) {
+    log.warn("discovery metrics failed", e);
+  }
+
+}
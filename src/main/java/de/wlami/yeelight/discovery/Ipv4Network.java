@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import lombok.Getter;
+
+/**
+ * An IPv4 network in CIDR notation like <code>192.168.1.0/24</code>. Addresses are handled as
+ * <code>int</code>s in network byte order.
+ */
+@Getter
+final class Ipv4Network {
+
+  private final int address;
+  private final int prefixLength;
+
+  Ipv4Network(int address, int prefixLength) {
+    this.prefixLength = prefixLength;
+    this.address = address & mask(prefixLength);
+  }
+
+  /**
+   * @param cidr a network like <code>192.168.1.0/24</code>. A plain address is a /32 network.
+   * @throws IllegalArgumentException if the text is no IPv4 network.
+   */
+  static Ipv4Network parse(String cidr) {
+    int slash = cidr.indexOf('/');
+    long address = parseAddress(cidr, 0, slash < 0 ? cidr.length() : slash);
+    int length;
+    try {
+      length = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      length = -1;
+    }
+    if (address < 0 || length < 0 || length > 32) {
+      throw new IllegalArgumentException("not an IPv4 network: [" + cidr + "]");
+    }
+    return new Ipv4Network((int) address, length);
+  }
+
+  /**
+   * @return the address of text[start, end) as unsigned value or -1 if it is not an IPv4 address.
+   */
+  static long parseAddress(String text, int start, int end) {
+    long result = 0;
+    int octets = 0;
+    int octet = -1;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '.') {
+        if (octet < 0 || ++octets > 3) {
+          return -1;
+        }
+        result = (result << 8) | octet;
+        octet = -1;
+      } else if (c >= '0' && c <= '9') {
+        octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+        if (octet > 255) {
+          return -1;
+        }
+      } else {
+        return -1;
+      }
+    }
+    if (octets != 3 || octet < 0) {
+      return -1;
+    }
+    return (result << 8) | octet;
+  }
+
+  static int mask(int prefixLength) {
+    return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+  }
+
+  boolean contains(int address) {
+    return (address & mask(prefixLength)) == this.address;
+  }
+
+  /**
+   * @return number of addresses in the network.
+   */
+  long size() {
+    return 1L << (32 - prefixLength);
+  }
+
+  static String format(int address) {
+    return (address >>> 24) + "." + ((address >> 16) & 0xff) + "." + ((address >> 8) & 0xff)
+        + "." + (address & 0xff);
+  }
+
+  @Override
+  public String toString() {
+    return format(address) + "/" + prefixLength;
+  }
+
+}
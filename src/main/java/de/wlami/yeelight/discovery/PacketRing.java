@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.Getter;
+
+/**
+ * Bounded ring of preallocated packet buffers that hands received packets from one receiving
+ * thread to several parsing threads without locks. Each slot has a sequence number that tells
+ * whether it is free for the producer or holds a packet for the consumers (the bounded queue of
+ * Dmitry Vyukov).<br>
+ * <br>
+ * The producer asks for the {@link #nextBuffer()}, receives into it and {@link #publish(int)}es
+ * it. A consumer {@link #claim()}s the oldest packet, reads it from {@link #buffer(long)} and
+ * {@link #release(long)}s the slot. Only one thread may produce.
+ */
+class PacketRing {
+
+  @Getter
+  private final int capacity;
+  private final int mask;
+  private final byte[][] buffers;
+  private final int[] lengths;
+  /**
+   * <code>position</code> if the slot is free for the producer at that position,
+   * <code>position + 1</code> if it holds the packet of that position
+   */
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  /** only accessed by the producer */
+  private long tail;
+
+  /**
+   * @param capacity number of slots, rounded up to the next power of two.
+   * @param bufferSize size of each buffer in bytes.
+   */
+  PacketRing(int capacity, int bufferSize) {
+    if (capacity < 1 || capacity > 1 << 20) {
+      throw new IllegalArgumentException(
+          "capacity must be between 1 and " + (1 << 20) + " but was " + capacity);
+    }
+    if (bufferSize <= 0 || bufferSize > ReceiveBufferPool.MAX_PACKET_SIZE) {
+      throw new IllegalArgumentException("bufferSize must be between 1 and "
+          + ReceiveBufferPool.MAX_PACKET_SIZE + " but was " + bufferSize);
+    }
+    int rounded = 1;
+    while (rounded < capacity) {
+      rounded <<= 1;
+    }
+    this.capacity = rounded;
+    this.mask = this.capacity - 1;
+    this.buffers = new byte[this.capacity][bufferSize];
+    this.lengths = new int[this.capacity];
+    this.sequences = new AtomicLongArray(this.capacity);
+    for (int i = 0; i < this.capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return the buffer of the next free slot, <code>null</code> if the ring is full.
+   */
+  byte[] nextBuffer() {
+    int index = (int) tail & mask;
+    return sequences.get(index) == tail ? buffers[index] : null;
+  }
+
+  /**
+   * Hands the packet that has been received into {@link #nextBuffer()} to the consumers.
+   *
+   * @param length number of received bytes.
+   */
+  void publish(int length) {
+    int index = (int) tail & mask;
+    lengths[index] = length;
+    sequences.set(index, tail + 1);
+    tail++;
+  }
+
+  /**
+   * @return the position of the oldest packet that has not been claimed yet, <code>-1</code> if
+   *         there is none.
+   */
+  long claim() {
+    while (true) {
+      long position = head.get();
+      long sequence = sequences.get((int) position & mask);
+      if (sequence < position + 1) {
+        return -1;
+      }
+      if (sequence == position + 1 && head.compareAndSet(position, position + 1)) {
+        return position;
+      }
+    }
+  }
+
+  byte[] buffer(long position) {
+    return buffers[(int) position & mask];
+  }
+
+  int length(long position) {
+    return lengths[(int) position & mask];
+  }
+
+  /**
+   * Gives the slot of a claimed packet back to the producer.
+   */
+  void release(long position) {
+    sequences.set((int) position & mask, position + capacity);
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lombok.Getter;
+
+/**
+ * Small bounded pool of receive buffers of the same size. Listeners take a buffer when they start
+ * and give it back when they stop, so short-lived discoveries don't allocate a new buffer each
+ * time. If the pool is empty a new buffer is created, if it is full a returned buffer is dropped.
+ */
+class ReceiveBufferPool {
+
+  /** maximum payload of an UDP datagram */
+  public static final int MAX_PACKET_SIZE = 65507;
+
+  @Getter
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> buffers;
+
+  /**
+   * @param bufferSize size of each buffer in bytes.
+   * @param capacity maximum number of idle buffers that are kept.
+   */
+  ReceiveBufferPool(int bufferSize, int capacity) {
+    if (bufferSize <= 0 || bufferSize > MAX_PACKET_SIZE) {
+      throw new IllegalArgumentException(
+          "bufferSize must be between 1 and " + MAX_PACKET_SIZE + " but was " + bufferSize);
+    }
+    this.bufferSize = bufferSize;
+    this.buffers = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * @return an idle buffer or a new one if there is none.
+   */
+  byte[] acquire() {
+    byte[] result = buffers.poll();
+    return result != null ? result : new byte[bufferSize];
+  }
+
+  /**
+   * Returns the buffer to the pool. The content is not cleared.
+   */
+  void release(byte[] buffer) {
+    if (buffer.length == bufferSize) {
+      buffers.offer(buffer);
+    }
+  }
+
+  /**
+   * @return number of idle buffers.
+   */
+  int available() {
+    return buffers.size();
+  }
+
+}
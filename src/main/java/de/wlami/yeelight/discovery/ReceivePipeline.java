@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.NetworkInterface;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Listener that splits receiving and parsing: the thread that runs it only drains the socket into
+ * the slots of a {@link PacketRing}, the packets are parsed and handed to the consumer by a number
+ * of worker threads. That way a burst of packets is taken out of the socket buffer as fast as it
+ * arrives, instead of backing up while each packet is parsed.<br>
+ * <br>
+ * If the ring is full the {@link OverflowPolicy} decides whether packets are dropped or receiving
+ * pauses. With more than one worker the consumer is called concurrently and the packets of one
+ * device may be handed over out of order.<br>
+ * <br>
+ * Like the {@link UDPListener} it runs until the socket is closed. The workers parse the packets
+ * that are left and stop then.
+ */
+@Slf4j
+class ReceivePipeline implements Runnable {
+
+  /** default number of packets that can wait for a worker */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /** how long the receiving thread waits for a free slot under {@link OverflowPolicy#BLOCK} */
+  private static final long BLOCK_PARK_NANOS = 50_000;
+
+  private final DatagramSocket socket;
+  private final Consumer<DiscoveredDevice> consumer;
+  private final PacketRing ring;
+  private final int workers;
+  private final OverflowPolicy overflowPolicy;
+  private final ThreadFactory threadFactory;
+  private final DiscoveryMetrics metrics;
+  private final NetworkInterface networkInterface;
+  /** one permit for every published packet and one for every worker when stopping */
+  private final Semaphore available = new Semaphore(0);
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile boolean stopped;
+
+  /**
+   * @param socket An UDP socket to listen on.
+   * @param consumer Gets the parsed devices. Must be thread-safe if there are several workers.
+   * @param ring Holds the packets between receiving and parsing. Its buffer size limits the
+   *        packet size.
+   * @param workers Number of threads that parse the packets.
+   * @param overflowPolicy What to do if the ring is full.
+   * @param threadFactory Creates the worker threads.
+   * @param metrics Gets the packet counts, drops, overflows and parse times.
+   * @param networkInterface The interface the socket is bound to, <code>null</code> if unknown.
+   */
+  ReceivePipeline(DatagramSocket socket, Consumer<DiscoveredDevice> consumer, PacketRing ring,
+      int workers, OverflowPolicy overflowPolicy, ThreadFactory threadFactory,
+      DiscoveryMetrics metrics, NetworkInterface networkInterface) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be positive");
+    }
+    this.socket = socket;
+    this.consumer = consumer;
+    this.ring = ring;
+    this.workers = workers;
+    this.overflowPolicy = overflowPolicy;
+    this.threadFactory = threadFactory;
+    this.metrics = GuardedDiscoveryMetrics.of(metrics);
+    this.networkInterface = networkInterface;
+  }
+
+  @Override
+  public void run() {
+    for (int i = 0; i < workers; i++) {
+      threadFactory.newThread(this::parse).start();
+    }
+    // receives the packets that are dropped
+    byte[] overflow = new byte[ring.buffer(0).length];
+    DatagramPacket packet = new DatagramPacket(overflow, overflow.length);
+    try {
+      while (true) {
+        byte[] buffer = ring.nextBuffer();
+        if (buffer == null) {
+          if (overflowPolicy == OverflowPolicy.BLOCK) {
+            if (socket.isClosed()) {
+              log.debug("socket [{}] has been closed. Stop listening.", socket);
+              return;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            continue;
+          }
+          buffer = overflow;
+        }
+        // resets offset and length which have been shrunk by the previous packet
+        packet.setData(buffer);
+        socket.receive(packet);
+        metrics.packetReceived(networkInterface);
+        if (buffer == overflow) {
+          dropped.incrementAndGet();
+          metrics.packetOverflowed();
+          continue;
+        }
+        if (packet.getLength() == buffer.length) {
+          // the rest of the packet has been discarded
+          metrics.packetDropped();
+        }
+        ring.publish(packet.getLength());
+        available.release();
+      }
+    } catch (IOException e) {
+      if (socket.isClosed()) {
+        // this is how we are told to stop listening
+        log.debug("socket [{}] has been closed. Stop listening.", socket);
+        return;
+      }
+      throw new RuntimeException(e);
+    } finally {
+      stopped = true;
+      available.release(workers);
+    }
+  }
+
+  private void parse() {
+    DiscoveryResponseParser responseParser = new DiscoveryResponseParser();
+    while (true) {
+      try {
+        available.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      long position = ring.claim();
+      if (position < 0) {
+        if (stopped) {
+          return;
+        }
+        continue;
+      }
+      try {
+        long start = System.nanoTime();
+        DiscoveredDevice device;
+        try {
+          device = responseParser.parseResponse(ring.buffer(position), 0, ring.length(position));
+        } finally {
+          // the device does not refer to the buffer
+          ring.release(position);
+        }
+        metrics.packetParsed(System.nanoTime() - start);
+        if (device.getId() == null) {
+          metrics.packetMalformed();
+        }
+        consumer.accept(device);
+      } catch (RuntimeException e) {
+        // a dying worker would leave the packets to the others
+        log.warn("could not handle received packet", e);
+      }
+    }
+  }
+
+  /**
+   * @return number of packets that have been dropped because the ring was full.
+   */
+  long getDropped() {
+    return dropped.get();
+  }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binary snapshot of a {@link DeviceRegistry} on disk. It allows a restarted application to know
+ * its devices within milliseconds instead of waiting for a discovery and the next
+ * advertisements.<br>
+ * <br>
+ * {@link #save(DeviceRegistry)} writes all devices including their last-seen time and max-age to a
+ * temporary file which then replaces the snapshot atomically, so a crash never leaves a half
+ * written snapshot behind. {@link #restore(DeviceRegistry)} reads the file and adds the
+ * devices whose max-age has not passed yet. They expire from the registry like any other device
+ * unless a new discovery confirms them.
+ */
+@Slf4j
+public class RegistrySnapshot {
+
+  /** "YEDI" */
+  private static final int MAGIC = 0x59454449;
+  private static final short VERSION = 1;
+
+  private static final int CACHE_CONTROL = 1;
+  private static final int LOCATION = 1 << 1;
+  private static final int MODEL = 1 << 2;
+  private static final int FIRMWARE_VERSION = 1 << 3;
+  private static final int SUPPORTED_FUNCTIONS = 1 << 4;
+  private static final int POWER = 1 << 5;
+  private static final int BRIGHTNESS = 1 << 6;
+  private static final int COLOR_MODE = 1 << 7;
+  private static final int COLOR_TEMPERATURE = 1 << 8;
+  private static final int COLOR_RGB = 1 << 9;
+  private static final int HUE = 1 << 10;
+  private static final int SATURATION = 1 << 11;
+  private static final int NAME = 1 << 12;
+  private static final int SERVER = 1 << 13;
+  private static final int FIRST_SEEN = 1 << 14;
+  private static final int LAST_SEEN = 1 << 15;
+
+  @Getter
+  private final Path file;
+  private final LongSupplier clock;
+
+  /**
+   * @param file the snapshot file. Its directory must exist.
+   */
+  public RegistrySnapshot(Path file) {
+    this(file, System::currentTimeMillis);
+  }
+
+  /**
+   * @param file the snapshot file. Its directory must exist.
+   * @param clock source of the current time in milliseconds.
+   */
+  RegistrySnapshot(Path file, LongSupplier clock) {
+    this.file = file;
+    this.clock = clock;
+  }
+
+  /**
+   * Writes the current content of the registry.
+   *
+   * @param registry the registry to save.
+   * @throws IOException if the snapshot cannot be written.
+   */
+  public void save(DeviceRegistry registry) throws IOException {
+    write(registry.getDevices());
+  }
+
+  /**
+   * Adds the devices of the snapshot that have not expired yet to the registry. Devices that are
+   * already known to the registry are skipped as their entry is newer.
+   *
+   * @param registry the registry to fill.
+   * @return number of devices that have been added.
+   * @throws IOException if the snapshot cannot be read or is corrupt. A missing snapshot is no
+   *         error.
+   */
+  public int restore(DeviceRegistry registry) throws IOException {
+    int result = 0;
+    for (DiscoveredDevice device : read()) {
+      if (registry.get(device.getId()) == null) {
+        registry.update(device);
+        result++;
+      }
+    }
+    log.debug("restored [{}] devices from [{}]", result, file);
+    return result;
+  }
+
+  /**
+   * Writes the devices to the snapshot file, replacing its previous content.
+   *
+   * @param devices the devices to save. Devices without id are skipped.
+   * @throws IOException if the snapshot cannot be written.
+   */
+  public synchronized void write(Collection<DiscoveredDevice> devices) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + devices.size() * 256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    List<DiscoveredDevice> written = new ArrayList<>(devices.size());
+    for (DiscoveredDevice device : devices) {
+      if (device.getId() != null) {
+        written.add(device);
+      }
+    }
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeInt(written.size());
+    for (DiscoveredDevice device : written) {
+      writeDevice(out, device);
+    }
+    out.flush();
+
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+      while (content.hasRemaining()) {
+        channel.write(content);
+      }
+      // the content has to be on disk before the rename, or a crash may leave an empty snapshot
+      channel.force(true);
+    }
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    log.debug("saved [{}] devices to [{}]", written.size(), file);
+  }
+
+  /**
+   * Reads the devices of the snapshot whose max-age has not passed yet.
+   *
+   * @return the devices. The list is empty if there is no snapshot file.
+   * @throws IOException if the snapshot cannot be read or is corrupt.
+   */
+  public List<DiscoveredDevice> read() throws IOException {
+    ByteBuffer buffer;
+    try {
+      buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    } catch (NoSuchFileException e) {
+      return new ArrayList<>();
+    }
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("[" + file + "] is not a device snapshot");
+      }
+      short version = buffer.getShort();
+      if (version != VERSION) {
+        throw new IOException("unsupported snapshot version [" + version + "] in [" + file + "]");
+      }
+      int count = buffer.getInt();
+      long now = clock.getAsLong();
+      List<DiscoveredDevice> result = new ArrayList<>(Math.min(count, 1 << 16));
+      for (int i = 0; i < count; i++) {
+        DiscoveredDevice device = readDevice(buffer);
+        if (isAlive(device, now)) {
+          result.add(device);
+        }
+      }
+      return result;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("corrupt device snapshot [" + file + "]", e);
+    }
+  }
+
+  private static boolean isAlive(DiscoveredDevice device, long now) {
+    if (device.getCacheControl() == null) {
+      return true;
+    }
+    if (device.getLastSeen() == null) {
+      return false;
+    }
+    return device.getLastSeen() + TimeUnit.SECONDS.toMillis(device.getCacheControl()) > now;
+  }
+
+  private static void writeDevice(DataOutputStream out, DiscoveredDevice device)
+      throws IOException {
+    int present = 0;
+    present |= device.getCacheControl() != null ? CACHE_CONTROL : 0;
+    present |= device.getLocation() != null ? LOCATION : 0;
+    present |= device.getModel() != null ? MODEL : 0;
+    present |= device.getFirmwareVersion() != null ? FIRMWARE_VERSION : 0;
+    present |= device.getSupportedFunctions() != null ? SUPPORTED_FUNCTIONS : 0;
+    present |= device.getPower() != null ? POWER : 0;
+    present |= device.getBrightness() != null ? BRIGHTNESS : 0;
+    present |= device.getColorMode() != null ? COLOR_MODE : 0;
+    present |= device.getColorTemparature() != null ? COLOR_TEMPERATURE : 0;
+    present |= device.getColorRGB() != null ? COLOR_RGB : 0;
+    present |= device.getHue() != null ? HUE : 0;
+    present |= device.getSaturation() != null ? SATURATION : 0;
+    present |= device.getName() != null ? NAME : 0;
+    present |= device.getServer() != null ? SERVER : 0;
+    present |= device.getFirstSeen() != null ? FIRST_SEEN : 0;
+    present |= device.getLastSeen() != null ? LAST_SEEN : 0;
+
+    out.writeInt(present);
+    writeString(out, device.getId());
+    if (device.getCacheControl() != null) {
+      out.writeLong(device.getCacheControl());
+    }
+    if (device.getLocation() != null) {
+      writeString(out, device.getLocation().toString());
+    }
+    if (device.getModel() != null) {
+      writeString(out, device.getModel());
+    }
+    if (device.getFirmwareVersion() != null) {
+      out.writeInt(device.getFirmwareVersion());
+    }
+    if (device.getSupportedFunctions() != null) {
+      out.writeShort(device.getSupportedFunctions().size());
+      for (String function : device.getSupportedFunctions()) {
+        writeString(out, function);
+      }
+    }
+    if (device.getPower() != null) {
+      writeString(out, device.getPower());
+    }
+    if (device.getBrightness() != null) {
+      out.writeInt(device.getBrightness());
+    }
+    if (device.getColorMode() != null) {
+      out.writeInt(device.getColorMode());
+    }
+    if (device.getColorTemparature() != null) {
+      out.writeInt(device.getColorTemparature());
+    }
+    if (device.getColorRGB() != null) {
+      out.writeInt(device.getColorRGB());
+    }
+    if (device.getHue() != null) {
+      out.writeInt(device.getHue());
+    }
+    if (device.getSaturation() != null) {
+      out.writeInt(device.getSaturation());
+    }
+    if (device.getName() != null) {
+      writeString(out, device.getName());
+    }
+    if (device.getServer() != null) {
+      writeString(out, device.getServer());
+    }
+    if (device.getFirstSeen() != null) {
+      out.writeLong(device.getFirstSeen());
+    }
+    if (device.getLastSeen() != null) {
+      out.writeLong(device.getLastSeen());
+    }
+  }
+
+  private static DiscoveredDevice readDevice(ByteBuffer in) {
+    int present = in.getInt();
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(readString(in));
+    if ((present & CACHE_CONTROL) != 0) {
+      device.setCacheControl(in.getLong());
+    }
+    if ((present & LOCATION) != 0) {
+      device.setLocation(URI.create(readString(in)));
+    }
+    if ((present & MODEL) != 0) {
+      device.setModel(readString(in).intern());
+    }
+    if ((present & FIRMWARE_VERSION) != 0) {
+      device.setFirmwareVersion(in.getInt());
+    }
+    if ((present & SUPPORTED_FUNCTIONS) != 0) {
+      int count = in.getShort() & 0xffff;
+      List<String> functions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        functions.add(readString(in).intern());
+      }
+      device.setSupportedFunctions(functions);
+    } else {
+      device.setSupportedFunctions(null);
+    }
+    if ((present & POWER) != 0) {
+      device.setPower(readString(in).intern());
+    }
+    if ((present & BRIGHTNESS) != 0) {
+      device.setBrightness(in.getInt());
+    }
+    if ((present & COLOR_MODE) != 0) {
+      device.setColorMode(in.getInt());
+    }
+    if ((present & COLOR_TEMPERATURE) != 0) {
+      device.setColorTemparature(in.getInt());
+    }
+    if ((present & COLOR_RGB) != 0) {
+      device.setColorRGB(in.getInt());
+    }
+    if ((present & HUE) != 0) {
+      device.setHue(in.getInt());
+    }
+    if ((present & SATURATION) != 0) {
+      device.setSaturation(in.getInt());
+    }
+    if ((present & NAME) != 0) {
+      device.setName(readString(in));
+    }
+    if ((present & SERVER) != 0) {
+      device.setServer(readString(in).intern());
+    }
+    if ((present & FIRST_SEEN) != 0) {
+      device.setFirstSeen(in.getLong());
+    }
+    if ((present & LAST_SEEN) != 0) {
+      device.setLastSeen(in.getLong());
+    }
+    return device;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xffff) {
+      throw new IOException("value too long for snapshot: [" + value.substring(0, 32) + "...]");
+    }
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getShort() & 0xffff;
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
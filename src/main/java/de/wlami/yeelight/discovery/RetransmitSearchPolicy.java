@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.Getter;
+
+/**
+ * {@link SearchPolicy} that sends the search message several times, as recommended for SSDP. The
+ * interval between two messages starts at {@link #getInitialIntervalMillis()} and is multiplied
+ * by {@link #getBackoffFactor()} after each message. Every interval is randomized by
+ * &plusmn;{@link #getJitter()}, so that several clients don't send in lockstep. The search stops
+ * when the replies have stopped coming in for {@link #getQuietPeriodMillis()} or
+ * {@link #getExpectedDevices()} devices have answered, whatever comes first.
+ */
+@Getter
+public class RetransmitSearchPolicy implements SearchPolicy {
+
+  public static final int DEFAULT_TRANSMISSIONS = 3;
+  public static final long DEFAULT_INITIAL_INTERVAL_MILLIS = 100;
+  public static final double DEFAULT_BACKOFF_FACTOR = 2;
+  public static final double DEFAULT_JITTER = 0.25;
+  public static final long DEFAULT_QUIET_PERIOD_MILLIS = 300;
+
+  private int transmissions = DEFAULT_TRANSMISSIONS;
+  private long initialIntervalMillis = DEFAULT_INITIAL_INTERVAL_MILLIS;
+  private double backoffFactor = DEFAULT_BACKOFF_FACTOR;
+  private double jitter = DEFAULT_JITTER;
+  private long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+  private int expectedDevices = Integer.MAX_VALUE;
+
+  @Override
+  public long retransmitDelayMillis(int sent) {
+    if (sent >= transmissions) {
+      return -1;
+    }
+    double interval = initialIntervalMillis * Math.pow(backoffFactor, sent - 1);
+    double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+    return Math.round(interval * factor);
+  }
+
+  @Override
+  public long quietPeriodMillis() {
+    return quietPeriodMillis;
+  }
+
+  @Override
+  public int expectedDevices() {
+    return expectedDevices;
+  }
+
+  /**
+   * @param transmissions total number of search messages, at least 1.
+   */
+  public void setTransmissions(int transmissions) {
+    if (transmissions < 1) {
+      throw new IllegalArgumentException("transmissions must be at least 1: " + transmissions);
+    }
+    this.transmissions = transmissions;
+  }
+
+  /**
+   * @param initialIntervalMillis time between the first and the second search message.
+   */
+  public void setInitialIntervalMillis(long initialIntervalMillis) {
+    if (initialIntervalMillis < 0) {
+      throw new IllegalArgumentException(
+          "initialIntervalMillis must not be negative: " + initialIntervalMillis);
+    }
+    this.initialIntervalMillis = initialIntervalMillis;
+  }
+
+  /**
+   * @param backoffFactor growth of the interval after each message, at least 1.
+   */
+  public void setBackoffFactor(double backoffFactor) {
+    if (!(backoffFactor >= 1)) {
+      throw new IllegalArgumentException("backoffFactor must be at least 1: " + backoffFactor);
+    }
+    this.backoffFactor = backoffFactor;
+  }
+
+  /**
+   * @param jitter relative randomization of each interval between 0 and 1.
+   */
+  public void setJitter(double jitter) {
+    if (!(jitter >= 0 && jitter <= 1)) {
+      throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+    }
+    this.jitter = jitter;
+  }
+
+  /**
+   * @param quietPeriodMillis time without new devices after which the search stops. 0 waits for
+   *        the timeout.
+   */
+  public void setQuietPeriodMillis(long quietPeriodMillis) {
+    if (quietPeriodMillis < 0) {
+      throw new IllegalArgumentException(
+          "quietPeriodMillis must not be negative: " + quietPeriodMillis);
+    }
+    this.quietPeriodMillis = quietPeriodMillis;
+  }
+
+  /**
+   * @param expectedDevices number of devices after which the search stops, e.g. the size of the
+   *        known fleet.
+   */
+  public void setExpectedDevices(int expectedDevices) {
+    if (expectedDevices < 1) {
+      throw new IllegalArgumentException("expectedDevices must be at least 1: " + expectedDevices);
+    }
+    this.expectedDevices = expectedDevices;
+  }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+/**
+ * Decides how often the M-SEARCH message is sent and when a discovery may stop before its timeout.
+ * Single UDP datagrams get lost on busy networks, so it pays off to send the search a few times.
+ * On the other hand the replies usually arrive within milliseconds, so there is no need to wait
+ * for the whole timeout once they have stopped coming in.<br>
+ * <br>
+ * {@link #SINGLE} sends one message and waits for the timeout. {@link RetransmitSearchPolicy} sends
+ * a burst of messages with randomized intervals and stops when no new device has answered for a
+ * while.
+ */
+public interface SearchPolicy {
+
+  /** one search message, no early termination */
+  SearchPolicy SINGLE = new SearchPolicy() {
+    @Override
+    public long retransmitDelayMillis(int sent) {
+      return -1;
+    }
+
+    @Override
+    public long quietPeriodMillis() {
+      return 0;
+    }
+  };
+
+  /**
+   * @param sent number of search messages that have been sent so far, at least 1.
+   * @return time to wait before the next search message is sent or a negative value if no more
+   *         messages should be sent.
+   */
+  long retransmitDelayMillis(int sent);
+
+  /**
+   * @return the search stops when no new device has answered for this time after the last search
+   *         message has been sent and at least one device has been found. 0 waits for the timeout.
+   */
+  long quietPeriodMillis();
+
+  /**
+   * @return the search stops as soon as this number of devices has been found.
+   */
+  default int expectedDevices() {
+    return Integer.MAX_VALUE;
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of one search according to a {@link SearchPolicy}: when the next search message is due
+ * and whether the search is done. Times are milliseconds of a monotonic clock. The methods are
+ * synchronized as the replies and the timer may be handled by different threads.
+ */
+class SearchSchedule {
+
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private final SearchPolicy policy;
+  private final long start;
+  private final long deadline;
+  private int sent;
+  private int found;
+  private long nextSend;
+  private long lastActivity;
+  private long firstFound = -1;
+  private long lastFound = -1;
+
+  /**
+   * @param policy the policy to follow.
+   * @param now the start of the search.
+   * @param timeoutMillis the search ends after this time in any case.
+   */
+  SearchSchedule(SearchPolicy policy, long now, long timeoutMillis) {
+    this.policy = policy;
+    this.start = now;
+    this.deadline = now + timeoutMillis;
+    this.nextSend = now;
+    this.lastActivity = now;
+  }
+
+  /**
+   * @return <code>true</code> if a search message should be sent now.
+   */
+  synchronized boolean isSendDue(long now) {
+    return nextSend <= now && now < deadline;
+  }
+
+  /**
+   * Records that a search message has been sent.
+   */
+  synchronized void sent(long now) {
+    sent++;
+    lastActivity = Math.max(lastActivity, now);
+    long delay = policy.retransmitDelayMillis(sent);
+    nextSend = delay < 0 ? NEVER : now + delay;
+  }
+
+  /**
+   * Records that a new device has answered.
+   */
+  synchronized void found(long now) {
+    found++;
+    lastActivity = Math.max(lastActivity, now);
+    if (firstFound < 0) {
+      firstFound = now;
+    }
+    lastFound = now;
+  }
+
+  /**
+   * @return <code>true</code> if the timeout has passed, enough devices have been found or the
+   *         replies have stopped after the last search message.
+   */
+  synchronized boolean isDone(long now) {
+    return now >= deadline || found >= policy.expectedDevices() || now >= quietEnd();
+  }
+
+  /**
+   * @return the next time {@link #isSendDue(long)} or {@link #isDone(long)} may change without a
+   *         new device being found.
+   */
+  synchronized long nextWakeUp() {
+    return Math.min(deadline, Math.min(nextSend, quietEnd()));
+  }
+
+  /**
+   * @return the current time of the monotonic clock in milliseconds.
+   */
+  static long now() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  /**
+   * @return time from the start to the first new device or -1 if none has been found.
+   */
+  synchronized long getFirstResponseMillis() {
+    return firstFound < 0 ? -1 : firstFound - start;
+  }
+
+  /**
+   * @return time from the start to the last new device or -1 if none has been found.
+   */
+  synchronized long getLastResponseMillis() {
+    return lastFound < 0 ? -1 : lastFound - start;
+  }
+
+  synchronized int getSent() {
+    return sent;
+  }
+
+  private long quietEnd() {
+    long quietPeriod = policy.quietPeriodMillis();
+    if (quietPeriod <= 0 || found == 0 || nextSend != NEVER) {
+      return NEVER;
+    }
+    return lastActivity + quietPeriod;
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Discovery on several network interfaces at once within the calling thread. For every interface a
+ * non-blocking {@link DatagramChannel} is opened and the search message is sent on all of them
+ * right away. The replies are multiplexed using a {@link Selector} and read into a buffer which is
+ * parsed in place.<br>
+ * <br>
+ * Every call of {@link #discover(long, TimeUnit, Collection)} borrows its own buffer from a
+ * {@link ReceiveBufferPool}, so concurrent calls don't block each other.
+ */
+@Slf4j
+class SelectorDiscoveryEngine {
+
+  private final DiscoveryResponseParser responseParser = new DiscoveryResponseParser();
+  private final ReceiveBufferPool bufferPool;
+  private final ByteBuffer searchMessage;
+
+  SelectorDiscoveryEngine(byte[] searchMessage) {
+    this(searchMessage, new ReceiveBufferPool(UDPListener.DEFAULT_PACKET_SIZE, 1));
+  }
+
+  /**
+   * @param searchMessage the message that is sent on every interface.
+   * @param bufferPool provides the receive buffers. Their size limits the size of the replies.
+   */
+  SelectorDiscoveryEngine(byte[] searchMessage, ReceiveBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+    this.searchMessage = ByteBuffer.allocateDirect(searchMessage.length);
+    this.searchMessage.put(searchMessage).flip();
+  }
+
+  /**
+   * Sends the search message on all interfaces and collects the replies until the timeout has
+   * passed.
+   *
+   * @param timeout Timeout for responses.
+   * @param unit The time unit you want to use.
+   * @param networkInterfaces The network interfaces you want to search on.
+   * @return the discovered devices. A device that answered several times is contained once with
+   *         its merged state.
+   * @throws IOException if a channel cannot be opened or the search cannot be sent.
+   */
+  List<DiscoveredDevice> discover(long timeout, TimeUnit unit,
+      Collection<NetworkInterface> networkInterfaces) throws IOException {
+    return discover(timeout, unit, networkInterfaces, SearchPolicy.SINGLE,
+        DiscoveryMetrics.NOOP);
+  }
+
+  /**
+   * Sends the search message on all interfaces as often as the policy wants and collects the
+   * replies until the policy considers the search done or the timeout has passed.
+   *
+   * @param timeout Timeout for responses.
+   * @param unit The time unit you want to use.
+   * @param networkInterfaces The network interfaces you want to search on.
+   * @param policy decides about retransmissions and early termination.
+   * @param metrics gets the packet counts, parse times and response times.
+   * @return the discovered devices. A device that answered several times is contained once with
+   *         its merged state.
+   * @throws IOException if a channel cannot be opened or the search cannot be sent.
+   */
+  List<DiscoveredDevice> discover(long timeout, TimeUnit unit,
+      Collection<NetworkInterface> networkInterfaces, SearchPolicy policy,
+      DiscoveryMetrics metrics) throws IOException {
+    metrics = GuardedDiscoveryMetrics.of(metrics);
+    DeviceCollector result = new DeviceCollector();
+    SearchSchedule schedule =
+        new SearchSchedule(policy, SearchSchedule.now(), unit.toMillis(timeout));
+    List<DatagramChannel> channels = new ArrayList<>(networkInterfaces.size());
+    byte[] buffer = bufferPool.acquire();
+    ByteBuffer receiveBuffer = ByteBuffer.wrap(buffer);
+    try (Selector selector = Selector.open()) {
+      for (NetworkInterface networkInterface : networkInterfaces) {
+        DatagramChannel channel = openChannel(networkInterface);
+        channels.add(channel);
+        channel.register(selector, SelectionKey.OP_READ, networkInterface);
+      }
+      long now;
+      while (!schedule.isDone(now = SearchSchedule.now())) {
+        if (schedule.isSendDue(now)) {
+          send(channels, schedule.getSent() == 0);
+          schedule.sent(now);
+        }
+        long remaining = schedule.nextWakeUp() - now;
+        if (remaining > 0) {
+          selector.select(remaining);
+        } else {
+          selector.selectNow();
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          receive(key, receiveBuffer, result, schedule, metrics);
+        }
+      }
+    } finally {
+      for (DatagramChannel channel : channels) {
+        channel.close();
+      }
+      bufferPool.release(buffer);
+    }
+    List<DiscoveredDevice> devices = result.getDevices();
+    metrics.discoveryCompleted(devices.size(), schedule.getFirstResponseMillis(),
+        schedule.getLastResponseMillis());
+    log.debug("we have waited [{}][{}]. Discovered devices: [{}]", timeout, unit, devices);
+    return devices;
+  }
+
+  private void send(List<DatagramChannel> channels, boolean first) throws IOException {
+    for (DatagramChannel channel : channels) {
+      NetworkInterface networkInterface = channel.getOption(StandardSocketOptions.IP_MULTICAST_IF);
+      if (channel.send(searchMessage.duplicate(), getSearchTarget()) == 0) {
+        log.warn("could not send discovery message on interface [{}]", networkInterface);
+      } else if (first) {
+        log.info("sent discovery message on interface [{}]", networkInterface);
+      } else {
+        log.debug("resent discovery message on interface [{}]", networkInterface);
+      }
+    }
+  }
+
+  private void receive(SelectionKey key, ByteBuffer receiveBuffer, DeviceCollector result,
+      SearchSchedule schedule, DiscoveryMetrics metrics) throws IOException {
+    DatagramChannel channel = (DatagramChannel) key.channel();
+    NetworkInterface networkInterface = (NetworkInterface) key.attachment();
+    receiveBuffer.clear();
+    SocketAddress sender;
+    while ((sender = channel.receive(receiveBuffer)) != null) {
+      log.debug("received message from [{}].", sender);
+      metrics.packetReceived(networkInterface);
+      if (!receiveBuffer.hasRemaining()) {
+        // the rest of the packet has been discarded
+        metrics.packetDropped();
+      }
+      receiveBuffer.flip();
+      long start = System.nanoTime();
+      DiscoveredDevice device = responseParser.parseResponse(receiveBuffer);
+      metrics.packetParsed(System.nanoTime() - start);
+      if (device.getId() == null) {
+        metrics.packetMalformed();
+      } else if (result.add(device)) {
+        schedule.found(SearchSchedule.now());
+      }
+      receiveBuffer.clear();
+    }
+  }
+
+  protected DatagramChannel openChannel(NetworkInterface networkInterface) throws IOException {
+    DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+    try {
+      channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+      channel.configureBlocking(false);
+      channel.bind(new InetSocketAddress(0));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /**
+   * @return the address the search message is sent to.
+   */
+  protected SocketAddress getSearchTarget() {
+    return new InetSocketAddress(DiscoveryClient.DISCOVERY_ADDRESS, DiscoveryClient.DISCOVERY_PORT);
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories and executors for the blocking listeners and connections. Yedi is built for
+ * Java 8, so the virtual threads of Java 21 are looked up by reflection. Example:<br>
+ * <code>new DiscoveryClient(ThreadSupport.newVirtualThreadExecutor("yedi-listener-"))</code>
+ */
+public final class ThreadSupport {
+
+  private ThreadSupport() {}
+
+  /**
+   * @param prefix name of the threads, followed by a counter.
+   * @return a factory for daemon platform threads.
+   */
+  public static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * @return <code>true</code> if the JVM supports virtual threads, i.e. Java 21 and later.
+   */
+  public static boolean isVirtualThreadSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param prefix name of the threads, followed by a counter.
+   * @return a factory for virtual threads.
+   * @throws UnsupportedOperationException if the JVM does not support virtual threads.
+   */
+  public static ThreadFactory virtualThreads(String prefix) {
+    try {
+      // the builder implementation is not accessible, so its public interfaces are used
+      Method name = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name",
+          String.class, long.class);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      Object builder = name.invoke(Thread.class.getMethod("ofVirtual").invoke(null), prefix, 1L);
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("could not create virtual thread factory", e);
+    }
+  }
+
+  /**
+   * @param prefix name of the threads, followed by a counter.
+   * @return an executor that starts a new virtual thread for each task.
+   * @throws UnsupportedOperationException if the JVM does not support virtual threads.
+   */
+  public static ExecutorService newVirtualThreadExecutor(String prefix) {
+    ThreadFactory threads = virtualThreads(prefix);
+    try {
+      return (ExecutorService) Executors.class
+          .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threads);
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("virtual threads require Java 21 or later", e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("could not create virtual thread executor", e);
+    }
+  }
+
+}
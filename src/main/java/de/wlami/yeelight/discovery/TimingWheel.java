@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel. Scheduling and cancelling are O(1), advancing the wheel only visits the
+ * buckets of the elapsed ticks. Each bucket is a doubly linked list of {@link Timeout}s whose
+ * deadline falls on that bucket in the current or in one of the following revolutions.<br>
+ * <br>
+ * This class is not thread-safe. The owner has to synchronize access.
+ *
+ * @param <T> type of the scheduled values
+ */
+class TimingWheel<T> {
+
+  /** a scheduled value. Keep it in order to be able to {@link TimingWheel#cancel(Timeout)} it. */
+  static final class Timeout<T> {
+    private final T value;
+    private final long deadlineTick;
+    private int bucket = -1;
+    private Timeout<T> previous;
+    private Timeout<T> next;
+
+    private Timeout(T value, long deadlineTick) {
+      this.value = value;
+      this.deadlineTick = deadlineTick;
+    }
+
+    T getValue() {
+      return value;
+    }
+  }
+
+  private final long tickMillis;
+  private final Timeout<T>[] buckets;
+  private final int mask;
+  private long currentTick;
+  private int size;
+
+  /**
+   * @param tickMillis duration of one tick. Deadlines are rounded up to full ticks.
+   * @param wheelSize number of buckets. Is rounded up to the next power of two.
+   * @param startMillis the current time.
+   */
+  @SuppressWarnings("unchecked")
+  TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+    if (tickMillis <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException("tickMillis and wheelSize must be positive!");
+    }
+    int normalizedSize = Integer.highestOneBit(wheelSize);
+    if (normalizedSize < wheelSize) {
+      normalizedSize <<= 1;
+    }
+    this.tickMillis = tickMillis;
+    this.buckets = new Timeout[normalizedSize];
+    this.mask = normalizedSize - 1;
+    this.currentTick = startMillis / tickMillis;
+  }
+
+  /**
+   * Schedules the value. Deadlines in the past expire with the next tick.
+   *
+   * @param value the value that is handed to the consumer on expiry.
+   * @param deadlineMillis point in time at which the value expires.
+   * @return a handle that can be used for cancelling.
+   */
+  Timeout<T> schedule(T value, long deadlineMillis) {
+    long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+    if (deadlineTick <= currentTick) {
+      deadlineTick = currentTick + 1;
+    }
+    Timeout<T> timeout = new Timeout<>(value, deadlineTick);
+    int bucket = (int) (deadlineTick & mask);
+    timeout.bucket = bucket;
+    timeout.next = buckets[bucket];
+    if (timeout.next != null) {
+      timeout.next.previous = timeout;
+    }
+    buckets[bucket] = timeout;
+    size++;
+    return timeout;
+  }
+
+  /**
+   * Removes the timeout from the wheel. Cancelling an expired or cancelled timeout does nothing.
+   */
+  void cancel(Timeout<T> timeout) {
+    if (timeout.bucket < 0) {
+      return;
+    }
+    if (timeout.previous != null) {
+      timeout.previous.next = timeout.next;
+    } else {
+      buckets[timeout.bucket] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.previous = timeout.previous;
+    }
+    timeout.bucket = -1;
+    timeout.previous = null;
+    timeout.next = null;
+    size--;
+  }
+
+  /**
+   * Advances the wheel up to the given time and hands every expired value to the consumer.
+   *
+   * @param nowMillis the current time.
+   * @param expired gets all values whose deadline has passed.
+   */
+  void advance(long nowMillis, Consumer<T> expired) {
+    long targetTick = nowMillis / tickMillis;
+    // after one revolution every bucket has been visited, so a larger jump can be cut short
+    long steps = Math.min(targetTick - currentTick, buckets.length);
+    for (long step = 1; step <= steps; step++) {
+      int bucket = (int) ((currentTick + step) & mask);
+      Timeout<T> timeout = buckets[bucket];
+      while (timeout != null) {
+        Timeout<T> next = timeout.next;
+        if (timeout.deadlineTick <= targetTick) {
+          cancel(timeout);
+          expired.accept(timeout.value);
+        }
+        timeout = next;
+      }
+    }
+    if (targetTick > currentTick) {
+      currentTick = targetTick;
+    }
+  }
+
+  /**
+   * @return number of scheduled timeouts.
+   */
+  int size() {
+    return size;
+  }
+
+}
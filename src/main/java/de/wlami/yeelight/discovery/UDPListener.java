@@ -22,15 +22,22 @@ package de.wlami.yeelight.discovery;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.NetworkInterface;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Consumer;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * UDPListener that works on the provided resources. It will listen on the socket and parse all
- * incoming UDP packets. The result is written into the provided list.<br>
+ * incoming UDP packets. The result is written into the provided list or handed to the provided
+ * consumer.<br>
  * <br>
- * This {@link Runnable} does not stop listening on the socket. You have to kill it from outside!
+ * The listener takes one buffer from a {@link ReceiveBufferPool} and reuses it for every packet.
+ * Only the received bytes are parsed. Every packet is reported to the {@link DiscoveryMetrics}.<br>
+ * <br>
+ * This {@link Runnable} does not stop listening on the socket. You have to kill it from outside by
+ * closing the socket!
  */
 @Slf4j
 class UDPListener implements Runnable {
@@ -41,7 +48,10 @@ class UDPListener implements Runnable {
   private DiscoveryResponseParser responseParser = new DiscoveryResponseParser();
 
   private DatagramSocket socket;
-  private List<DiscoveredDevice> result;
+  private Consumer<DiscoveredDevice> consumer;
+  private ReceiveBufferPool bufferPool;
+  private DiscoveryMetrics metrics;
+  private NetworkInterface networkInterface;
 
   /**
    * Creates an UDPListener that works on the provided resources. It will listen on the socket and
@@ -53,26 +63,88 @@ class UDPListener implements Runnable {
    * @param result A List that should get the results.
    */
   public UDPListener(DatagramSocket socket, List<DiscoveredDevice> result) {
+    this(socket, result::add);
+  }
+
+  /**
+   * Creates an UDPListener that hands every parsed device to the provided consumer. The consumer
+   * is called on the listener thread.
+   * 
+   * @param socket An UDP socket to listen on.
+   * @param consumer Gets the parsed devices.
+   */
+  public UDPListener(DatagramSocket socket, Consumer<DiscoveredDevice> consumer) {
+    this(socket, consumer, new ReceiveBufferPool(DEFAULT_PACKET_SIZE, 1));
+  }
+
+  /**
+   * Creates an UDPListener that receives into a buffer of the pool.
+   * 
+   * @param socket An UDP socket to listen on.
+   * @param consumer Gets the parsed devices.
+   * @param bufferPool Provides the receive buffer. The buffer size limits the packet size.
+   */
+  public UDPListener(DatagramSocket socket, Consumer<DiscoveredDevice> consumer,
+      ReceiveBufferPool bufferPool) {
+    this(socket, consumer, bufferPool, DiscoveryMetrics.NOOP, null);
+  }
+
+  /**
+   * Creates an UDPListener that receives into a buffer of the pool and reports to the metrics.
+   * 
+   * @param socket An UDP socket to listen on.
+   * @param consumer Gets the parsed devices.
+   * @param bufferPool Provides the receive buffer. The buffer size limits the packet size.
+   * @param metrics Gets the packet counts and parse times.
+   * @param networkInterface The interface the socket is bound to, <code>null</code> if unknown.
+   */
+  public UDPListener(DatagramSocket socket, Consumer<DiscoveredDevice> consumer,
+      ReceiveBufferPool bufferPool, DiscoveryMetrics metrics, NetworkInterface networkInterface) {
     super();
     this.socket = socket;
-    this.result = result;
+    this.consumer = consumer;
+    this.bufferPool = bufferPool;
+    this.metrics = GuardedDiscoveryMetrics.of(metrics);
+    this.networkInterface = networkInterface;
   }
 
   @Override
   public void run() {
+    byte[] buffer = bufferPool.acquire();
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
     try {
       while (true) {
-        byte[] data = new byte[DEFAULT_PACKET_SIZE];
-        DatagramPacket packet = new DatagramPacket(data, data.length);
+        // resets offset and length which have been shrunk by the previous packet
+        packet.setData(buffer);
         socket.receive(packet);
         log.debug("received message from [{}].", packet.getSocketAddress());
-        String resultString = new String(packet.getData(), StandardCharsets.UTF_8);
-        log.trace(resultString);
-        DiscoveredDevice device = responseParser.parseResponse(resultString);
-        result.add(device);
+        if (log.isTraceEnabled()) {
+          log.trace(new String(packet.getData(), packet.getOffset(), packet.getLength(),
+              StandardCharsets.UTF_8));
+        }
+        metrics.packetReceived(networkInterface);
+        if (packet.getLength() == buffer.length) {
+          // the rest of the packet has been discarded
+          metrics.packetDropped();
+        }
+        long start = System.nanoTime();
+        DiscoveredDevice device = responseParser.parseResponse(packet.getData(),
+            packet.getOffset(), packet.getLength());
+        metrics.packetParsed(System.nanoTime() - start);
+        if (device.getId() == null) {
+          metrics.packetMalformed();
+        }
+        consumer.accept(device);
       }
     } catch (IOException e) {
+      if (socket.isClosed()) {
+        // this is how we are told to stop listening
+        log.debug("socket [{}] has been closed. Stop listening.", socket);
+        return;
+      }
       throw new RuntimeException(e);
+    } finally {
+      bufferPool.release(buffer);
     }
   }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Discovery for networks that filter multicast, e.g. access points that drop traffic to
+ * <code>239.255.255.250</code>. The sweep sends {@link DiscoveryClient#DISCOVERY_MESSAGE} by unicast
+ * to every host address of the given IPv4 networks. All messages are sent from one non-blocking
+ * {@link DatagramChannel} which also receives the replies, so no thread per host is needed.<br>
+ * <br>
+ * The sends are paced at {@link #getPacketsPerSecond()} so the access point isn't flooded. With
+ * the default of 1000 packets per second a /22 is swept in about a second. After the last message
+ * the sweep waits for the replies until the timeout has passed. If the socket buffer is full the
+ * sweep waits until the channel is writable again.<br>
+ * <br>
+ * Every sweep has its own channel and receive buffer, so one instance can run several sweeps at
+ * once.
+ */
+@Slf4j
+public class UnicastSweep {
+
+  public static final int DEFAULT_PACKETS_PER_SECOND = 1000;
+  /** upper limit of addresses per sweep, a /16 */
+  public static final int MAX_ADDRESSES = 1 << 16;
+
+  private final DiscoveryResponseParser responseParser = new DiscoveryResponseParser();
+  private final ByteBuffer searchMessage;
+
+  @Getter
+  private volatile int packetsPerSecond = DEFAULT_PACKETS_PER_SECOND;
+  @Getter
+  private volatile int port = DiscoveryClient.DISCOVERY_PORT;
+  @Getter
+  private volatile DiscoveryMetrics metrics = DiscoveryMetrics.NOOP;
+
+  public UnicastSweep() {
+    byte[] message = DiscoveryClient.DISCOVERY_MESSAGE;
+    this.searchMessage = ByteBuffer.allocateDirect(message.length);
+    this.searchMessage.put(message).flip();
+  }
+
+  /**
+   * @param packetsPerSecond maximum rate of the search messages.
+   */
+  public void setPacketsPerSecond(int packetsPerSecond) {
+    if (packetsPerSecond < 1) {
+      throw new IllegalArgumentException("packetsPerSecond must be positive: " + packetsPerSecond);
+    }
+    this.packetsPerSecond = packetsPerSecond;
+  }
+
+  /**
+   * @param port the port the search messages are sent to. Defaults to
+   *        {@link DiscoveryClient#DISCOVERY_PORT}.
+   */
+  public void setPort(int port) {
+    if (port < 1 || port > 0xffff) {
+      throw new IllegalArgumentException("invalid port: " + port);
+    }
+    this.port = port;
+  }
+
+  /**
+   * @param metrics gets the packet counts, parse times and response times of the sweeps.
+   */
+  public void setMetrics(DiscoveryMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sends the search message to every host address of the networks and collects the replies.
+   * For networks larger than /31 the network and broadcast addresses are skipped.
+   *
+   * @param timeout time to wait for replies after the last message has been sent.
+   * @param unit The time unit you want to use.
+   * @param networks IPv4 networks in CIDR notation like <code>192.168.1.0/24</code>.
+   * @return the discovered devices. A device that answered several times is contained once.
+   * @throws IllegalArgumentException if a network is invalid or the networks contain more than
+   *         {@link #MAX_ADDRESSES} addresses.
+   * @throws IOException if the channel cannot be opened.
+   */
+  public List<DiscoveredDevice> sweep(long timeout, TimeUnit unit, Collection<String> networks)
+      throws IOException {
+    int[] addresses = addresses(networks);
+    Replies replies = new Replies(GuardedDiscoveryMetrics.of(metrics));
+    long start = System.nanoTime();
+    long sendInterval = TimeUnit.SECONDS.toNanos(1) / packetsPerSecond;
+    long timeoutNanos = unit.toNanos(timeout);
+    // moved to the last message once everything has been sent
+    long deadline = start + timeoutNanos;
+    int sent = 0;
+    try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        Selector selector = Selector.open()) {
+      channel.configureBlocking(false);
+      channel.bind(new InetSocketAddress(0));
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      boolean writable = true;
+      while (true) {
+        long now = System.nanoTime();
+        while (writable && sent < addresses.length && now - start >= sent * sendInterval) {
+          if (send(channel, addresses[sent])) {
+            if (++sent == addresses.length) {
+              deadline = now + timeoutNanos;
+              log.debug("sent discovery message to [{}] addresses", sent);
+            }
+          } else {
+            // the socket buffer is full, the selector tells when it can take the next message
+            writable = false;
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          }
+        }
+        long wait = sent < addresses.length ? start + sent * sendInterval - now : deadline - now;
+        if (sent == addresses.length && wait <= 0) {
+          break;
+        }
+        if (!writable) {
+          selector.select();
+        } else if (wait > 0) {
+          // rounded up, so a sub-millisecond wait doesn't turn into a busy loop
+          selector.select((wait + 999_999) / 1_000_000);
+        } else {
+          selector.selectNow();
+        }
+        if (selector.selectedKeys().remove(key)) {
+          if (key.isWritable()) {
+            writable = true;
+            key.interestOps(SelectionKey.OP_READ);
+          }
+          if (key.isReadable()) {
+            replies.receive(channel);
+          }
+        }
+      }
+    }
+    List<DiscoveredDevice> devices = replies.result.getDevices();
+    replies.metrics.discoveryCompleted(devices.size(), replies.firstResponseMillis,
+        replies.lastResponseMillis);
+    log.debug("swept [{}] addresses. Discovered devices: [{}]", sent, devices);
+    return devices;
+  }
+
+  private boolean send(DatagramChannel channel, int address) throws IOException {
+    SocketAddress target = new InetSocketAddress(InetAddress.getByAddress(new byte[] {
+        (byte) (address >>> 24), (byte) (address >> 16), (byte) (address >> 8), (byte) address}),
+        port);
+    try {
+      return channel.send(searchMessage.duplicate(), target) > 0;
+    } catch (IOException e) {
+      // e.g. no route to this host. the others may still be reachable
+      log.debug("could not send discovery message to [{}]", target, e);
+      return true;
+    }
+  }
+
+  /**
+   * Receives and collects the replies of one sweep.
+   */
+  private class Replies {
+
+    private final DiscoveryMetrics metrics;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(UDPListener.DEFAULT_PACKET_SIZE);
+    private final DeviceCollector result = new DeviceCollector();
+    private final long start = System.nanoTime();
+    private long firstResponseMillis = -1;
+    private long lastResponseMillis = -1;
+
+    Replies(DiscoveryMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    void receive(DatagramChannel channel) throws IOException {
+      buffer.clear();
+      SocketAddress sender;
+      while ((sender = channel.receive(buffer)) != null) {
+        log.debug("received message from [{}].", sender);
+        metrics.packetReceived(null);
+        if (!buffer.hasRemaining()) {
+          metrics.packetDropped();
+        }
+        buffer.flip();
+        long parseStart = System.nanoTime();
+        DiscoveredDevice device = responseParser.parseResponse(buffer);
+        metrics.packetParsed(System.nanoTime() - parseStart);
+        if (device.getId() == null) {
+          metrics.packetMalformed();
+        } else if (result.add(device)) {
+          lastResponseMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+          if (firstResponseMillis < 0) {
+            firstResponseMillis = lastResponseMillis;
+          }
+        }
+        buffer.clear();
+      }
+    }
+
+  }
+
+  /**
+   * @return the host addresses of all networks.
+   */
+  static int[] addresses(Collection<String> networks) {
+    List<Ipv4Network> parsed = new ArrayList<>(networks.size());
+    long total = 0;
+    for (String network : networks) {
+      Ipv4Network ipv4Network = Ipv4Network.parse(network);
+      parsed.add(ipv4Network);
+      total += ipv4Network.size();
+    }
+    if (total > MAX_ADDRESSES) {
+      throw new IllegalArgumentException(
+          "too many addresses: [" + total + "]. At most " + MAX_ADDRESSES + " are allowed");
+    }
+    int[] result = new int[(int) total];
+    int count = 0;
+    for (Ipv4Network network : parsed) {
+      long size = network.size();
+      // network and broadcast address are no hosts, unless the network is too small to have them
+      long first = size > 2 ? 1 : 0;
+      long last = size > 2 ? size - 2 : size - 1;
+      for (long i = first; i <= last; i++) {
+        result[count++] = network.getAddress() + (int) i;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static de.wlami.yeelight.control.ControlClientTest.discovered;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.simulator.SimulatedDevice;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+public class BatchSenderTest {
+
+  private static final List<Object> OK = Collections.singletonList("ok");
+
+  private final DeviceController controller = mock(DeviceController.class);
+  private final BatchSender sender = new BatchSender(controller);
+
+  @After
+  public void tearDown() {
+    sender.close();
+  }
+
+  private static DiscoveredDevice device(String id, String... supportedFunctions) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    device.getSupportedFunctions().addAll(Arrays.asList(supportedFunctions));
+    return device;
+  }
+
+  private static List<DiscoveredDevice> devices(int count) {
+    List<DiscoveredDevice> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(device("0x" + i));
+    }
+    return result;
+  }
+
+  @Test
+  public void send_deviceWithoutMethod_isSkipped() throws Exception {
+    DiscoveredDevice supporting = device("0x1", "set_power");
+    DiscoveredDevice other = device("0x2", "get_prop");
+    when(controller.send(supporting, "set_power", "on"))
+        .thenReturn(CompletableFuture.completedFuture(OK));
+    BatchResult result =
+        sender.send(Arrays.asList(supporting, other), device -> true, "set_power", "on").get();
+    assertThat(result.getSucceeded().keySet(), is(Collections.singleton("0x1")));
+    assertThat(result.getSkipped(), is(Collections.singletonList("0x2")));
+    assertThat(result.isSuccessful(), is(true));
+    verify(controller, never()).send(other, "set_power", "on");
+  }
+
+  @Test
+  public void send_ids_reportsUnknownIds() throws Exception {
+    when(controller.send(any(DiscoveredDevice.class), anyString(), any()))
+        .thenReturn(CompletableFuture.completedFuture(OK));
+    BatchResult result =
+        sender.send(devices(3), Arrays.asList("0x1", "0x9"), "toggle").get(1, TimeUnit.SECONDS);
+    assertThat(result.getSucceeded().keySet(), is(Collections.singleton("0x1")));
+    assertThat(result.getUnknown(), is(Collections.singletonList("0x9")));
+  }
+
+  @Test
+  public void send_manyDevices_limitsCommandsInFlight() throws Exception {
+    Queue<CompletableFuture<List<Object>>> inFlight = new ConcurrentLinkedQueue<>();
+    when(controller.send(any(DiscoveredDevice.class), anyString(), any())).thenAnswer(call -> {
+      CompletableFuture<List<Object>> future = new CompletableFuture<>();
+      inFlight.add(future);
+      return future;
+    });
+    sender.setConcurrency(4);
+    CompletableFuture<BatchResult> result = sender.send(devices(10), device -> true, "toggle");
+    int maximum = 0;
+    while (!result.isDone()) {
+      maximum = Math.max(maximum, inFlight.size());
+      inFlight.poll().complete(OK);
+    }
+    assertThat(maximum, is(4));
+    assertThat(result.get().getSucceeded().size(), is(10));
+  }
+
+  @Test
+  public void send_synchronouslyFailingController_doesNotRecurse() throws Exception {
+    CompletableFuture<List<Object>> failure = new CompletableFuture<>();
+    failure.completeExceptionally(new IllegalArgumentException("no location"));
+    when(controller.send(any(DiscoveredDevice.class), anyString(), any())).thenReturn(failure);
+    sender.setConcurrency(1);
+    BatchResult result = sender.send(devices(20000), device -> true, "toggle").get();
+    assertThat(result.getFailed().size(), is(20000));
+  }
+
+  @Test
+  public void send_deviceDoesNotAnswer_failsWithTimeout() throws Exception {
+    DiscoveredDevice silent = device("0x1");
+    DiscoveredDevice answering = device("0x2");
+    when(controller.send(silent, "toggle")).thenReturn(new CompletableFuture<>());
+    when(controller.send(answering, "toggle")).thenReturn(CompletableFuture.completedFuture(OK));
+    sender.setTimeoutMillis(100);
+    BatchResult result =
+        sender.send(Arrays.asList(silent, answering), device -> true, "toggle").get();
+    assertThat(result.getFailed().get("0x1"), instanceOf(TimeoutException.class));
+    assertThat(result.getSucceeded().keySet(), is(Collections.singleton("0x2")));
+    assertThat(result.isSuccessful(), is(false));
+  }
+
+  @Test
+  public void close_deviceDoesNotAnswer_completesBatch() throws Exception {
+    when(controller.send(any(DiscoveredDevice.class), anyString(), any()))
+        .thenReturn(new CompletableFuture<>());
+    CompletableFuture<BatchResult> batch = sender.send(devices(2), device -> true, "toggle");
+    sender.close();
+    BatchResult result = batch.get(1, TimeUnit.SECONDS);
+    assertThat(result.getFailed().get("0x0"), instanceOf(IllegalStateException.class));
+    assertThat(result.getFailed().size(), is(2));
+  }
+
+  @Test
+  public void send_afterClose_failsWithoutSending() throws Exception {
+    sender.close();
+    BatchResult result = sender.send(devices(2), device -> true, "toggle").get(1, TimeUnit.SECONDS);
+    assertThat(result.getFailed().get("0x1"), instanceOf(IllegalStateException.class));
+    verify(controller, never()).send(any(DiscoveredDevice.class), anyString(), any());
+  }
+
+  @Test
+  public void send_simulatedFleet_switchesAllDevices() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(100);
+    config.setControlEnabled(true);
+    try (YeelightSimulator simulator = new YeelightSimulator(config);
+        ControlClient client = new ControlClient()) {
+      simulator.start();
+      List<DiscoveredDevice> fleet = new ArrayList<>();
+      for (SimulatedDevice simulated : simulator.getDevices()) {
+        fleet.add(discovered(simulated));
+      }
+      BatchSender fleetSender = new BatchSender(client);
+      fleetSender.setConcurrency(10);
+      BatchResult result = fleetSender
+          .send(fleet, device -> true, "set_power", "on", DeviceController.EFFECT_SUDDEN, 0)
+          .get(10, TimeUnit.SECONDS);
+      assertThat(result.getSucceeded().size(), is(100));
+      assertThat(client.getProperties(fleet.get(99), "power").get().get("power"), is("on"));
+    }
+  }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.simulator.SimulatedDevice;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+public class ControlClientTest {
+
+  private YeelightSimulator simulator;
+  private ControlClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(3);
+    config.setControlEnabled(true);
+    simulator = new YeelightSimulator(config);
+    simulator.start();
+    client = new ControlClient();
+  }
+
+  @After
+  public void tearDown() {
+    client.close();
+    simulator.close();
+  }
+
+  static DiscoveredDevice discovered(SimulatedDevice simulated) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(simulated.getId());
+    device.setLocation(URI.create(simulated.getLocation()));
+    return device;
+  }
+
+  @Test
+  public void setPower_simulatedDevice_returnsOk() throws Exception {
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    assertThat(client.setPower(device, true).get(5, TimeUnit.SECONDS),
+        is(Collections.singletonList((Object) "ok")));
+    assertThat(client.getProperties(device, "power").get(5, TimeUnit.SECONDS).get("power"),
+        is("on"));
+  }
+
+  @Test
+  public void send_manyCommandsInFlight_usesOneConnectionPerDevice() throws Exception {
+    List<CompletableFuture<List<Object>>> futures = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      for (SimulatedDevice simulated : simulator.getDevices()) {
+        futures.add(client.setBrightness(discovered(simulated), i));
+      }
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+    assertThat(client.getConnectionCount(), is(3));
+    assertThat(simulator.getCommandsReceived().get(), is(300L));
+    DiscoveredDevice device = discovered(simulator.getDevices().get(1));
+    assertThat(client.getProperties(device, "bright").get(5, TimeUnit.SECONDS).get("bright"),
+        is("100"));
+  }
+
+  @Test
+  public void send_afterDeviceClosedConnection_reconnects() throws Exception {
+    SimulatedDevice simulated = simulator.getDevices().get(0);
+    DiscoveredDevice device = discovered(simulated);
+    client.toggle(device).get(5, TimeUnit.SECONDS);
+    simulator.disconnectClients(simulated);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (client.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(client.toggle(device).get(5, TimeUnit.SECONDS),
+        is(Collections.singletonList((Object) "ok")));
+  }
+
+  @Test
+  public void send_unsupportedMethod_failsWithoutSending() throws Exception {
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    device.getSupportedFunctions().add("get_prop");
+    assertFailure(client.setPower(device, true), UnsupportedOperationException.class);
+    assertThat(simulator.getCommandsReceived().get(), is(0L));
+  }
+
+  @Test
+  public void send_deviceReportsError_failsWithCommandException() throws Exception {
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    assertFailure(client.send(device, "set_bright", "bright"), CommandException.class);
+  }
+
+  @Test
+  public void send_unreachableDevice_fails() throws Exception {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x1");
+    device.setLocation(URI.create("yeelight://127.0.0.1:1"));
+    assertFailure(client.toggle(device), java.io.IOException.class);
+  }
+
+  @Test
+  public void send_connectBlocked_doesNotHoldUpOtherDevices() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    ControlClient blocking = new ControlClient() {
+      @Override
+      protected DeviceConnection connect(String deviceId, InetSocketAddress address,
+          Consumer<Map<String, Object>> notifications)
+          throws IOException {
+        if ("0xslow".equals(deviceId)) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          throw new IOException("unreachable");
+        }
+        return super.connect(deviceId, address, notifications);
+      }
+    };
+    try {
+      DiscoveredDevice slow = new DiscoveredDevice();
+      slow.setId("0xslow");
+      slow.setLocation(URI.create("yeelight://127.0.0.1:1"));
+      CompletableFuture<List<Object>> slowResult = blocking.toggle(slow);
+      DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+      assertThat(blocking.setPower(device, true).get(5, TimeUnit.SECONDS),
+          is(Collections.singletonList((Object) "ok")));
+      assertThat(slowResult.isDone(), is(false));
+      release.countDown();
+      assertFailure(slowResult, IOException.class);
+    } finally {
+      release.countDown();
+      blocking.close();
+    }
+  }
+
+  @Test
+  public void send_afterClose_failsImmediately() throws Exception {
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    client.close();
+    CompletableFuture<List<Object>> result = client.setPower(device, true);
+    assertThat(result.isCompletedExceptionally(), is(true));
+    assertFailure(result, IllegalStateException.class);
+    assertThat(client.getConnectionCount(), is(0));
+  }
+
+  @Test
+  public void send_withMetrics_reportsLatencyAndErrors() throws Exception {
+    ControlMetrics metrics = mock(ControlMetrics.class);
+    client.setMetrics(metrics);
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    client.setPower(device, true).get(5, TimeUnit.SECONDS);
+    assertFailure(client.send(device, "set_bright", "bright"), CommandException.class);
+    verify(metrics, timeout(5000)).commandCompleted(eq(device.getId()), eq("set_power"),
+        longThat(latency -> latency > 0), isNull());
+    verify(metrics, timeout(5000)).commandCompleted(eq(device.getId()), eq("set_bright"),
+        anyLong(), any(CommandException.class));
+  }
+
+  @Test
+  public void send_customThreadFactory_readsWithItsThreads() throws Exception {
+    AtomicInteger created = new AtomicInteger();
+    try (ControlClient custom = new ControlClient(runnable -> {
+      created.incrementAndGet();
+      Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    })) {
+      DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+      custom.setPower(device, true).get(5, TimeUnit.SECONDS);
+      custom.setPower(device, false).get(5, TimeUnit.SECONDS);
+    }
+    assertThat(created.get(), is(1));
+  }
+
+  @Test
+  public void addNotificationListener_propertyChanged_receivesNotification() throws Exception {
+    DiscoveredDevice device = discovered(simulator.getDevices().get(2));
+    CountDownLatch latch = new CountDownLatch(1);
+    List<Map<String, Object>> received = new ArrayList<>();
+    client.addNotificationListener((deviceId, properties) -> {
+      if (deviceId.equals(device.getId())) {
+        received.add(properties);
+        latch.countDown();
+      }
+    });
+    client.setRgb(device, 0x00ff00).get(5, TimeUnit.SECONDS);
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(received.get(0).get("rgb"), is((Object) 65280L));
+  }
+
+  private static void assertFailure(CompletableFuture<?> future, Class<?> type)
+      throws Exception {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("expected " + type.getSimpleName());
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(type));
+    }
+  }
+
+}
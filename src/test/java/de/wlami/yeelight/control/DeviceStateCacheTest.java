@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static de.wlami.yeelight.control.ControlClientTest.discovered;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.simulator.SimulatedDevice;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+public class DeviceStateCacheTest {
+
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final DeviceStateCache cache = new DeviceStateCache(clock::get);
+  private final List<DeviceState[]> changes = new ArrayList<>();
+
+  private static DiscoveredDevice device() {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x1");
+    device.setPower("off");
+    device.setBrightness(100);
+    device.setColorRGB(16711680);
+    return device;
+  }
+
+  private static Map<String, Object> props(Object... keysAndValues) {
+    Map<String, Object> result = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      result.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return result;
+  }
+
+  @Test
+  public void update_discoveredDevice_takesOverSnapshot() {
+    cache.update(device());
+    DeviceState state = cache.get("0x1");
+    assertThat(state.getPower(), is("off"));
+    assertThat(state.getBrightness(), is(100));
+    assertThat(state.getUpdated(), is(1000L));
+  }
+
+  @Test
+  public void propertiesChanged_knownDevice_appliesChangedValues() {
+    cache.update(device());
+    clock.set(2000);
+    cache.propertiesChanged("0x1", props("power", "on", "bright", 30L, "ct", "2700"));
+    DeviceState state = cache.get("0x1");
+    assertThat(state.getPower(), is("on"));
+    assertThat(state.getBrightness(), is(30));
+    assertThat(state.getColorTemperature(), is(2700));
+    assertThat(state.getColorRGB(), is(16711680));
+    assertThat(state.getUpdated(), is(2000L));
+  }
+
+  @Test
+  public void propertiesChanged_sameValues_doesNotNotify() {
+    cache.update(device());
+    cache.addListener((previous, current) -> changes.add(new DeviceState[] {previous, current}));
+    clock.set(2000);
+    cache.propertiesChanged("0x1", props("power", "off", "bright", "100"));
+    cache.update(device());
+    assertThat(changes.isEmpty(), is(true));
+    assertThat(cache.get("0x1").getUpdated(), is(1000L));
+  }
+
+  @Test
+  public void addListener_device_receivesOnlyItsChanges() {
+    cache.update(device());
+    cache.addListener("0x1",
+        (previous, current) -> changes.add(new DeviceState[] {previous, current}));
+    cache.propertiesChanged("0x2", props("power", "on"));
+    cache.propertiesChanged("0x1", props("power", "on"));
+    assertThat(changes.size(), is(1));
+    assertThat(changes.get(0)[0].getPower(), is("off"));
+    assertThat(changes.get(0)[1].getPower(), is("on"));
+  }
+
+  @Test
+  public void deviceExpired_knownDevice_removesStateAndNotifies() {
+    cache.update(device());
+    cache.addListener((previous, current) -> changes.add(new DeviceState[] {previous, current}));
+    cache.deviceExpired(device());
+    assertThat(cache.get("0x1"), is(nullValue()));
+    assertThat(changes.get(0)[1], is(nullValue()));
+  }
+
+  @Test
+  public void refresh_simulatedDevice_followsNotifications() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(1);
+    config.setControlEnabled(true);
+    try (YeelightSimulator simulator = new YeelightSimulator(config);
+        NioControlEngine engine = new NioControlEngine(1)) {
+      simulator.start();
+      SimulatedDevice simulated = simulator.getDevices().get(0);
+      DiscoveredDevice device = discovered(simulated);
+      DeviceStateCache states = new DeviceStateCache();
+      engine.addNotificationListener(states);
+      assertThat(states.refresh(engine, device).get(5, TimeUnit.SECONDS).getPower(), is("off"));
+      CountDownLatch latch = new CountDownLatch(1);
+      states.addListener(device.getId(), (previous, current) -> latch.countDown());
+      engine.setPower(device, true).get(5, TimeUnit.SECONDS);
+      assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+      assertThat(states.get(device.getId()).getPower(), is("on"));
+    }
+  }
+
+}
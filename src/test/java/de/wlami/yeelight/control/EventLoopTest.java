@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class EventLoopTest {
+
+  /** handler that records its failures */
+  private static class RecordingHandler implements EventLoop.Handler {
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<>();
+    private final RuntimeException error;
+
+    RecordingHandler(RuntimeException error) {
+      this.error = error;
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      if (error != null) {
+        throw error;
+      }
+    }
+
+    @Override
+    public void failed(IOException cause) {
+      failures.add(cause);
+    }
+  }
+
+  private static Pipe register(EventLoop loop, EventLoop.Handler handler) throws Exception {
+    Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    CountDownLatch registered = new CountDownLatch(1);
+    loop.execute(() -> {
+      try {
+        pipe.source().register(loop.getSelector(), SelectionKey.OP_READ, handler);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      registered.countDown();
+    });
+    assertTrue(registered.await(5, TimeUnit.SECONDS));
+    return pipe;
+  }
+
+  @Test
+  public void run_handlerThrowsRuntimeException_failsHandlerAndKeepsRunning() throws Exception {
+    try (EventLoop loop = new EventLoop("test-loop")) {
+      IllegalStateException error = new IllegalStateException("broken");
+      RecordingHandler handler = new RecordingHandler(error);
+      Pipe pipe = register(loop, handler);
+      pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+      IOException failure = handler.failures.poll(5, TimeUnit.SECONDS);
+      assertEquals(error, failure.getCause());
+      CountDownLatch executed = new CountDownLatch(1);
+      loop.execute(executed::countDown);
+      assertTrue(executed.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void close_registeredHandler_isFailed() throws Exception {
+    RecordingHandler handler = new RecordingHandler(null);
+    Pipe pipe;
+    try (EventLoop loop = new EventLoop("test-loop")) {
+      pipe = register(loop, handler);
+    }
+    assertTrue(handler.failures.poll(5, TimeUnit.SECONDS) != null);
+    // the channels are closed right after the handlers have been failed
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (pipe.source().isOpen() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(pipe.source().isOpen());
+  }
+
+  @Test
+  public void execute_afterClose_rejectsTask() throws Exception {
+    EventLoop loop = new EventLoop("test-loop");
+    loop.close();
+    assertFalse(loop.execute(() -> {
+    }));
+  }
+
+  @Test
+  public void send_loopClosed_failsImmediately() throws Exception {
+    EventLoop loop = new EventLoop("test-loop");
+    loop.close();
+    NioConnection connection = new NioConnection("0x1",
+        InetSocketAddress.createUnresolved("127.0.0.1", 55443), loop, props -> {
+        });
+    connection.open(mock(ScheduledExecutorService.class), 1000);
+    CompletableFuture<List<Object>> result =
+        connection.send("set_power", Collections.singletonList("on"));
+    assertTrue(result.isDone());
+    try {
+      result.get();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+      return;
+    }
+    fail("send on a stopped loop succeeded");
+  }
+
+}
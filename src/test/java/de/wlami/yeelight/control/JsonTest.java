@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonTest {
+
+  @Test
+  public void command_mixedParams_encodesLine() {
+    assertThat(Json.command(1, "set_power", Arrays.asList("on", "smooth", 500)),
+        is("{\"id\":1,\"method\":\"set_power\",\"params\":[\"on\",\"smooth\",500]}"));
+  }
+
+  @Test
+  public void command_specialCharacters_escapes() {
+    assertThat(Json.command(2, "set_name", Collections.singletonList("a\"b\\c\n")),
+        is("{\"id\":2,\"method\":\"set_name\",\"params\":[\"a\\\"b\\\\c\\n\"]}"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void parse_response_returnsMapWithResult() {
+    Map<String, Object> result = (Map<String, Object>) Json.parse("{\"id\":1, \"result\":[\"ok\"]}");
+    assertThat(result.get("id"), is((Object) 1L));
+    assertThat(result.get("result"), is((Object) Collections.singletonList("ok")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void parse_nestedValues_returnsAllTypes() {
+    Map<String, Object> result = (Map<String, Object>) Json
+        .parse("{\"a\":{\"b\":[1,-2.5,true,false,null]},\"c\":\"\\u0041\\t\"}");
+    List<Object> values = (List<Object>) ((Map<String, Object>) result.get("a")).get("b");
+    assertThat(values, is(Arrays.asList((Object) 1L, -2.5, true, false, null)));
+    assertThat(result.get("c"), is((Object) "A\t"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parse_unterminatedObject_throwsException() {
+    Json.parse("{\"id\":1,\"result\":[\"ok\"]");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parse_trailingCharacters_throwsException() {
+    Json.parse("{} x");
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class LineFramerTest {
+
+  private final LineFramer framer = new LineFramer(64);
+  private final List<String> lines = new ArrayList<>();
+
+  private void feed(String data) throws IOException {
+    framer.feed(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)), lines::add);
+  }
+
+  @Test
+  public void feed_severalLinesInOneChunk_emitsAll() throws IOException {
+    feed("{\"id\":1}\r\n{\"id\":2}\r\n\r\n{\"id\":3}\n");
+    assertThat(lines, is(Arrays.asList("{\"id\":1}", "{\"id\":2}", "{\"id\":3}")));
+  }
+
+  @Test
+  public void feed_lineSplitOverChunks_emitsWhenComplete() throws IOException {
+    feed("{\"id\":1,\"res");
+    assertThat(lines.isEmpty(), is(true));
+    assertThat(framer.buffered(), is(12));
+    feed("ult\":[\"ok\"]}\r");
+    feed("\n{\"id\"");
+    assertThat(lines, is(Arrays.asList("{\"id\":1,\"result\":[\"ok\"]}")));
+    assertThat(framer.buffered(), is(5));
+  }
+
+  @Test
+  public void feed_multiByteCharacterSplitOverChunks_decodesCharacter() throws IOException {
+    byte[] data = "\"Küche\"\n".getBytes(StandardCharsets.UTF_8);
+    framer.feed(ByteBuffer.wrap(data, 0, 3), lines::add);
+    framer.feed(ByteBuffer.wrap(data, 3, data.length - 3), lines::add);
+    assertThat(lines, is(Arrays.asList("\"Küche\"")));
+  }
+
+  @Test(expected = IOException.class)
+  public void feed_lineTooLong_throwsException() throws IOException {
+    char[] data = new char[65];
+    Arrays.fill(data, 'x');
+    feed(new String(data));
+  }
+
+}
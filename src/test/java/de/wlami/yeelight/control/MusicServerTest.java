@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static de.wlami.yeelight.control.ControlClientTest.discovered;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.simulator.SimulatedDevice;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+public class MusicServerTest {
+
+  private static DiscoveredDevice musicDevice(SimulatedDevice simulated) {
+    DiscoveredDevice device = discovered(simulated);
+    device.getSupportedFunctions().add(MusicServer.SET_MUSIC);
+    return device;
+  }
+
+  private static String rgb(SimulatedDevice device) {
+    return device.execute("{\"id\":1,\"method\":\"get_prop\",\"params\":[\"rgb\"]}").get(0);
+  }
+
+  @Test
+  public void open_simulatedStrips_streamsFramesToAll() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(3);
+    config.setControlEnabled(true);
+    try (YeelightSimulator simulator = new YeelightSimulator(config);
+        NioControlEngine engine = new NioControlEngine(1);
+        MusicServer server = new MusicServer(engine, InetAddress.getLoopbackAddress())) {
+      simulator.start();
+      List<MusicStream> streams = new ArrayList<>();
+      // all simulated devices share one address, so they have to connect one after another
+      for (SimulatedDevice simulated : simulator.getDevices()) {
+        streams.add(server.open(musicDevice(simulated)).get(5, TimeUnit.SECONDS));
+      }
+      assertThat(server.getStreams().size(), is(3));
+      for (int frame = 0; frame <= 200; frame++) {
+        for (MusicStream stream : streams) {
+          assertThat(stream.setRgb(frame), is(true));
+        }
+      }
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!rgb(simulator.getDevices().get(2)).contains("\"200\"")
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      for (int i = 0; i < 3; i++) {
+        assertThat(rgb(simulator.getDevices().get(i)), is("{\"id\":1,\"result\":[\"200\"]}"));
+        MusicStream stream = streams.get(i);
+        assertThat(stream.getCommandsWritten() + stream.getCommandsReplaced(), is(201L));
+      }
+      assertThat(simulator.getMusicCommandsReceived().get(),
+          is(streams.stream().mapToLong(MusicStream::getCommandsWritten).sum()));
+    }
+  }
+
+  @Test
+  public void open_deviceWithoutMusicMode_fails() throws Exception {
+    DeviceController controller = mock(DeviceController.class);
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x1");
+    device.getSupportedFunctions().add("set_power");
+    try (MusicServer server = new MusicServer(controller, InetAddress.getLoopbackAddress())) {
+      server.open(device).get(1, TimeUnit.SECONDS);
+      fail("expected UnsupportedOperationException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(UnsupportedOperationException.class));
+    }
+  }
+
+  @Test
+  public void open_deviceDoesNotConnect_failsWithTimeout() throws Exception {
+    DeviceController controller = mock(DeviceController.class);
+    when(controller.send(any(DiscoveredDevice.class), anyString(), any()))
+        .thenReturn(CompletableFuture.completedFuture(Collections.singletonList((Object) "ok")));
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x1");
+    device.setLocation(java.net.URI.create("yeelight://127.0.0.1:55443"));
+    device.getSupportedFunctions().add(MusicServer.SET_MUSIC);
+    try (MusicServer server = new MusicServer(controller, InetAddress.getLoopbackAddress())) {
+      server.setConnectTimeoutMillis(100);
+      server.open(device).get(1, TimeUnit.SECONDS);
+      fail("expected TimeoutException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    }
+  }
+
+  @Test
+  public void send_deviceLeftMusicMode_returnsFalse() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(1);
+    config.setControlEnabled(true);
+    try (YeelightSimulator simulator = new YeelightSimulator(config);
+        ControlClient client = new ControlClient();
+        MusicServer server = new MusicServer(client, InetAddress.getLoopbackAddress())) {
+      simulator.start();
+      SimulatedDevice simulated = simulator.getDevices().get(0);
+      MusicStream stream = server.open(musicDevice(simulated)).get(5, TimeUnit.SECONDS);
+      simulator.disconnectClients(simulated);
+      long deadline = System.currentTimeMillis() + 5000;
+      while (stream.isOpen() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThat(stream.setBrightness(10), is(false));
+      assertThat(server.getStreams().isEmpty(), is(true));
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static de.wlami.yeelight.control.ControlClientTest.discovered;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import de.wlami.yeelight.simulator.SimulatedDevice;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+public class NioControlEngineTest {
+
+  private YeelightSimulator simulator;
+  private NioControlEngine engine;
+
+  private void start(int deviceCount, int eventLoops) throws IOException {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(deviceCount);
+    config.setControlEnabled(true);
+    simulator = new YeelightSimulator(config);
+    simulator.start();
+    engine = new NioControlEngine(eventLoops);
+  }
+
+  @After
+  public void tearDown() {
+    if (engine != null) {
+      engine.close();
+    }
+    if (simulator != null) {
+      simulator.close();
+    }
+  }
+
+  @Test
+  public void setPower_simulatedDevice_returnsOk() throws Exception {
+    start(1, 1);
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    assertThat(engine.setPower(device, true).get(5, TimeUnit.SECONDS),
+        is(Collections.singletonList((Object) "ok")));
+    assertThat(engine.getProperties(device, "power").get(5, TimeUnit.SECONDS).get("power"),
+        is("on"));
+  }
+
+  @Test
+  public void send_manyDevicesOnFewLoops_keepsOneConnectionPerDevice() throws Exception {
+    start(500, 2);
+    List<CompletableFuture<List<Object>>> futures = new ArrayList<>();
+    for (int round = 1; round <= 5; round++) {
+      for (SimulatedDevice simulated : simulator.getDevices()) {
+        futures.add(engine.setBrightness(discovered(simulated), round));
+      }
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    assertThat(engine.getConnectionCount(), is(500));
+    assertThat(simulator.getCommandsReceived().get(), is(2500L));
+  }
+
+  @Test
+  public void send_afterDeviceClosedConnection_reconnects() throws Exception {
+    start(1, 1);
+    SimulatedDevice simulated = simulator.getDevices().get(0);
+    DiscoveredDevice device = discovered(simulated);
+    engine.toggle(device).get(5, TimeUnit.SECONDS);
+    simulator.disconnectClients(simulated);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (engine.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(engine.toggle(device).get(5, TimeUnit.SECONDS),
+        is(Collections.singletonList((Object) "ok")));
+  }
+
+  @Test
+  public void send_unreachableDevice_fails() throws Exception {
+    start(0, 1);
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x1");
+    device.setLocation(URI.create("yeelight://127.0.0.1:1"));
+    try {
+      engine.toggle(device).get(5, TimeUnit.SECONDS);
+      fail("expected IOException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+  }
+
+  @Test
+  public void addNotificationListener_propertyChanged_receivesNotification() throws Exception {
+    start(1, 1);
+    DiscoveredDevice device = discovered(simulator.getDevices().get(0));
+    CountDownLatch latch = new CountDownLatch(1);
+    List<Map<String, Object>> received = new ArrayList<>();
+    engine.addNotificationListener((deviceId, properties) -> {
+      received.add(properties);
+      latch.countDown();
+    });
+    engine.setColorTemperature(device, 2700).get(5, TimeUnit.SECONDS);
+    assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(received.get(0).get("ct"), is((Object) 2700L));
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+
+public class RateLimitedControllerTest {
+
+  private final DeviceController delegate = mock(DeviceController.class);
+  private final Queue<String> sent = new ConcurrentLinkedQueue<>();
+  private final DiscoveredDevice device = new DiscoveredDevice();
+  private RateLimitedController controller;
+
+  @Before
+  public void setUp() {
+    device.setId("0x1");
+    when(delegate.send(any(DiscoveredDevice.class), anyString(), any())).thenAnswer(call -> {
+      Object[] arguments = call.getArguments();
+      sent.add(arguments[1] + Arrays.toString(Arrays.copyOfRange(arguments, 2, arguments.length)));
+      return CompletableFuture.completedFuture(Collections.singletonList((Object) "ok"));
+    });
+    // two commands at once, then one every 100ms
+    controller = new RateLimitedController(delegate, 2, 600,
+        RateLimitedController.DEFAULT_COALESCED_METHODS);
+  }
+
+  @After
+  public void tearDown() {
+    controller.close();
+  }
+
+  @Test
+  public void send_withinBurst_sendsImmediately() throws Exception {
+    controller.setBrightness(device, 10).get(0, TimeUnit.SECONDS);
+    controller.toggle(device).get(0, TimeUnit.SECONDS);
+    assertThat(sent.size(), is(2));
+  }
+
+  @Test
+  public void send_throttledSameMethod_sendsOnlyLatestValue() throws Exception {
+    controller.setBrightness(device, 10);
+    controller.setBrightness(device, 20);
+    CompletableFuture<List<Object>> superseded = controller.setBrightness(device, 30);
+    CompletableFuture<List<Object>> latest = controller.setBrightness(device, 40);
+    assertThat(controller.getQueueLength("0x1"), is(1));
+    assertThat(latest.get(1, TimeUnit.SECONDS), is(Collections.singletonList((Object) "ok")));
+    assertThat(superseded.isDone(), is(true));
+    assertThat(sent.size(), is(3));
+    assertThat(sent.toArray()[2], is((Object) "set_bright[40, sudden, 0]"));
+  }
+
+  @Test
+  public void send_throttledDifferentMethods_keepsOrder() throws Exception {
+    controller.setPower(device, true);
+    controller.setPower(device, false);
+    controller.setBrightness(device, 30);
+    controller.toggle(device);
+    CompletableFuture<List<Object>> last = controller.setPower(device, true);
+    last.get(1, TimeUnit.SECONDS);
+    assertThat(sent.toArray(), is(new Object[] {"set_power[on, sudden, 0]",
+        "set_power[off, sudden, 0]", "set_bright[30, sudden, 0]", "toggle[]",
+        "set_power[on, sudden, 0]"}));
+  }
+
+  @Test
+  public void send_rate_staysWithinQuota() throws Exception {
+    long start = System.nanoTime();
+    CompletableFuture<List<Object>> last = null;
+    for (int i = 0; i < 6; i++) {
+      last = controller.toggle(device);
+    }
+    last.get(2, TimeUnit.SECONDS);
+    // 2 at once, the remaining 4 every 100ms
+    assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(390), is(true));
+    assertThat(sent.size(), is(6));
+  }
+
+  @Test
+  public void send_queueFull_rejectsCommand() throws Exception {
+    controller.setMaxQueueLength(1);
+    controller.toggle(device);
+    controller.toggle(device);
+    controller.toggle(device);
+    try {
+      controller.toggle(device).get(1, TimeUnit.SECONDS);
+      fail("expected RejectedExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+    }
+  }
+
+  @Test
+  public void send_throttledSameMethod_keepsPositionOfQueuedCommand() throws Exception {
+    controller.toggle(device);
+    controller.toggle(device);
+    controller.setBrightness(device, 30);
+    CompletableFuture<List<Object>> last = controller.toggle(device);
+    controller.setBrightness(device, 50);
+    last.get(1, TimeUnit.SECONDS);
+    assertThat(sent.toArray(), is(new Object[] {"toggle[]", "toggle[]",
+        "set_bright[50, sudden, 0]", "toggle[]"}));
+  }
+
+  @Test
+  public void send_drainedAndRefilled_dropsDevice() throws Exception {
+    controller.toggle(device).get(1, TimeUnit.SECONDS);
+    assertThat(controller.getDeviceCount(), is(1));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (controller.getDeviceCount() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(controller.getDeviceCount(), is(0));
+  }
+
+  @Test
+  public void send_afterClose_failsImmediately() throws Exception {
+    controller.close();
+    CompletableFuture<List<Object>> result = controller.toggle(device);
+    assertThat(result.isCompletedExceptionally(), is(true));
+    assertThat(sent.size(), is(0));
+  }
+
+}
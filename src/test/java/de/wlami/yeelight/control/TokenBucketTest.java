@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.control;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  @Test
+  public void tryAcquire_fullBucket_allowsBurst() {
+    TokenBucket bucket = new TokenBucket(3, 1000, 0);
+    assertThat(bucket.tryAcquire(0), is(true));
+    assertThat(bucket.tryAcquire(0), is(true));
+    assertThat(bucket.tryAcquire(0), is(true));
+    assertThat(bucket.tryAcquire(0), is(false));
+  }
+
+  @Test
+  public void tryAcquire_afterRefillPeriod_allowsOneMore() {
+    TokenBucket bucket = new TokenBucket(1, 1000, 0);
+    assertThat(bucket.tryAcquire(0), is(true));
+    assertThat(bucket.tryAcquire(999), is(false));
+    assertThat(bucket.tryAcquire(1000), is(true));
+    assertThat(bucket.tryAcquire(1500), is(false));
+  }
+
+  @Test
+  public void tryAcquire_longIdle_doesNotExceedCapacity() {
+    TokenBucket bucket = new TokenBucket(2, 1000, 0);
+    bucket.tryAcquire(0);
+    bucket.tryAcquire(0);
+    assertThat(bucket.tryAcquire(1_000_000), is(true));
+    assertThat(bucket.tryAcquire(1_000_000), is(true));
+    assertThat(bucket.tryAcquire(1_000_000), is(false));
+  }
+
+  @Test
+  public void nanosUntilAvailable_emptyBucket_returnsRemainingRefill() {
+    TokenBucket bucket = new TokenBucket(1, 1000, 0);
+    assertThat(bucket.nanosUntilAvailable(0), is(0L));
+    bucket.tryAcquire(0);
+    assertThat(bucket.nanosUntilAvailable(250), is(750L));
+  }
+
+  @Test
+  public void nanosUntilFull_twoTokensTaken_returnsTimeForBoth() {
+    TokenBucket bucket = new TokenBucket(2, 1000, 0);
+    assertThat(bucket.nanosUntilFull(0), is(0L));
+    bucket.tryAcquire(0);
+    bucket.tryAcquire(0);
+    assertThat(bucket.nanosUntilFull(500), is(1500L));
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import java.net.URI;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class CompactDeviceTest {
+
+  private static DiscoveredDevice device() {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x000000000015243f");
+    device.setCacheControl(3600L);
+    device.setLocation(URI.create("yeelight://192.168.1.239:55443"));
+    device.setModel("color");
+    device.setFirmwareVersion(18);
+    device.setSupportedFunctions(Arrays.asList("get_prop", "set_default", "set_power", "toggle",
+        "set_bright", "start_cf", "stop_cf", "set_scene", "cron_add", "cron_get", "cron_del",
+        "set_ct_abx", "set_rgb"));
+    device.setPower("on");
+    device.setBrightness(100);
+    device.setColorMode(2);
+    device.setColorTemparature(4000);
+    device.setColorRGB(16711680);
+    device.setHue(100);
+    device.setSaturation(35);
+    device.setName("my_bulb");
+    device.setServer("POSIX UPnP/1.0 YGLC/1");
+    device.setFirstSeen(1515000000000L);
+    device.setLastSeen(1515000360000L);
+    return device;
+  }
+
+  @Test
+  public void toDiscoveredDevice_fullDevice_returnsSameValues() {
+    DiscoveredDevice device = device();
+    CompactDevice compact = CompactDevice.of(device);
+    assertThat(compact.toDiscoveredDevice().toString(), is(device.toString()));
+    assertThat(compact.getIpv4Address(), is(0xc0a801ef));
+    assertThat(compact.getPort(), is(55443));
+  }
+
+  @Test
+  public void toDiscoveredDevice_emptyDevice_keepsNullValues() {
+    DiscoveredDevice device = new DiscoveredDevice();
+    CompactDevice compact = CompactDevice.of(device);
+    assertThat(compact.toDiscoveredDevice().toString(), is(device.toString()));
+    assertThat(compact.getBrightness(), is(nullValue()));
+    assertThat(compact.getId(), is(nullValue()));
+  }
+
+  @Test
+  public void toDiscoveredDevice_nullFunctions_staysNull() {
+    DiscoveredDevice device = device();
+    device.setSupportedFunctions(null);
+    CompactDevice compact = CompactDevice.of(device);
+    assertThat(compact.getSupportedFunctions(), is(nullValue()));
+    assertThat(compact.supports("set_power"), is(false));
+    assertThat(compact.toDiscoveredDevice().toString(), is(device.toString()));
+  }
+
+  @Test
+  public void of_unusualValues_keepsThemAsTheyAre() {
+    DiscoveredDevice device = device();
+    device.setId("0x15243F");
+    device.setLocation(URI.create("yeelight://bulb.local:55443"));
+    device.setSupportedFunctions(Arrays.asList("set_power", "get_prop", "future_method"));
+    device.setFirstSeen(-1L);
+    CompactDevice compact = CompactDevice.of(device);
+    assertThat(compact.toDiscoveredDevice().toString(), is(device.toString()));
+    assertThat(compact.getIpv4Address(), is(nullValue()));
+  }
+
+  @Test
+  public void of_locationWithLeadingZeros_keepsLocation() {
+    DiscoveredDevice device = device();
+    device.setLocation(URI.create("yeelight://192.168.001.239:55443"));
+    assertThat(CompactDevice.of(device).getLocation(), is(device.getLocation()));
+  }
+
+  @Test
+  public void of_highAddressAndId_roundTrips() {
+    DiscoveredDevice device = device();
+    device.setId("0xffffffffffffffff");
+    device.setLocation(URI.create("yeelight://255.255.255.255:65535"));
+    CompactDevice compact = CompactDevice.of(device);
+    assertThat(compact.getId(), is("0xffffffffffffffff"));
+    assertThat(compact.getLocation(), is(device.getLocation()));
+  }
+
+  @Test
+  public void supports_knownAndUnknownFunctions() {
+    DiscoveredDevice device = device();
+    assertThat(CompactDevice.of(device).supports("set_rgb"), is(true));
+    assertThat(CompactDevice.of(device).supports("set_music"), is(false));
+    device.setSupportedFunctions(Arrays.asList("get_prop", "future_method"));
+    assertThat(CompactDevice.of(device).supports("future_method"), is(true));
+    assertThat(CompactDevice.of(device).supports("set_rgb"), is(false));
+  }
+
+  @Test
+  public void equals_sameId_isEqual() {
+    DiscoveredDevice other = device();
+    other.setBrightness(1);
+    assertThat(CompactDevice.of(device()).equals(CompactDevice.of(other)), is(true));
+    assertThat(CompactDevice.of(device()).hashCode(), is(CompactDevice.of(other).hashCode()));
+  }
+
+}
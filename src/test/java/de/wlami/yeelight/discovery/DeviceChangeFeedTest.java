@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class DeviceChangeFeedTest {
+
+  private static DiscoveredDevice device(String id, String ip, String power, long seen) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    device.setCacheControl(60L);
+    device.setLocation(URI.create("yeelight://" + ip + ":55443"));
+    device.setModel("color");
+    device.setPower(power);
+    device.setSupportedFunctions(Arrays.asList("set_power", "set_rgb"));
+    device.setFirstSeen(seen);
+    device.setLastSeen(seen);
+    return device;
+  }
+
+  private static List<DeviceChange.Type> types(List<DeviceChange> changes) {
+    return changes.stream().map(DeviceChange::getType).collect(Collectors.toList());
+  }
+
+  @Test
+  public void update_sameValuesAgain_publishesNothing() {
+    DeviceChangeFeed feed = new DeviceChangeFeed();
+    feed.update(device("0x1", "192.168.1.10", "on", 1));
+    feed.update(device("0x1", "192.168.1.10", "on", 2));
+    assertEquals(1, feed.getVersion());
+    assertThat(types(feed.changesSince(0)), Matchers.contains(DeviceChange.Type.APPEARED));
+  }
+
+  @Test
+  public void update_changedValues_publishesChangedFields() {
+    DeviceChangeFeed feed = new DeviceChangeFeed();
+    feed.update(device("0x1", "192.168.1.10", "on", 1));
+    DiscoveredDevice changed = device("0x1", "192.168.1.20", "off", 2);
+    feed.update(changed);
+    List<DeviceChange> changes = feed.changesSince(1);
+    assertEquals(1, changes.size());
+    DeviceChange change = changes.get(0);
+    assertEquals(2, change.getVersion());
+    assertEquals(DeviceChange.Type.UPDATED, change.getType());
+    assertEquals(changed, change.getDevice());
+    assertThat(change.getFields(), Matchers.contains("location", "power"));
+  }
+
+  @Test
+  public void changesSince_latestVersion_isEmpty() {
+    DeviceChangeFeed feed = new DeviceChangeFeed();
+    feed.update(device("0x1", "192.168.1.10", "on", 1));
+    assertTrue(feed.changesSince(feed.getVersion()).isEmpty());
+  }
+
+  @Test
+  public void changesSince_overwrittenVersion_throwsException() {
+    DeviceChangeFeed feed = new DeviceChangeFeed(2);
+    feed.update(device("0x1", "192.168.1.10", "on", 1));
+    feed.update(device("0x2", "192.168.1.11", "on", 1));
+    feed.update(device("0x3", "192.168.1.12", "on", 1));
+    assertThat(types(feed.changesSince(1)),
+        Matchers.contains(DeviceChange.Type.APPEARED, DeviceChange.Type.APPEARED));
+    try {
+      feed.changesSince(0);
+    } catch (IllegalArgumentException e) {
+      DeviceChangeFeed.Snapshot snapshot = feed.snapshot();
+      assertEquals(3, snapshot.getVersion());
+      assertEquals(3, snapshot.getDevices().size());
+      return;
+    }
+    throw new AssertionError("expected IllegalArgumentException");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void changesSince_futureVersion_throwsException() {
+    new DeviceChangeFeed().changesSince(1);
+  }
+
+  @Test
+  public void track_registryChanges_arePublishedInOrder() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    registry.update(device("0x1", "192.168.1.10", "on", 0));
+    DeviceChangeFeed feed = new DeviceChangeFeed();
+    List<DeviceChange> received = new CopyOnWriteArrayList<>();
+    feed.subscribe(received::add);
+    feed.track(registry);
+    registry.update(device("0x1", "192.168.1.10", "off", 0));
+    registry.update(device("0x2", "192.168.1.11", "on", 0));
+    registry.remove("0x2");
+    now.set(60_000);
+    registry.expire();
+    assertThat(types(received),
+        Matchers.contains(DeviceChange.Type.APPEARED, DeviceChange.Type.UPDATED,
+            DeviceChange.Type.APPEARED, DeviceChange.Type.REMOVED, DeviceChange.Type.EXPIRED));
+    assertEquals(received, feed.changesSince(0));
+    assertTrue(feed.snapshot().getDevices().isEmpty());
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class DeviceCollectorTest {
+
+  @Test
+  public void add_sameIdTwice_mergesLatestStateAndKeepsFirstSeen() {
+    AtomicLong now = new AtomicLong(1000);
+    DeviceCollector collector = new DeviceCollector(now::get);
+    DiscoveredDevice first = device("0x1");
+    first.setPower(DiscoveredDevice.Constants.POWER_ON);
+    first.setName("kitchen");
+    assertTrue(collector.add(first));
+
+    now.set(2000);
+    DiscoveredDevice second = device("0x1");
+    second.setPower(DiscoveredDevice.Constants.POWER_OFF);
+    assertFalse(collector.add(second));
+
+    DiscoveredDevice merged = collector.get("0x1");
+    assertEquals(1, collector.size());
+    assertEquals(DiscoveredDevice.Constants.POWER_OFF, merged.getPower());
+    assertEquals("kitchen", merged.getName());
+    assertEquals(Long.valueOf(1000), merged.getFirstSeen());
+    assertEquals(Long.valueOf(2000), merged.getLastSeen());
+    // the previously returned state is not touched
+    assertEquals(DiscoveredDevice.Constants.POWER_ON, first.getPower());
+  }
+
+  @Test
+  public void add_noId_isIgnored() {
+    DeviceCollector collector = new DeviceCollector();
+    assertFalse(collector.add(new DiscoveredDevice()));
+    assertEquals(0, collector.size());
+  }
+
+  @Test
+  public void add_concurrentDuplicates_collectsEachIdOnce() throws Exception {
+    DeviceCollector collector = new DeviceCollector();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            collector.add(device("0x" + (i % 100)));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(100, collector.size());
+  }
+
+  private static DiscoveredDevice device(String id) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    return device;
+  }
+
+}
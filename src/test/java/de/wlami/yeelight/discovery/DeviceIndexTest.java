@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class DeviceIndexTest {
+
+  private static DiscoveredDevice device(String id, String model, String power, String ip,
+      String... functions) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    device.setCacheControl(60L);
+    device.setModel(model);
+    device.setPower(power);
+    device.setLocation(URI.create("yeelight://" + ip + ":55443"));
+    device.setSupportedFunctions(Arrays.asList(functions));
+    return device;
+  }
+
+  private static List<String> ids(List<DiscoveredDevice> devices) {
+    return devices.stream().map(DiscoveredDevice::getId).collect(Collectors.toList());
+  }
+
+  private static DeviceIndex index() {
+    DeviceIndex index = new DeviceIndex();
+    index.update(device("0x1", "color", "on", "192.168.1.10", "set_power", "set_rgb"));
+    index.update(device("0x2", "color", "off", "192.168.1.11", "set_power", "set_rgb"));
+    index.update(device("0x3", "mono", "on", "192.168.1.12", "set_power"));
+    index.update(device("0x4", "color", "on", "192.168.2.10", "set_power", "set_rgb"));
+    index.update(device("0x5", "stripe", "on", "10.0.0.5", "set_power", "set_rgb"));
+    return index;
+  }
+
+  @Test
+  public void query_allCriteria_returnsIntersection() {
+    assertThat(ids(index().query().model("color").supports("set_rgb").power("on")
+        .subnet("192.168.1.0/24").list()), Matchers.contains("0x1"));
+  }
+
+  @Test
+  public void query_singleCriteria_usesIndex() {
+    DeviceIndex index = index();
+    assertThat(ids(index.query().model("color").list()),
+        Matchers.containsInAnyOrder("0x1", "0x2", "0x4"));
+    assertThat(ids(index.query().supports("set_rgb").list()),
+        Matchers.containsInAnyOrder("0x1", "0x2", "0x4", "0x5"));
+    assertThat(ids(index.query().power("off").list()), Matchers.contains("0x2"));
+    assertEquals(5, index.query().count());
+    assertEquals(0, index.query().model("ceiling").count());
+  }
+
+  @Test
+  public void query_subnets_matchesPrefix() {
+    DeviceIndex index = index();
+    assertThat(ids(index.query().subnet("192.168.0.0/16").list()),
+        Matchers.containsInAnyOrder("0x1", "0x2", "0x3", "0x4"));
+    assertThat(ids(index.query().subnet("192.168.1.8/30").list()),
+        Matchers.containsInAnyOrder("0x1", "0x2"));
+    assertThat(ids(index.query().subnet("10.0.0.5").list()), Matchers.contains("0x5"));
+    assertEquals(5, index.query().subnet("0.0.0.0/0").count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void subnet_invalidNetwork_throwsException() {
+    new DeviceIndex().query().subnet("192.168.1/24");
+  }
+
+  @Test
+  public void update_changedDevice_movesIndexEntries() {
+    DeviceIndex index = index();
+    index.update(device("0x2", "color", "on", "192.168.2.11", "set_power"));
+    assertEquals(0, index.query().power("off").count());
+    assertThat(ids(index.query().supports("set_rgb").list()),
+        Matchers.containsInAnyOrder("0x1", "0x4", "0x5"));
+    assertThat(ids(index.query().subnet("192.168.2.0/24").list()),
+        Matchers.containsInAnyOrder("0x2", "0x4"));
+  }
+
+  @Test
+  public void track_registryChanges_keepsIndexUpToDate() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    registry.update(device("0x1", "color", "on", "192.168.1.10", "set_rgb"));
+    DeviceIndex index = new DeviceIndex();
+    index.track(registry);
+    DiscoveredDevice notify = new DiscoveredDevice();
+    notify.setId("0x1");
+    notify.setPower("off");
+    notify.setSupportedFunctions(null);
+    registry.update(notify);
+    registry.update(device("0x2", "mono", "on", "192.168.1.11"));
+    assertThat(ids(index.query().power("off").supports("set_rgb").list()),
+        Matchers.contains("0x1"));
+
+    now.set(60_000);
+    registry.expire();
+    assertEquals(0, index.size());
+    assertEquals(0, index.query().model("color").count());
+  }
+
+}
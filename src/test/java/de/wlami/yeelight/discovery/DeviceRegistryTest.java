@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class DeviceRegistryTest {
+
+  @Test
+  public void update_newDevice_canBeLookedUpById() {
+    DeviceRegistry registry = new DeviceRegistry();
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x123");
+    registry.update(device);
+    assertSame(device, registry.get("0x123"));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void update_sameIdTwice_replacesEntry() {
+    DeviceRegistry registry = new DeviceRegistry();
+    DiscoveredDevice first = new DiscoveredDevice();
+    first.setId("0x123");
+    first.setPower(DiscoveredDevice.Constants.POWER_OFF);
+    DiscoveredDevice second = new DiscoveredDevice();
+    second.setId("0x123");
+    second.setPower(DiscoveredDevice.Constants.POWER_ON);
+    registry.update(first);
+    registry.update(second);
+    assertEquals(1, registry.size());
+    assertEquals(DiscoveredDevice.Constants.POWER_ON, registry.get("0x123").getPower());
+  }
+
+  @Test
+  public void update_deviceWithoutId_isIgnored() {
+    DeviceRegistry registry = new DeviceRegistry();
+    registry.update(new DiscoveredDevice());
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void remove_knownDevice_isGone() {
+    DeviceRegistry registry = new DeviceRegistry();
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x123");
+    registry.update(device);
+    registry.remove("0x123");
+    assertNull(registry.get("0x123"));
+  }
+
+  @Test
+  public void expire_maxAgePassed_removesDeviceAndNotifies() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    List<String> events = new ArrayList<>();
+    registry.addListener(recordingListener(events));
+    registry.update(device("0x1", 10L));
+    registry.update(device("0x2", 60L));
+    now.set(9_000);
+    registry.expire();
+    assertEquals(2, registry.size());
+    now.set(10_000);
+    registry.expire();
+    assertNull(registry.get("0x1"));
+    assertEquals(1, registry.size());
+    assertThat(events, Matchers.contains("added 0x1", "added 0x2", "expired 0x1"));
+  }
+
+  @Test
+  public void expire_withMetrics_reportsSizeAndExpiries() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+    registry.setMetrics(metrics);
+    registry.update(device("0x1", 10L));
+    registry.update(device("0x2", 10L));
+    registry.update(device("0x2", 10L));
+    now.set(10_000);
+    registry.expire();
+    InOrder inOrder = inOrder(metrics);
+    inOrder.verify(metrics).registrySizeChanged(1);
+    inOrder.verify(metrics).registrySizeChanged(2);
+    inOrder.verify(metrics, times(2)).deviceExpired();
+    inOrder.verify(metrics).registrySizeChanged(0);
+    verifyNoMoreInteractions(metrics);
+  }
+
+  @Test
+  public void expire_refreshedBeforeMaxAge_keepsDevice() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    List<String> events = new ArrayList<>();
+    registry.addListener(recordingListener(events));
+    registry.update(device("0x1", 10L));
+    now.set(8_000);
+    registry.update(device("0x1", 10L));
+    now.set(12_000);
+    registry.expire();
+    assertEquals(1, registry.size());
+    now.set(18_000);
+    registry.expire();
+    assertEquals(0, registry.size());
+    assertThat(events, Matchers.contains("added 0x1", "refreshed 0x1", "expired 0x1"));
+  }
+
+  @Test
+  public void expire_noMaxAge_neverExpires() {
+    AtomicLong now = new AtomicLong(0);
+    DeviceRegistry registry = new DeviceRegistry(now::get);
+    registry.update(device("0x1", null));
+    now.set(Long.MAX_VALUE / 2);
+    registry.expire();
+    assertEquals(1, registry.size());
+  }
+
+  private static DiscoveredDevice device(String id, Long maxAge) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    device.setCacheControl(maxAge);
+    return device;
+  }
+
+  private static DeviceRegistryListener recordingListener(List<String> events) {
+    return new DeviceRegistryListener() {
+      @Override
+      public void deviceAdded(DiscoveredDevice device) {
+        events.add("added " + device.getId());
+      }
+
+      @Override
+      public void deviceRefreshed(DiscoveredDevice previous, DiscoveredDevice current) {
+        events.add("refreshed " + current.getId());
+      }
+
+      @Override
+      public void deviceExpired(DiscoveredDevice device) {
+        events.add("expired " + device.getId());
+      }
+    };
+  }
+
+}
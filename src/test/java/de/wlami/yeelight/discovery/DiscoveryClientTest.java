@@ -19,12 +19,32 @@
  */
 package de.wlami.yeelight.discovery;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
 
@@ -39,4 +59,264 @@ public class DiscoveryClientTest {
     verify(mockSocket).send(ArgumentMatchers.any(DatagramPacket.class));
   }
 
+  @Test
+  public void discoverAsync_listener_isCalledForEachDevice() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"), LoopbackResponder.reply("0x1"))) {
+      List<String> reported = new CopyOnWriteArrayList<>();
+      List<DiscoveredDevice> result = loopbackClient(responder.getAddress())
+          .discoverAsync(300, TimeUnit.MILLISECONDS, loopback(), device -> {
+            reported.add(device.getId());
+          }).get(5, TimeUnit.SECONDS);
+      assertThat(reported, Matchers.contains("0x1", "0x2"));
+      assertEquals(2, result.size());
+    }
+  }
+
+  @Test
+  public void discoverFirst_knownId_completesBeforeTimeout() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"))) {
+      long start = System.nanoTime();
+      DiscoveredDevice device = loopbackClient(responder.getAddress())
+          .discoverFirst(10, TimeUnit.SECONDS, loopback(), d -> "0x2".equals(d.getId()))
+          .get(5, TimeUnit.SECONDS);
+      assertEquals("0x2", device.getId());
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+  }
+
+  @Test
+  public void discoverFirst_unknownId_failsWithTimeout() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      try {
+        loopbackClient(responder.getAddress())
+            .discoverFirst(200, TimeUnit.MILLISECONDS, loopback(), d -> "0x9".equals(d.getId()))
+            .get(5, TimeUnit.SECONDS);
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TimeoutException);
+        return;
+      }
+      throw new AssertionError("expected a timeout");
+    }
+  }
+
+  @Test
+  public void discoverAsync_limitReached_completesEarly() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"), LoopbackResponder.reply("0x3"))) {
+      List<DiscoveredDevice> result = loopbackClient(responder.getAddress())
+          .discoverAsync(10, TimeUnit.SECONDS, loopback(), d -> true, 2)
+          .get(5, TimeUnit.SECONDS);
+      assertEquals(2, result.size());
+    }
+  }
+
+  @Test
+  public void discover_loopbackResponder_returnsDevices() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      List<DiscoveredDevice> result =
+          loopbackClient(responder.getAddress()).discover(200, TimeUnit.MILLISECONDS, loopback());
+      assertEquals(1, result.size());
+    }
+  }
+
+  @Test
+  public void discoverAsync_firstSearchLost_retransmissionFindsDevice() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      responder.setIgnoredSearches(1);
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+      policy.setInitialIntervalMillis(50);
+      client.setSearchPolicy(policy);
+      List<DiscoveredDevice> result =
+          client.discoverAsync(1, TimeUnit.SECONDS, loopback(), device -> {
+          }).get(5, TimeUnit.SECONDS);
+      assertEquals(1, result.size());
+      assertThat(responder.getSearches(), Matchers.greaterThanOrEqualTo(2));
+    }
+  }
+
+  @Test
+  public void discoverAsync_quietPeriod_completesBeforeTimeout() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+      policy.setInitialIntervalMillis(20);
+      policy.setQuietPeriodMillis(100);
+      client.setSearchPolicy(policy);
+      long start = System.nanoTime();
+      List<DiscoveredDevice> result =
+          client.discoverAsync(10, TimeUnit.SECONDS, loopback(), device -> {
+          }).get(5, TimeUnit.SECONDS);
+      assertEquals(2, result.size());
+      assertEquals(RetransmitSearchPolicy.DEFAULT_TRANSMISSIONS, responder.getSearches());
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+  }
+
+  @Test
+  public void discoverAsync_onlyLastSearchAnswered_completesAfterQuietPeriod() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      responder.setIgnoredSearches(RetransmitSearchPolicy.DEFAULT_TRANSMISSIONS - 1);
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+      policy.setInitialIntervalMillis(50);
+      policy.setQuietPeriodMillis(100);
+      client.setSearchPolicy(policy);
+      long start = System.nanoTime();
+      List<DiscoveredDevice> result =
+          client.discoverAsync(5, TimeUnit.SECONDS, loopback(), device -> {
+          }).get(10, TimeUnit.SECONDS);
+      assertEquals(1, result.size());
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+      client.close();
+    }
+  }
+
+  @Test
+  public void discoverAsync_expectedDevicesFound_completesBeforeTimeout() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+      policy.setQuietPeriodMillis(0);
+      policy.setExpectedDevices(2);
+      client.setSearchPolicy(policy);
+      List<DiscoveredDevice> result =
+          client.discoverAsync(10, TimeUnit.SECONDS, loopback(), device -> {
+          }).get(5, TimeUnit.SECONDS);
+      assertEquals(2, result.size());
+    }
+  }
+
+  @Test
+  public void discoverAsync_withMetrics_reportsPacketsAndResponseTimes() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"), LoopbackResponder.reply("0x1"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+      client.setMetrics(metrics);
+      client.discoverAsync(10, TimeUnit.SECONDS, loopback(), d -> true, 2).get(5,
+          TimeUnit.SECONDS);
+      verify(metrics, timeout(5000).atLeast(2)).packetReceived(loopback());
+      verify(metrics, timeout(5000)).discoveryCompleted(eq(2),
+          longThat(first -> first >= 0), longThat(last -> last >= 0));
+    }
+  }
+
+  @Test
+  public void close_runningDiscovery_completesWithDevicesFoundSoFar() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      CountDownLatch found = new CountDownLatch(1);
+      CompletableFuture<List<DiscoveredDevice>> future =
+          client.discoverAsync(1, TimeUnit.MINUTES, loopback(), device -> found.countDown());
+      assertTrue(found.await(5, TimeUnit.SECONDS));
+      client.close();
+      assertEquals(1, future.get(5, TimeUnit.SECONDS).size());
+    }
+  }
+
+  @Test
+  public void discover_concurrentCalls_shareOneSearch() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      NetworkInterface networkInterface = loopback();
+      ExecutorService callers = Executors.newFixedThreadPool(4);
+      try {
+        List<CompletableFuture<List<DiscoveredDevice>>> results = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 4; i++) {
+          results.add(CompletableFuture.supplyAsync(
+              () -> client.discover(300, TimeUnit.MILLISECONDS, networkInterface), callers));
+        }
+        for (CompletableFuture<List<DiscoveredDevice>> result : results) {
+          assertEquals(1, result.get(5, TimeUnit.SECONDS).size());
+        }
+        assertEquals(1, responder.getSearches());
+      } finally {
+        callers.shutdown();
+        client.close();
+      }
+    }
+  }
+
+  @Test
+  public void discover_resultCached_doesNotSearchAgain() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      client.setResultCacheMillis(TimeUnit.MINUTES.toMillis(1));
+      assertEquals(1, client.discover(200, TimeUnit.MILLISECONDS, loopback()).size());
+      long start = System.nanoTime();
+      assertEquals(1, client.discover(200, TimeUnit.MILLISECONDS, loopback()).size());
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+      assertEquals(1, responder.getSearches());
+      client.clearResultCache();
+      client.discover(200, TimeUnit.MILLISECONDS, loopback());
+      assertEquals(2, responder.getSearches());
+      client.close();
+    }
+  }
+
+  @Test
+  public void discover_cacheDisabled_searchesEachTime() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      DiscoveryClient client = loopbackClient(responder.getAddress());
+      client.discover(100, TimeUnit.MILLISECONDS, loopback());
+      client.discover(100, TimeUnit.MILLISECONDS, loopback());
+      assertEquals(2, responder.getSearches());
+      client.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setResultCacheMillis_negative_throwsException() {
+    new DiscoveryClient().setResultCacheMillis(-1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void discoverAsync_closedClient_throwsException() throws Exception {
+    DiscoveryClient client = new DiscoveryClient();
+    client.close();
+    client.discoverAsync(1, TimeUnit.SECONDS, loopback(), device -> {
+    });
+  }
+
+  @Test
+  public void close_injectedExecutor_keepsExecutorRunning() throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      SocketAddress target = responder.getAddress();
+      DiscoveryClient client = new DiscoveryClient(executor) {
+        @Override
+        protected void sendDiscoveryPacket(DatagramSocket socket) throws IOException {
+          byte[] searchPayload = createSearchRequest();
+          socket.send(new DatagramPacket(searchPayload, searchPayload.length, target));
+        }
+      };
+      assertEquals(1, client.discoverAsync(10, TimeUnit.SECONDS, loopback(), d -> true, 1)
+          .get(5, TimeUnit.SECONDS).size());
+      client.close();
+      assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  static NetworkInterface loopback() throws IOException {
+    return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+  }
+
+  /** a client that sends its search messages to the given address instead of the group */
+  static DiscoveryClient loopbackClient(SocketAddress target) {
+    return new DiscoveryClient() {
+      @Override
+      protected void sendDiscoveryPacket(DatagramSocket socket) throws IOException {
+        byte[] searchPayload = createSearchRequest();
+        socket.send(new DatagramPacket(searchPayload, searchPayload.length, target));
+      }
+    };
+  }
+
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import de.wlami.yeelight.simulator.SimulatorConfig;
+import de.wlami.yeelight.simulator.YeelightSimulator;
+
+/**
+ * Runs the discovery against a simulated fleet including jitter, duplicates and malformed packets.
+ */
+public class DiscoveryLoadTest {
+
+  @Test
+  public void discoverAsync_simulatedFleet_findsEveryDeviceOnce() throws Exception {
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(300);
+    // a single listener thread with debug logging can't keep up with a burst of replies, so the
+    // replies are spread over one second like real devices do
+    config.setMaxResponseDelayMillis(1000);
+    config.setDuplicateRate(0.2);
+    config.setMalformedRate(0.1);
+    try (YeelightSimulator simulator = new YeelightSimulator(config)) {
+      simulator.start();
+      List<DiscoveredDevice> result = DiscoveryClientTest.loopbackClient(simulator.getAddress())
+          .discoverAsync(10, TimeUnit.SECONDS, DiscoveryClientTest.loopback(), device -> true, 300)
+          .get();
+      assertEquals(300, result.size());
+    }
+  }
+
+  @Test
+  public void discoveryService_notifyTraffic_registryContainsFleet() throws Exception {
+    MulticastSocket serviceSocket =
+        new MulticastSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(200);
+    config.setNotifyIntervalMillis(200);
+    config.setNotifyTarget((InetSocketAddress) serviceSocket.getLocalSocketAddress());
+    try (YeelightSimulator simulator = new YeelightSimulator(config);
+        DiscoveryService service = new DiscoveryService(null) {
+          @Override
+          protected MulticastSocket createSocket() {
+            return serviceSocket;
+          }
+
+          @Override
+          public void search() throws IOException {
+            // the simulator only advertises
+          }
+        }) {
+      service.start();
+      simulator.start();
+      long deadline = System.currentTimeMillis() + 5000;
+      while (service.getRegistry().size() < 200 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+      }
+      assertEquals(200, service.getRegistry().size());
+    }
+  }
+
+}
@@ -24,6 +24,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 import lombok.val;
@@ -74,9 +76,97 @@ public class DiscoveryResponseParserTest {
     assertEquals("lalala", response.getName());
   }
 
+  @Test
+  public void parseResponseBytes_fullInput_sameAsStringVariant() {
+    DiscoveryResponseParser parser = new DiscoveryResponseParser();
+    byte[] data = RESPONSE1.getBytes(StandardCharsets.UTF_8);
+    DiscoveredDevice expected = parser.parseResponse(RESPONSE1);
+    DiscoveredDevice response = parser.parseResponse(data, 0, data.length);
+    assertEquals(expected.toString(), response.toString());
+  }
+
+  @Test
+  public void parseResponseBytes_crlfAndMixedCaseKeys_sameAsStringVariant() {
+    val INPUT = RESPONSE1.replace("\n", "\r\n").replace("id:", "ID:").replace("model:", "Model:");
+    DiscoveryResponseParser parser = new DiscoveryResponseParser();
+    byte[] data = INPUT.getBytes(StandardCharsets.UTF_8);
+    DiscoveredDevice response = parser.parseResponse(data, 0, data.length);
+    assertEquals(parser.parseResponse(INPUT).toString(), response.toString());
+  }
+
+  @Test
+  public void parseResponseBytes_sliceOfLargerBuffer_ignoresBytesOutsideSlice() {
+    byte[] payload = "id: 0x123\nbright: 55\n".getBytes(StandardCharsets.UTF_8);
+    byte[] buffer = new byte[4096];
+    buffer[0] = 'x';
+    System.arraycopy(payload, 0, buffer, 1, payload.length);
+    val RESULT = new DiscoveryResponseParser().parseResponse(buffer, 1, payload.length);
+    assertEquals("0x123", RESULT.getId());
+    assertEquals(new Integer(55), RESULT.getBrightness());
+    assertNull(RESULT.getName());
+  }
+
+  @Test
+  public void parseResponseBytes_directBuffer_returnsAllFields() {
+    byte[] data = RESPONSE1.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+    buffer.put(data).flip();
+    DiscoveryResponseParser parser = new DiscoveryResponseParser();
+    val RESULT = parser.parseResponse(buffer);
+    assertEquals(parser.parseResponse(RESPONSE1).toString(), RESULT.toString());
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void parseResponseBytes_malformedLines_skipsThem() {
+    val INPUT = "HTTP/1.1 200 OK\n" //
+        + "id\n" //
+        + "name:\n" //
+        + ": 0x1\n" //
+        + "bright: bright\n" //
+        + "hue: 99999999999\n" //
+        + "Cache-Control: no-cache\n" //
+        + "Location: not a uri\n" //
+        + "id: 0x42";
+    byte[] data = INPUT.getBytes(StandardCharsets.UTF_8);
+    val RESULT = new DiscoveryResponseParser().parseResponse(data, 0, data.length);
+    assertEquals("0x42", RESULT.getId());
+    assertNull(RESULT.getName());
+    assertNull(RESULT.getBrightness());
+    assertNull(RESULT.getHue());
+    assertNull(RESULT.getCacheControl());
+    assertNull(RESULT.getLocation());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseResponseBytes_nullParam_throwsException() {
+    new DiscoveryResponseParser().parseResponse((byte[]) null, 0, 0);
+  }
+
+  @Test
+  public void parseMaxAge_mixedCase_returnsCorrectLong() {
+    ByteBuffer buffer = ByteBuffer.wrap("MAX-AGE=42".getBytes(StandardCharsets.US_ASCII));
+    val RESULT = new DiscoveryResponseParser().parseMaxAge(buffer, 0, buffer.limit());
+    assertEquals(new Long(42), RESULT);
+  }
+
+  @Test
+  public void parseInteger_bytesNegativeValue_returnsValue() {
+    ByteBuffer buffer = ByteBuffer.wrap("-2147483648".getBytes(StandardCharsets.US_ASCII));
+    val RESULT = new DiscoveryResponseParser().parseInteger(buffer, 0, buffer.limit());
+    assertEquals(new Integer(Integer.MIN_VALUE), RESULT);
+  }
+
+  @Test
+  public void parseResponse_invalidFirmwareVersion_returnsNull() {
+    val RESULT = new DiscoveryResponseParser().parseResponse("id: 0x1\nfw_ver: latest\n");
+    assertEquals("0x1", RESULT.getId());
+    assertNull(RESULT.getFirmwareVersion());
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void parseResponse_nullParam_throwsException() {
-    new DiscoveryResponseParser().parseResponse(null);
+    new DiscoveryResponseParser().parseResponse((String) null);
   }
 
   @Test
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentMatchers;
+
+public class DiscoveryServiceTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final byte[][] MESSAGES = {
+      ("NOTIFY * HTTP/1.1\r\n" //
+          + "Host: 239.255.255.250:1982\r\n" //
+          + "Cache-Control: max-age=3600\r\n" //
+          + "Location: yeelight://192.168.1.239:55443\r\n" //
+          + "NTS: ssdp:alive\r\n" //
+          + "id: 0x123\r\n" //
+          + "power: on\r\n").getBytes(StandardCharsets.UTF_8),
+      // another client searching. this must not end up in the registry
+      DiscoveryClient.DISCOVERY_MESSAGE, //
+      ("HTTP/1.1 200 OK\r\n" //
+          + "Cache-Control: max-age=3600\r\n" //
+          + "id: 0x456\r\n" //
+          + "power: off\r\n").getBytes(StandardCharsets.UTF_8),
+      ("HTTP/1.1 200 OK\r\n" //
+          + "Cache-Control: max-age=3600\r\n" //
+          + "id: 0x123\r\n" //
+          + "power: off\r\n").getBytes(StandardCharsets.UTF_8)};
+
+  @Test
+  public void start_mockedSocket_keepsRegistryUpToDate() throws Exception {
+    MulticastSocket socket = mock(MulticastSocket.class);
+    AtomicBoolean closed = new AtomicBoolean();
+    AtomicInteger received = new AtomicInteger();
+    when(socket.isClosed()).thenAnswer(invocation -> closed.get());
+    doAnswer(invocation -> {
+      closed.set(true);
+      return null;
+    }).when(socket).close();
+    doAnswer(invocation -> {
+      int i = received.get();
+      if (i < MESSAGES.length) {
+        // like a real socket, receive into the buffer of the packet
+        DatagramPacket packet = invocation.getArgument(0);
+        System.arraycopy(MESSAGES[i], 0, packet.getData(), packet.getOffset(),
+            MESSAGES[i].length);
+        packet.setLength(MESSAGES[i].length);
+        packet.setSocketAddress(new InetSocketAddress(12345));
+        received.incrementAndGet();
+        return null;
+      }
+      while (!closed.get()) {
+        Thread.sleep(10);
+      }
+      throw new SocketException("Socket closed");
+    }).when(socket).receive(ArgumentMatchers.any());
+
+    DiscoveryService service = new DiscoveryService(null) {
+      @Override
+      protected MulticastSocket createSocket() {
+        return socket;
+      }
+    };
+    service.start();
+    verify(socket).send(ArgumentMatchers.any(DatagramPacket.class));
+    DeviceRegistry registry = service.getRegistry();
+    // the packets are parsed on other threads than they are received
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((received.get() < MESSAGES.length || registry.get("0x123") == null
+        || DiscoveredDevice.Constants.POWER_ON.equals(registry.get("0x123").getPower()))
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    service.close();
+    verify(socket).close();
+
+    assertEquals(2, registry.size());
+    assertNotNull(registry.get("0x456"));
+    assertEquals(DiscoveredDevice.Constants.POWER_OFF, registry.get("0x123").getPower());
+  }
+
+  @Test
+  public void start_withSnapshot_restoresAndSavesDevices() throws Exception {
+    MulticastSocket socket = mock(MulticastSocket.class);
+    AtomicBoolean closed = new AtomicBoolean();
+    doAnswer(invocation -> {
+      closed.set(true);
+      return null;
+    }).when(socket).close();
+    doAnswer(invocation -> {
+      while (!closed.get()) {
+        Thread.sleep(10);
+      }
+      throw new SocketException("Socket closed");
+    }).when(socket).receive(ArgumentMatchers.any());
+    RegistrySnapshot snapshot =
+        new RegistrySnapshot(folder.getRoot().toPath().resolve("devices.bin"));
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId("0x123");
+    device.setCacheControl(3600L);
+    device.setLastSeen(System.currentTimeMillis());
+    snapshot.write(Collections.singletonList(device));
+
+    DiscoveryService service = new DiscoveryService(null) {
+      @Override
+      protected MulticastSocket createSocket() {
+        return socket;
+      }
+    };
+    service.setSnapshot(snapshot);
+    service.start();
+    assertNotNull(service.getRegistry().get("0x123"));
+    service.getRegistry().remove("0x123");
+    service.close();
+    assertTrue(snapshot.read().isEmpty());
+  }
+
+  @Test
+  public void start_searchFails_closesSocketAndCanBeStartedAgain() throws Exception {
+    MulticastSocket failing = blockingSocket();
+    doThrow(new IOException("network is unreachable")).when(failing)
+        .send(ArgumentMatchers.any(DatagramPacket.class));
+    MulticastSocket working = blockingSocket();
+    Queue<MulticastSocket> sockets = new ArrayDeque<>(Arrays.asList(failing, working));
+    DiscoveryService service = new DiscoveryService(null) {
+      @Override
+      protected MulticastSocket createSocket() {
+        return sockets.remove();
+      }
+    };
+    try {
+      service.start();
+      fail("expected IOException");
+    } catch (IOException e) {
+      verify(failing).close();
+    }
+    service.start();
+    verify(working).send(ArgumentMatchers.any(DatagramPacket.class));
+    service.close();
+  }
+
+  /**
+   * @return a mocked socket that receives nothing until it is closed.
+   */
+  private static MulticastSocket blockingSocket() throws IOException {
+    MulticastSocket socket = mock(MulticastSocket.class);
+    AtomicBoolean closed = new AtomicBoolean();
+    when(socket.isClosed()).thenAnswer(invocation -> closed.get());
+    doAnswer(invocation -> {
+      closed.set(true);
+      return null;
+    }).when(socket).close();
+    doAnswer(invocation -> {
+      while (!closed.get()) {
+        Thread.sleep(10);
+      }
+      throw new SocketException("Socket closed");
+    }).when(socket).receive(ArgumentMatchers.any());
+    return socket;
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void search_notStarted_throwsException() throws Exception {
+    new DiscoveryService(null).search();
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers every search message it receives on a loopback socket with the configured replies.
+ */
+class LoopbackResponder implements AutoCloseable {
+
+  private final DatagramSocket socket;
+  private final byte[][] replies;
+  private final long delayMillis;
+  private final Thread thread;
+  private final AtomicInteger searches = new AtomicInteger();
+  private volatile int ignoredSearches;
+
+  /**
+   * @param delayMillis pause before each reply
+   * @param replies the replies for each search
+   */
+  LoopbackResponder(long delayMillis, String... replies) throws IOException {
+    this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    this.delayMillis = delayMillis;
+    this.replies = new byte[replies.length][];
+    for (int i = 0; i < replies.length; i++) {
+      this.replies[i] = replies[i].getBytes(StandardCharsets.UTF_8);
+    }
+    this.thread = new Thread(this::respond, "loopback-responder");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  static String reply(String id) {
+    return "HTTP/1.1 200 OK\r\nCache-Control: max-age=3600\r\nid: " + id
+        + "\r\nLocation: yeelight://127.0.0.1:55443\r\nsupport: get_prop set_power\r\n";
+  }
+
+  /**
+   * @param ignoredSearches number of searches that are not answered, as if they have been lost.
+   */
+  void setIgnoredSearches(int ignoredSearches) {
+    this.ignoredSearches = ignoredSearches;
+  }
+
+  int getSearches() {
+    return searches.get();
+  }
+
+  SocketAddress getAddress() {
+    return socket.getLocalSocketAddress();
+  }
+
+  private void respond() {
+    try {
+      while (true) {
+        DatagramPacket search = new DatagramPacket(new byte[1024], 1024);
+        socket.receive(search);
+        if (searches.incrementAndGet() <= ignoredSearches) {
+          continue;
+        }
+        for (byte[] reply : replies) {
+          if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+          }
+          socket.send(new DatagramPacket(reply, reply.length, search.getSocketAddress()));
+        }
+      }
+    } catch (IOException | InterruptedException e) {
+      // closed
+    }
+  }
+
+  @Override
+  public void close() {
+    socket.close();
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class PacketRingTest {
+
+  @Test
+  public void constructor_capacity_isRoundedUpToPowerOfTwo() {
+    assertEquals(1, new PacketRing(1, 16).getCapacity());
+    assertEquals(4, new PacketRing(3, 16).getCapacity());
+    assertEquals(256, new PacketRing(256, 16).getCapacity());
+  }
+
+  @Test
+  public void nextBuffer_ringFull_returnsNull() {
+    PacketRing ring = new PacketRing(2, 16);
+    ring.publish(1);
+    ring.publish(2);
+    assertNull(ring.nextBuffer());
+    ring.release(ring.claim());
+    assertNotNull(ring.nextBuffer());
+  }
+
+  @Test
+  public void claim_emptyRing_returnsMinusOne() {
+    PacketRing ring = new PacketRing(2, 16);
+    assertEquals(-1, ring.claim());
+  }
+
+  @Test
+  public void claim_afterWrapAround_returnsPacketsInOrder() {
+    PacketRing ring = new PacketRing(2, 16);
+    for (int i = 0; i < 5; i++) {
+      ring.nextBuffer()[0] = (byte) i;
+      ring.publish(i + 1);
+      long position = ring.claim();
+      assertEquals(i, position);
+      assertEquals(i, ring.buffer(position)[0]);
+      assertEquals(i + 1, ring.length(position));
+      ring.release(position);
+    }
+    assertEquals(-1, ring.claim());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_zeroCapacity_throwsException() {
+    new PacketRing(0, 16);
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+public class ReceiveBufferPoolTest {
+
+  @Test
+  public void acquire_afterRelease_returnsSameBuffer() {
+    ReceiveBufferPool pool = new ReceiveBufferPool(512, 2);
+    byte[] buffer = pool.acquire();
+    assertEquals(512, buffer.length);
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire());
+  }
+
+  @Test
+  public void release_poolFull_dropsBuffer() {
+    ReceiveBufferPool pool = new ReceiveBufferPool(512, 1);
+    byte[] first = pool.acquire();
+    byte[] second = pool.acquire();
+    assertNotSame(first, second);
+    pool.release(first);
+    pool.release(second);
+    assertEquals(1, pool.available());
+  }
+
+  @Test
+  public void release_otherSize_isIgnored() {
+    ReceiveBufferPool pool = new ReceiveBufferPool(512, 1);
+    pool.release(new byte[10]);
+    assertEquals(0, pool.available());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_tooLarge_throwsException() {
+    new ReceiveBufferPool(ReceiveBufferPool.MAX_PACKET_SIZE + 1, 1);
+  }
+
+}
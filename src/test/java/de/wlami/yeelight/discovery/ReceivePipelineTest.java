@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class ReceivePipelineTest {
+
+  private static void send(DatagramSocket target, int count) throws Exception {
+    try (DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+      for (int i = 0; i < count; i++) {
+        byte[] data = ("HTTP/1.1 200 OK\r\nid: 0x" + i + "\r\npower: on\r\n")
+            .getBytes(StandardCharsets.UTF_8);
+        sender.send(new DatagramPacket(data, data.length, new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), target.getLocalPort())));
+      }
+    }
+  }
+
+  private static Thread start(DatagramSocket socket, Consumer<DiscoveredDevice> consumer,
+      PacketRing ring, int workers, OverflowPolicy policy, DiscoveryMetrics metrics) {
+    ReceivePipeline pipeline = new ReceivePipeline(socket, consumer, ring, workers, policy,
+        Executors.defaultThreadFactory(), metrics, null);
+    Thread thread = new Thread(pipeline);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void run_severalWorkers_parsesAllPackets() throws Exception {
+    Set<String> ids = ConcurrentHashMap.newKeySet();
+    CountDownLatch received = new CountDownLatch(50);
+    try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+      start(socket, device -> {
+        ids.add(device.getId());
+        received.countDown();
+      }, new PacketRing(64, 512), 4, OverflowPolicy.DROP, DiscoveryMetrics.NOOP);
+      send(socket, 50);
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+    }
+    assertEquals(50, ids.size());
+  }
+
+  @Test
+  public void run_throwingMetrics_stillParsesPackets() throws Exception {
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+    doThrow(new IllegalStateException("broken")).when(metrics).packetReceived(any());
+    doThrow(new IllegalStateException("broken")).when(metrics).packetParsed(anyLong());
+    CountDownLatch received = new CountDownLatch(3);
+    try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+      start(socket, device -> received.countDown(), new PacketRing(8, 512), 1,
+          OverflowPolicy.DROP, metrics);
+      send(socket, 3);
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void run_ringFullWithDropPolicy_countsDroppedPackets() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+    try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+      start(socket, device -> {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, new PacketRing(2, 512), 1, OverflowPolicy.DROP, metrics);
+      send(socket, 1);
+      assertTrue(blocked.await(5, TimeUnit.SECONDS));
+      // the worker is busy, two packets fill the ring, the rest is dropped
+      send(socket, 10);
+      verify(metrics, timeout(5000).times(8)).packetOverflowed();
+      verify(metrics, never()).packetDropped();
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void run_ringFullWithBlockPolicy_keepsPackets() throws Exception {
+    Set<String> ids = ConcurrentHashMap.newKeySet();
+    CountDownLatch received = new CountDownLatch(20);
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+    try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+      start(socket, device -> {
+        ids.add(device.getId());
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        received.countDown();
+      }, new PacketRing(2, 512), 1, OverflowPolicy.BLOCK, metrics);
+      send(socket, 20);
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+    }
+    assertEquals(20, ids.size());
+    verify(metrics, never()).packetDropped();
+    verify(metrics, never()).packetOverflowed();
+  }
+
+  @Test
+  public void run_socketClosed_stopsReceiverAndWorkers() throws Exception {
+    DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+    CountDownLatch received = new CountDownLatch(1);
+    Thread receiver = start(socket, device -> received.countDown(), new PacketRing(4, 512), 2,
+        OverflowPolicy.DROP, metrics);
+    send(socket, 1);
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+    socket.close();
+    receiver.join(5000);
+    assertThat(receiver.isAlive(), Matchers.is(false));
+    verify(metrics, atLeastOnce()).packetParsed(anyLong());
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RegistrySnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static DiscoveredDevice device(String id, long lastSeen, Long cacheControl) {
+    DiscoveredDevice device = new DiscoveredDevice();
+    device.setId(id);
+    device.setCacheControl(cacheControl);
+    device.setLocation(URI.create("yeelight://192.168.1.239:55443"));
+    device.setModel(DiscoveredDevice.Constants.MODEL_COLOR_BULB);
+    device.setFirmwareVersion(57);
+    device.setSupportedFunctions(Arrays.asList("get_prop", "set_power", "set_rgb"));
+    device.setPower(DiscoveredDevice.Constants.POWER_ON);
+    device.setBrightness(80);
+    device.setColorMode(DiscoveredDevice.Constants.COLOR_MODE_RGB);
+    device.setColorRGB(0xff0000);
+    device.setName("küche");
+    device.setFirstSeen(lastSeen - 1000);
+    device.setLastSeen(lastSeen);
+    return device;
+  }
+
+  @Test
+  public void read_writtenDevices_returnsSameValues() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("devices.bin");
+    RegistrySnapshot snapshot = new RegistrySnapshot(file, () -> 10_000);
+    DiscoveredDevice sparse = new DiscoveredDevice();
+    sparse.setId("0x2");
+    sparse.setSupportedFunctions(null);
+    List<DiscoveredDevice> devices = Arrays.asList(device("0x1", 9_000, 3600L), sparse);
+    snapshot.write(devices);
+
+    List<DiscoveredDevice> read = snapshot.read();
+    assertEquals(2, read.size());
+    assertEquals(devices.get(0).toString(), read.get(0).toString());
+    assertEquals(sparse.toString(), read.get(1).toString());
+  }
+
+  @Test
+  public void read_maxAgePassed_skipsDevice() throws IOException {
+    AtomicLong now = new AtomicLong(0);
+    RegistrySnapshot snapshot =
+        new RegistrySnapshot(folder.getRoot().toPath().resolve("devices.bin"), now::get);
+    snapshot.write(Arrays.asList(device("0x1", 0, 10L), device("0x2", 0, 100L)));
+    now.set(50_000);
+    List<DiscoveredDevice> read = snapshot.read();
+    assertEquals(1, read.size());
+    assertEquals("0x2", read.get(0).getId());
+  }
+
+  @Test
+  public void read_noFile_returnsEmptyList() throws IOException {
+    RegistrySnapshot snapshot =
+        new RegistrySnapshot(folder.getRoot().toPath().resolve("missing.bin"));
+    assertTrue(snapshot.read().isEmpty());
+  }
+
+  @Test(expected = IOException.class)
+  public void read_truncatedFile_throwsException() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("devices.bin");
+    RegistrySnapshot snapshot = new RegistrySnapshot(file, () -> 0);
+    snapshot.write(Collections.singletonList(device("0x1", 0, 3600L)));
+    byte[] content = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(content, content.length - 5));
+    snapshot.read();
+  }
+
+  @Test(expected = IOException.class)
+  public void read_otherFile_throwsException() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("devices.bin");
+    Files.write(file, "HTTP/1.1 200 OK\r\n".getBytes());
+    new RegistrySnapshot(file).read();
+  }
+
+  @Test
+  public void restore_savedRegistry_keepsLastSeenAndSkipsKnownDevices() throws IOException {
+    AtomicLong now = new AtomicLong(1_000);
+    RegistrySnapshot snapshot =
+        new RegistrySnapshot(folder.getRoot().toPath().resolve("devices.bin"), now::get);
+    DeviceRegistry saved = new DeviceRegistry(now::get);
+    saved.update(device("0x1", 1_000, 60L));
+    saved.update(device("0x2", 1_000, 60L));
+    snapshot.save(saved);
+
+    now.set(30_000);
+    DeviceRegistry restored = new DeviceRegistry(now::get);
+    DiscoveredDevice live = device("0x2", 30_000, 60L);
+    live.setPower(DiscoveredDevice.Constants.POWER_OFF);
+    restored.update(live);
+    List<String> added = new ArrayList<>();
+    restored.addListener(new DeviceRegistryListener() {
+      @Override
+      public void deviceAdded(DiscoveredDevice device) {
+        added.add(device.getId());
+      }
+    });
+    assertEquals(1, snapshot.restore(restored));
+    assertEquals(Collections.singletonList("0x1"), added);
+    assertEquals(Long.valueOf(1_000), restored.get("0x1").getLastSeen());
+    assertEquals(DiscoveredDevice.Constants.POWER_OFF, restored.get("0x2").getPower());
+
+    // the restored device expires 60 seconds after it has been seen the last time
+    now.set(62_000);
+    restored.expire();
+    assertNull(restored.get("0x1"));
+    assertEquals(1, restored.size());
+  }
+
+}
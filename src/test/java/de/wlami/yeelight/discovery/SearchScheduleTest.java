@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class SearchScheduleTest {
+
+  private static RetransmitSearchPolicy policy() {
+    RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+    policy.setJitter(0);
+    policy.setInitialIntervalMillis(100);
+    policy.setQuietPeriodMillis(300);
+    return policy;
+  }
+
+  @Test
+  public void retransmitDelayMillis_backoff_doublesInterval() {
+    RetransmitSearchPolicy policy = policy();
+    policy.setTransmissions(4);
+    assertEquals(100, policy.retransmitDelayMillis(1));
+    assertEquals(200, policy.retransmitDelayMillis(2));
+    assertEquals(400, policy.retransmitDelayMillis(3));
+    assertEquals(-1, policy.retransmitDelayMillis(4));
+  }
+
+  @Test
+  public void retransmitDelayMillis_jitter_staysWithinBounds() {
+    RetransmitSearchPolicy policy = policy();
+    policy.setJitter(0.5);
+    for (int i = 0; i < 1000; i++) {
+      long delay = policy.retransmitDelayMillis(1);
+      assertTrue(String.valueOf(delay), delay >= 50 && delay <= 150);
+    }
+  }
+
+  @Test
+  public void isDone_singlePolicy_waitsForTimeout() {
+    SearchSchedule schedule = new SearchSchedule(SearchPolicy.SINGLE, 0, 1000);
+    assertTrue(schedule.isSendDue(0));
+    schedule.sent(0);
+    schedule.found(10);
+    assertFalse(schedule.isSendDue(500));
+    assertFalse(schedule.isDone(999));
+    assertEquals(1000, schedule.nextWakeUp());
+    assertTrue(schedule.isDone(1000));
+  }
+
+  @Test
+  public void isDone_quietAfterLastRetransmission_stopsEarly() {
+    SearchSchedule schedule = new SearchSchedule(policy(), 0, 10_000);
+    schedule.sent(0);
+    schedule.found(20);
+    assertEquals(100, schedule.nextWakeUp());
+    assertTrue(schedule.isSendDue(100));
+    schedule.sent(100);
+    assertFalse(schedule.isDone(250));
+    schedule.sent(300);
+    // no more retransmissions, the quiet period starts with the last activity
+    schedule.found(350);
+    assertEquals(650, schedule.nextWakeUp());
+    assertFalse(schedule.isDone(649));
+    assertTrue(schedule.isDone(650));
+  }
+
+  @Test
+  public void isDone_nothingFound_waitsForTimeout() {
+    SearchSchedule schedule = new SearchSchedule(policy(), 0, 10_000);
+    schedule.sent(0);
+    schedule.sent(100);
+    schedule.sent(300);
+    assertFalse(schedule.isDone(5_000));
+    assertEquals(10_000, schedule.nextWakeUp());
+  }
+
+  @Test
+  public void isDone_expectedDevicesFound_stops() {
+    RetransmitSearchPolicy policy = policy();
+    policy.setExpectedDevices(2);
+    SearchSchedule schedule = new SearchSchedule(policy, 0, 10_000);
+    schedule.sent(0);
+    schedule.found(5);
+    assertFalse(schedule.isDone(5));
+    schedule.found(6);
+    assertTrue(schedule.isDone(6));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setTransmissions_zero_throwsException() {
+    new RetransmitSearchPolicy().setTransmissions(0);
+  }
+
+}
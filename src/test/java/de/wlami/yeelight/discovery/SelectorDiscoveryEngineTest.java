@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class SelectorDiscoveryEngineTest {
+
+  @Test
+  public void discover_twoInterfaces_mergesReplies() throws Exception {
+    NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    try (LoopbackResponder responder = new LoopbackResponder(0,
+        LoopbackResponder.reply("0x1"), LoopbackResponder.reply("0x2"))) {
+      SelectorDiscoveryEngine engine =
+          new SelectorDiscoveryEngine(DiscoveryClient.DISCOVERY_MESSAGE) {
+            @Override
+            protected SocketAddress getSearchTarget() {
+              return responder.getAddress();
+            }
+          };
+
+      List<DiscoveredDevice> result =
+          engine.discover(500, TimeUnit.MILLISECONDS, Arrays.asList(loopback, loopback));
+
+      assertEquals(2, result.size());
+      assertThat(result.stream().map(DiscoveredDevice::getId).collect(Collectors.toList()),
+          Matchers.containsInAnyOrder("0x1", "0x2"));
+    }
+  }
+
+  @Test
+  public void discover_retransmitPolicy_recoversLostSearchAndStopsEarly() throws Exception {
+    NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    try (LoopbackResponder responder =
+        new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      responder.setIgnoredSearches(1);
+      SelectorDiscoveryEngine engine =
+          new SelectorDiscoveryEngine(DiscoveryClient.DISCOVERY_MESSAGE) {
+            @Override
+            protected SocketAddress getSearchTarget() {
+              return responder.getAddress();
+            }
+          };
+      RetransmitSearchPolicy policy = new RetransmitSearchPolicy();
+      policy.setInitialIntervalMillis(20);
+      policy.setQuietPeriodMillis(100);
+
+      long start = System.nanoTime();
+      List<DiscoveredDevice> result = engine.discover(10, TimeUnit.SECONDS,
+          Arrays.asList(loopback), policy, DiscoveryMetrics.NOOP);
+
+      assertEquals(1, result.size());
+      assertEquals(RetransmitSearchPolicy.DEFAULT_TRANSMISSIONS, responder.getSearches());
+      assertThat(System.nanoTime() - start, Matchers.lessThan(TimeUnit.SECONDS.toNanos(5)));
+    }
+  }
+
+}
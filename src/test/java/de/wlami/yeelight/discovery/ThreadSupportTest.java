@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ThreadSupportTest {
+
+  @Test
+  public void daemonThreads_newThread_isNamedDaemon() {
+    Thread thread = ThreadSupport.daemonThreads("test-").newThread(() -> {
+    });
+    assertTrue(thread.isDaemon());
+    assertEquals("test-1", thread.getName());
+  }
+
+  @Test
+  public void newVirtualThreadExecutor_supportedJvm_runsTasks() throws Exception {
+    Assume.assumeTrue(ThreadSupport.isVirtualThreadSupported());
+    ExecutorService executor = ThreadSupport.newVirtualThreadExecutor("test-");
+    try {
+      assertEquals("test-1", executor.submit(() -> Thread.currentThread().getName())
+          .get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void virtualThreads_unsupportedJvm_throwsException() {
+    Assume.assumeTrue(!ThreadSupport.isVirtualThreadSupported());
+    ThreadSupport.virtualThreads("test-");
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+  @Test
+  public void advance_deadlineReached_expiresValue() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 8, 0);
+    wheel.schedule("a", 3000);
+    List<String> expired = new ArrayList<>();
+    wheel.advance(2999, expired::add);
+    assertThat(expired, Matchers.empty());
+    wheel.advance(3000, expired::add);
+    assertThat(expired, Matchers.contains("a"));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void advance_deadlineAfterSeveralRevolutions_expiresOnlyThen() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 8, 0);
+    wheel.schedule("late", 20_000);
+    wheel.schedule("early", 4_000);
+    List<String> expired = new ArrayList<>();
+    for (long now = 0; now < 20_000; now += 1000) {
+      wheel.advance(now, expired::add);
+    }
+    assertThat(expired, Matchers.contains("early"));
+    wheel.advance(20_000, expired::add);
+    assertThat(expired, Matchers.contains("early", "late"));
+  }
+
+  @Test
+  public void advance_largeJump_expiresEverythingDue() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 4, 0);
+    wheel.schedule("a", 1000);
+    wheel.schedule("b", 7000);
+    wheel.schedule("c", 30_000);
+    List<String> expired = new ArrayList<>();
+    wheel.advance(10_000, expired::add);
+    assertThat(expired, Matchers.containsInAnyOrder("a", "b"));
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  public void cancel_scheduledValue_doesNotExpire() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 8, 0);
+    TimingWheel.Timeout<String> a = wheel.schedule("a", 2000);
+    wheel.schedule("b", 2000);
+    wheel.cancel(a);
+    wheel.cancel(a);
+    List<String> expired = new ArrayList<>();
+    wheel.advance(5000, expired::add);
+    assertThat(expired, Matchers.contains("b"));
+  }
+
+  @Test
+  public void schedule_deadlineInThePast_expiresWithNextTick() {
+    TimingWheel<String> wheel = new TimingWheel<>(1000, 8, 10_000);
+    wheel.schedule("a", 0);
+    List<String> expired = new ArrayList<>();
+    wheel.advance(10_999, expired::add);
+    assertThat(expired, Matchers.empty());
+    wheel.advance(11_000, expired::add);
+    assertThat(expired, Matchers.contains("a"));
+  }
+
+}
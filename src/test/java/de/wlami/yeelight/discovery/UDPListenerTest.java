@@ -19,20 +19,30 @@
  */
 package de.wlami.yeelight.discovery;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
@@ -110,4 +120,75 @@ public class UDPListenerTest {
 
   }
 
+  @Test
+  public void run_severalPackets_reusesPooledBufferAndParsesReceivedBytesOnly()
+      throws Exception {
+    DatagramSocket socket = mock(DatagramSocket.class);
+    ReceiveBufferPool pool = new ReceiveBufferPool(256, 1);
+    byte[] pooled = pool.acquire();
+    // leftovers of a longer previous packet must not be parsed
+    Arrays.fill(pooled, (byte) 'x');
+    pool.release(pooled);
+    AtomicBoolean closed = new AtomicBoolean();
+    when(socket.isClosed()).thenAnswer(invocation -> closed.get());
+    String[] messages = {"id: 0x1\nname: a-long-name\n", "id: 0x2\nname: b\n"};
+    List<byte[]> usedBuffers = new ArrayList<>();
+    doAnswer(invocation -> {
+      DatagramPacket packet = invocation.getArgument(0);
+      usedBuffers.add(packet.getData());
+      assertEquals(256, packet.getLength());
+      if (usedBuffers.size() > messages.length) {
+        closed.set(true);
+        throw new SocketException("Socket closed");
+      }
+      byte[] message = messages[usedBuffers.size() - 1].getBytes(StandardCharsets.UTF_8);
+      System.arraycopy(message, 0, packet.getData(), 0, message.length);
+      packet.setLength(message.length);
+      packet.setSocketAddress(new InetSocketAddress(12345));
+      return null;
+    }).when(socket).receive(ArgumentMatchers.any());
+
+    List<DiscoveredDevice> result = new ArrayList<>();
+    new UDPListener(socket, result::add, pool).run();
+
+    for (byte[] buffer : usedBuffers) {
+      assertSame(pooled, buffer);
+    }
+    assertEquals(2, result.size());
+    assertEquals("b", result.get(1).getName());
+    assertEquals(1, pool.available());
+  }
+
+  @Test
+  public void run_withMetrics_countsPackets() throws Exception {
+    DatagramSocket socket = mock(DatagramSocket.class);
+    AtomicBoolean closed = new AtomicBoolean();
+    when(socket.isClosed()).thenAnswer(invocation -> closed.get());
+    String[] messages = {"id: 0x1\n", new String(DiscoveryClient.DISCOVERY_MESSAGE,
+        StandardCharsets.UTF_8), "id: 0x2\nname: " + String.join("", Collections.nCopies(64, "x"))};
+    AtomicInteger received = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (received.get() == messages.length) {
+        closed.set(true);
+        throw new SocketException("Socket closed");
+      }
+      DatagramPacket packet = invocation.getArgument(0);
+      byte[] message = messages[received.getAndIncrement()].getBytes(StandardCharsets.UTF_8);
+      int length = Math.min(message.length, packet.getLength());
+      System.arraycopy(message, 0, packet.getData(), 0, length);
+      packet.setLength(length);
+      packet.setSocketAddress(new InetSocketAddress(12345));
+      return null;
+    }).when(socket).receive(ArgumentMatchers.any());
+    DiscoveryMetrics metrics = mock(DiscoveryMetrics.class);
+
+    new UDPListener(socket, device -> {
+    }, new ReceiveBufferPool(32, 1), metrics, null).run();
+
+    verify(metrics, times(3)).packetReceived(null);
+    verify(metrics, times(3)).packetParsed(ArgumentMatchers.anyLong());
+    verify(metrics).packetMalformed();
+    verify(metrics, times(2)).packetDropped();
+  }
+
 }
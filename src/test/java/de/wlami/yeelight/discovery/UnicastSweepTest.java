@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.discovery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class UnicastSweepTest {
+
+  @Test
+  public void addresses_networks_skipsNetworkAndBroadcastAddress() {
+    int[] addresses = UnicastSweep.addresses(Arrays.asList("192.168.1.0/30", "10.0.0.7"));
+    assertArrayEquals(new int[] {0xc0a80101, 0xc0a80102, 0x0a000007}, addresses);
+    assertEquals(1022, UnicastSweep.addresses(Collections.singletonList("10.1.4.0/22")).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addresses_tooLargeNetwork_throwsException() {
+    UnicastSweep.addresses(Collections.singletonList("10.0.0.0/8"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addresses_invalidNetwork_throwsException() {
+    UnicastSweep.addresses(Collections.singletonList("10.0.0.0/33"));
+  }
+
+  @Test
+  public void sweep_loopbackResponder_findsDevice() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"),
+        LoopbackResponder.reply("0x2"))) {
+      UnicastSweep sweep = new UnicastSweep();
+      sweep.setPort(((InetSocketAddress) responder.getAddress()).getPort());
+      List<DiscoveredDevice> result =
+          sweep.sweep(200, TimeUnit.MILLISECONDS, Collections.singletonList("127.0.0.1"));
+      assertEquals(2, result.size());
+      assertEquals(1, responder.getSearches());
+    }
+  }
+
+  @Test
+  public void sweep_limitedRate_pacesMessages() throws Exception {
+    try (LoopbackResponder responder = new LoopbackResponder(0, LoopbackResponder.reply("0x1"))) {
+      UnicastSweep sweep = new UnicastSweep();
+      sweep.setPort(((InetSocketAddress) responder.getAddress()).getPort());
+      sweep.setPacketsPerSecond(100);
+      long start = System.nanoTime();
+      // 127.0.0.1 is the first of 30 addresses, so only the responder answers
+      List<DiscoveredDevice> result =
+          sweep.sweep(0, TimeUnit.MILLISECONDS, Collections.singletonList("127.0.0.0/27"));
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertEquals(1, result.size());
+      assertThat(elapsed, Matchers.greaterThanOrEqualTo(290L));
+    }
+  }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.simulator;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import de.wlami.yeelight.discovery.DiscoveredDevice;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * State of one simulated device. Renders the discovery messages and executes the JSON commands
+ * received on the control port.
+ */
+public class SimulatedDevice {
+
+  static final List<String> SUPPORTED_FUNCTIONS = Collections.unmodifiableList(Arrays.asList(
+      "get_prop", "set_default", "set_power", "toggle", "set_bright", "start_cf", "stop_cf",
+      "set_scene", "cron_add", "cron_get", "cron_del", "set_ct_abx", "set_rgb", "set_hsv",
+      "set_adjust", "set_music", "set_name"));
+
+  private static final String[] MODELS = {DiscoveredDevice.Constants.MODEL_COLOR_BULB,
+      DiscoveredDevice.Constants.MODEL_WHITE_BULB, DiscoveredDevice.Constants.MODEL_LIGHTSTRIP,
+      DiscoveredDevice.Constants.MODEL_CEILING_LIGHT};
+
+  private static final Pattern ID_PATTERN = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+  private static final Pattern METHOD_PATTERN = Pattern.compile("\"method\"\\s*:\\s*\"([^\"]*)\"");
+  private static final Pattern PARAMS_PATTERN = Pattern.compile("\"params\"\\s*:\\s*\\[(.*?)\\]");
+
+  @Getter
+  private final String id;
+  @Getter
+  private final String model;
+  private final long cacheControlSeconds;
+  @Getter
+  @Setter
+  private volatile String location;
+  private String power = DiscoveredDevice.Constants.POWER_OFF;
+  private int brightness = 100;
+  private int colorMode = DiscoveredDevice.Constants.COLOR_MODE_COLOR_TEMPARATURE;
+  private int colorTemperature = 4000;
+  private int rgb = 16711680;
+  private int hue = 359;
+  private int saturation = 100;
+  private String name = "";
+  private InetSocketAddress musicTarget;
+
+  SimulatedDevice(int index, long cacheControlSeconds) {
+    this.id = String.format("0x%016x", index + 1);
+    this.model = MODELS[index % MODELS.length];
+    this.cacheControlSeconds = cacheControlSeconds;
+  }
+
+  /**
+   * @return the reply to a search request.
+   */
+  public String searchResponse() {
+    return "HTTP/1.1 200 OK\r\n" + headers();
+  }
+
+  /**
+   * @return the periodic advertisement.
+   */
+  public String notifyMessage() {
+    return "NOTIFY * HTTP/1.1\r\n" //
+        + "Host: 239.255.255.250:1982\r\n" //
+        + "NTS: ssdp:alive\r\n" //
+        + headers();
+  }
+
+  private synchronized String headers() {
+    return "Cache-Control: max-age=" + cacheControlSeconds + "\r\n" //
+        + "Date: \r\n" //
+        + "Ext: \r\n" //
+        + "Location: " + location + "\r\n" //
+        + "Server: POSIX UPnP/1.0 YGLC/1\r\n" //
+        + "id: " + id + "\r\n" //
+        + "model: " + model + "\r\n" //
+        + "fw_ver: 57\r\n" //
+        + "support: " + String.join(" ", SUPPORTED_FUNCTIONS) + "\r\n" //
+        + "power: " + power + "\r\n" //
+        + "bright: " + brightness + "\r\n" //
+        + "color_mode: " + colorMode + "\r\n" //
+        + "ct: " + colorTemperature + "\r\n" //
+        + "rgb: " + rgb + "\r\n" //
+        + "hue: " + hue + "\r\n" //
+        + "sat: " + saturation + "\r\n" //
+        + "name: " + name + "\r\n";
+  }
+
+  /**
+   * Executes one command line of the control protocol.
+   *
+   * @param command the JSON command without line terminator.
+   * @return the lines to send back: the response and possibly a <code>props</code> notification.
+   */
+  public synchronized List<String> execute(String command) {
+    List<String> result = new ArrayList<>();
+    Matcher idMatcher = ID_PATTERN.matcher(command);
+    Matcher methodMatcher = METHOD_PATTERN.matcher(command);
+    if (!idMatcher.find() || !methodMatcher.find()) {
+      result.add("{\"id\":-1,\"error\":{\"code\":-1,\"message\":\"invalid command\"}}");
+      return result;
+    }
+    String requestId = idMatcher.group(1);
+    String method = methodMatcher.group(1);
+    List<String> params = parseParams(command);
+    String changed = null;
+    try {
+      switch (method) {
+        case "get_prop":
+          List<String> values = new ArrayList<>();
+          for (String property : params) {
+            values.add("\"" + property(property) + "\"");
+          }
+          result.add("{\"id\":" + requestId + ",\"result\":[" + String.join(",", values) + "]}");
+          return result;
+        case "set_power":
+          power = params.get(0);
+          changed = "\"power\":\"" + power + "\"";
+          break;
+        case "toggle":
+          power = DiscoveredDevice.Constants.POWER_ON.equals(power)
+              ? DiscoveredDevice.Constants.POWER_OFF : DiscoveredDevice.Constants.POWER_ON;
+          changed = "\"power\":\"" + power + "\"";
+          break;
+        case "set_bright":
+          brightness = Integer.parseInt(params.get(0));
+          changed = "\"bright\":" + brightness;
+          break;
+        case "set_ct_abx":
+          colorTemperature = Integer.parseInt(params.get(0));
+          colorMode = DiscoveredDevice.Constants.COLOR_MODE_COLOR_TEMPARATURE;
+          changed = "\"ct\":" + colorTemperature + ",\"color_mode\":" + colorMode;
+          break;
+        case "set_rgb":
+          rgb = Integer.parseInt(params.get(0));
+          colorMode = DiscoveredDevice.Constants.COLOR_MODE_RGB;
+          changed = "\"rgb\":" + rgb + ",\"color_mode\":" + colorMode;
+          break;
+        case "set_hsv":
+          hue = Integer.parseInt(params.get(0));
+          saturation = Integer.parseInt(params.get(1));
+          colorMode = DiscoveredDevice.Constants.COLOR_MODE_HSV;
+          changed = "\"hue\":" + hue + ",\"sat\":" + saturation + ",\"color_mode\":" + colorMode;
+          break;
+        case "set_music":
+          musicTarget = "1".equals(params.get(0))
+              ? new InetSocketAddress(params.get(1), Integer.parseInt(params.get(2))) : null;
+          break;
+        case "set_name":
+          name = params.get(0);
+          changed = "\"name\":\"" + name + "\"";
+          break;
+        default:
+          if (!SUPPORTED_FUNCTIONS.contains(method)) {
+            result.add("{\"id\":" + requestId
+                + ",\"error\":{\"code\":-1,\"message\":\"method not supported\"}}");
+            return result;
+          }
+      }
+    } catch (RuntimeException e) {
+      result.add("{\"id\":" + requestId
+          + ",\"error\":{\"code\":-1,\"message\":\"invalid params\"}}");
+      return result;
+    }
+    result.add("{\"id\":" + requestId + ",\"result\":[\"ok\"]}");
+    if (changed != null) {
+      result.add("{\"method\":\"props\",\"params\":{" + changed + "}}");
+    }
+    return result;
+  }
+
+  /**
+   * @return the music server the device has been told to connect to by the last
+   *         <code>set_music</code> command, or <code>null</code>. Is reset by this call.
+   */
+  synchronized InetSocketAddress takeMusicTarget() {
+    InetSocketAddress result = musicTarget;
+    musicTarget = null;
+    return result;
+  }
+
+  private String property(String property) {
+    switch (property) {
+      case "power":
+        return power;
+      case "bright":
+        return String.valueOf(brightness);
+      case "ct":
+        return String.valueOf(colorTemperature);
+      case "rgb":
+        return String.valueOf(rgb);
+      case "hue":
+        return String.valueOf(hue);
+      case "sat":
+        return String.valueOf(saturation);
+      case "color_mode":
+        return String.valueOf(colorMode);
+      case "name":
+        return name;
+      default:
+        return "";
+    }
+  }
+
+  private static List<String> parseParams(String command) {
+    List<String> result = new ArrayList<>();
+    Matcher matcher = PARAMS_PATTERN.matcher(command);
+    if (matcher.find() && !matcher.group(1).trim().isEmpty()) {
+      for (String param : matcher.group(1).split(",")) {
+        result.add(param.trim().replace("\"", ""));
+      }
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.simulator;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import lombok.Data;
+
+/**
+ * Configuration of a {@link YeelightSimulator}. The defaults simulate ten devices that answer
+ * immediately on an ephemeral loopback port.
+ */
+@Data
+public class SimulatorConfig {
+
+  /** number of simulated devices */
+  private int deviceCount = 10;
+  /** address the discovery socket and the control ports are bound to */
+  private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+  /** port of the discovery socket. 0 picks an ephemeral port, use 1982 to simulate real devices */
+  private int port = 0;
+  /**
+   * if set the discovery socket joins the multicast group 239.255.255.250 on this interface, so
+   * real clients on the network find the simulated devices. Requires port 1982.
+   */
+  private NetworkInterface multicastInterface;
+  /** each reply is delayed by a random value between min and max */
+  private long minResponseDelayMillis = 0;
+  private long maxResponseDelayMillis = 0;
+  /** probability that a device answers a search twice */
+  private double duplicateRate = 0;
+  /** probability that a malformed packet is sent along with a reply */
+  private double malformedRate = 0;
+  /** interval between the NOTIFY advertisements of each device. 0 disables them */
+  private long notifyIntervalMillis = 0;
+  /** where the NOTIFY messages are sent to. Defaults to 239.255.255.250:1982 */
+  private InetSocketAddress notifyTarget;
+  /** max-age that is advertised */
+  private long cacheControlSeconds = 3600;
+  /** whether every device opens a TCP control port which is advertised in its location */
+  private boolean controlEnabled = false;
+  /** seed for the random delays, duplicates and malformed packets */
+  private long seed = 1982;
+
+}
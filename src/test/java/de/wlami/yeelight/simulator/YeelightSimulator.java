@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2018 Wladislaw Mitzel
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package de.wlami.yeelight.simulator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import de.wlami.yeelight.discovery.DiscoveryClient;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Simulates a configurable number of Yeelight devices without any hardware. It answers search
+ * messages on its discovery socket with jittered delays, optionally sends duplicate and malformed
+ * packets as well as periodic NOTIFY advertisements and can open a TCP control port per device.
+ * See {@link SimulatorConfig} for the options.<br>
+ * <br>
+ * In tests, send the search message to {@link #getAddress()} instead of the multicast group. It
+ * can also be started standalone on a real network interface:<br>
+ * <code>java de.wlami.yeelight.simulator.YeelightSimulator &lt;deviceCount&gt; &lt;interfaceAddress&gt;</code>
+ */
+@Slf4j
+public class YeelightSimulator implements AutoCloseable {
+
+  private final SimulatorConfig config;
+  @Getter
+  private final List<SimulatedDevice> devices = new ArrayList<>();
+  private final Random random;
+  private final Map<SimulatedDevice, List<SocketChannel>> connections = new ConcurrentHashMap<>();
+  private final List<ServerSocketChannel> servers = new ArrayList<>();
+
+  @Getter
+  private final AtomicLong searchesReceived = new AtomicLong();
+  @Getter
+  private final AtomicLong repliesSent = new AtomicLong();
+  @Getter
+  private final AtomicLong notifiesSent = new AtomicLong();
+  @Getter
+  private final AtomicLong commandsReceived = new AtomicLong();
+  @Getter
+  private final AtomicLong musicCommandsReceived = new AtomicLong();
+
+  private DatagramSocket socket;
+  private ScheduledExecutorService scheduler;
+  private Selector controlSelector;
+  private Thread receiver;
+  private Thread controlLoop;
+
+  public YeelightSimulator(SimulatorConfig config) {
+    this.config = config;
+    this.random = new Random(config.getSeed());
+    for (int i = 0; i < config.getDeviceCount(); i++) {
+      devices.add(new SimulatedDevice(i, config.getCacheControlSeconds()));
+    }
+  }
+
+  /**
+   * Opens the sockets and starts answering.
+   */
+  public synchronized void start() throws IOException {
+    if (socket != null) {
+      throw new IllegalStateException("simulator has already been started!");
+    }
+    scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "simulator-sender");
+      thread.setDaemon(true);
+      return thread;
+    });
+    openControlPorts();
+    socket = openDiscoverySocket();
+    receiver = new Thread(this::receive, "simulator-receiver");
+    receiver.setDaemon(true);
+    receiver.start();
+    if (config.getNotifyIntervalMillis() > 0) {
+      SocketAddress target = config.getNotifyTarget() != null ? config.getNotifyTarget()
+          : new InetSocketAddress(DiscoveryClient.DISCOVERY_ADDRESS,
+              DiscoveryClient.DISCOVERY_PORT);
+      long interval = config.getNotifyIntervalMillis();
+      for (SimulatedDevice device : devices) {
+        // spread the advertisements over the interval
+        long initialDelay = (long) (random.nextDouble() * interval);
+        scheduler.scheduleAtFixedRate(() -> send(device.notifyMessage(), target, notifiesSent),
+            initialDelay, interval, TimeUnit.MILLISECONDS);
+      }
+    }
+    log.info("simulating [{}] devices on [{}]", devices.size(), getAddress());
+  }
+
+  /**
+   * @return address of the discovery socket.
+   */
+  public SocketAddress getAddress() {
+    return socket.getLocalSocketAddress();
+  }
+
+  private DatagramSocket openDiscoverySocket() throws IOException {
+    NetworkInterface multicastInterface = config.getMulticastInterface();
+    if (multicastInterface == null) {
+      return new DatagramSocket(config.getPort(), config.getBindAddress());
+    }
+    MulticastSocket result = new MulticastSocket(config.getPort());
+    result.setNetworkInterface(multicastInterface);
+    result.joinGroup(new InetSocketAddress(InetAddress.getByName(DiscoveryClient.DISCOVERY_ADDRESS),
+        DiscoveryClient.DISCOVERY_PORT), multicastInterface);
+    return result;
+  }
+
+  private void receive() {
+    DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+    try {
+      while (true) {
+        packet.setData(packet.getData());
+        socket.receive(packet);
+        String message = new String(packet.getData(), 0, packet.getLength(),
+            StandardCharsets.UTF_8);
+        if (message.startsWith("M-SEARCH")) {
+          searchesReceived.incrementAndGet();
+          answer(packet.getSocketAddress());
+        }
+      }
+    } catch (IOException e) {
+      log.debug("simulator stopped receiving", e);
+    }
+  }
+
+  private void answer(SocketAddress client) {
+    long minDelay = config.getMinResponseDelayMillis();
+    long jitter = config.getMaxResponseDelayMillis() - minDelay;
+    for (SimulatedDevice device : devices) {
+      long delay = minDelay + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+      schedule(() -> send(device.searchResponse(), client, repliesSent), delay);
+      if (random.nextDouble() < config.getDuplicateRate()) {
+        schedule(() -> send(device.searchResponse(), client, repliesSent),
+            delay + random.nextInt(10));
+      }
+      if (random.nextDouble() < config.getMalformedRate()) {
+        schedule(() -> send(malformedMessage(), client, null), delay);
+      }
+    }
+  }
+
+  private void schedule(Runnable task, long delayMillis) {
+    if (delayMillis <= 0) {
+      task.run();
+    } else {
+      scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private String malformedMessage() {
+    switch (random.nextInt(3)) {
+      case 0:
+        return "HTTP/1.1 200 OK\r\nid\r\n: 0x1\r\nbright: very\r\nsupport\r\n";
+      case 1:
+        return "HTTP/1.1 500 Internal Server Error\r\n\r\n";
+      default:
+        byte[] garbage = new byte[64];
+        random.nextBytes(garbage);
+        return new String(garbage, StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  private void send(String message, SocketAddress target, AtomicLong counter) {
+    byte[] data = message.getBytes(StandardCharsets.UTF_8);
+    try {
+      socket.send(new DatagramPacket(data, data.length, target));
+      if (counter != null) {
+        counter.incrementAndGet();
+      }
+    } catch (IOException e) {
+      log.debug("could not send message to [{}]", target, e);
+    }
+  }
+
+  private void openControlPorts() throws IOException {
+    String host = config.getBindAddress().getHostAddress();
+    if (!config.isControlEnabled()) {
+      devices.forEach(device -> device.setLocation("yeelight://" + host + ":55443"));
+      return;
+    }
+    controlSelector = Selector.open();
+    for (SimulatedDevice device : devices) {
+      ServerSocketChannel server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(config.getBindAddress(), 0));
+      server.configureBlocking(false);
+      server.register(controlSelector, SelectionKey.OP_ACCEPT, device);
+      servers.add(server);
+      int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+      device.setLocation("yeelight://" + host + ":" + port);
+    }
+    controlLoop = new Thread(this::control, "simulator-control");
+    controlLoop.setDaemon(true);
+    controlLoop.start();
+  }
+
+  /** state of one control connection */
+  private static final class Connection {
+    private final SimulatedDevice device;
+    /** music mode connections execute the commands without answering */
+    private final boolean music;
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private final StringBuilder line = new StringBuilder();
+
+    private Connection(SimulatedDevice device, boolean music) {
+      this.device = device;
+      this.music = music;
+    }
+  }
+
+  private void control() {
+    try {
+      while (controlSelector.isOpen()) {
+        controlSelector.select();
+        Iterator<SelectionKey> keys = controlSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept(key);
+          } else if (key.isReadable()) {
+            read(key);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      log.debug("simulator control loop stopped", e);
+    }
+  }
+
+  private void accept(SelectionKey key) throws IOException {
+    SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+    if (channel == null) {
+      return;
+    }
+    SimulatedDevice device = (SimulatedDevice) key.attachment();
+    channel.configureBlocking(false);
+    channel.register(controlSelector, SelectionKey.OP_READ, new Connection(device, false));
+    connections.computeIfAbsent(device, d -> new CopyOnWriteArrayList<>()).add(channel);
+  }
+
+  private void read(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    Connection connection = (Connection) key.attachment();
+    try {
+      connection.buffer.clear();
+      int read = channel.read(connection.buffer);
+      if (read < 0) {
+        disconnect(key, connection);
+        return;
+      }
+      connection.buffer.flip();
+      String data = StandardCharsets.UTF_8.decode(connection.buffer).toString();
+      for (char c : data.toCharArray()) {
+        if (c == '\n') {
+          String command = connection.line.toString().trim();
+          connection.line.setLength(0);
+          if (command.isEmpty()) {
+            continue;
+          }
+          if (connection.music) {
+            musicCommandsReceived.incrementAndGet();
+            connection.device.execute(command);
+          } else {
+            commandsReceived.incrementAndGet();
+            handle(connection.device, channel, command);
+          }
+        } else {
+          connection.line.append(c);
+        }
+      }
+    } catch (IOException e) {
+      disconnect(key, connection);
+    }
+  }
+
+  private void handle(SimulatedDevice device, SocketChannel channel, String command)
+      throws IOException {
+    List<String> answers = device.execute(command);
+    write(channel, answers.get(0));
+    InetSocketAddress musicTarget = device.takeMusicTarget();
+    if (musicTarget != null) {
+      connectMusic(device, musicTarget);
+    }
+    // property changes are reported to every client of the device
+    for (String notification : answers.subList(1, answers.size())) {
+      for (SocketChannel client : connections.getOrDefault(device, Collections.emptyList())) {
+        try {
+          write(client, notification);
+        } catch (IOException e) {
+          log.debug("could not notify client", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Connects back to the music server like a device does after <code>set_music</code>.
+   */
+  private void connectMusic(SimulatedDevice device, InetSocketAddress target) {
+    try {
+      SocketChannel channel = SocketChannel.open(target);
+      channel.configureBlocking(false);
+      channel.register(controlSelector, SelectionKey.OP_READ, new Connection(device, true));
+      connections.computeIfAbsent(device, d -> new CopyOnWriteArrayList<>()).add(channel);
+    } catch (IOException e) {
+      log.debug("could not connect to music server [{}]", target, e);
+    }
+  }
+
+  private static void write(SocketChannel channel, String line) throws IOException {
+    ByteBuffer data = ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+    while (data.hasRemaining()) {
+      if (channel.write(data) == 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  private void disconnect(SelectionKey key, Connection connection) {
+    key.cancel();
+    connections.getOrDefault(connection.device, Collections.emptyList()).remove(key.channel());
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      log.debug("could not close connection", e);
+    }
+  }
+
+  /**
+   * Closes all control connections of the device, e.g. to simulate a reboot.
+   */
+  public void disconnectClients(SimulatedDevice device) throws IOException {
+    for (SocketChannel channel : connections.getOrDefault(device, Collections.emptyList())) {
+      channel.close();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (socket == null) {
+      return;
+    }
+    socket.close();
+    scheduler.shutdownNow();
+    if (controlSelector != null) {
+      try {
+        // stop the control loop first, it modifies the keys
+        controlSelector.close();
+        controlLoop.join(1000);
+        for (ServerSocketChannel server : servers) {
+          server.close();
+        }
+        for (List<SocketChannel> channels : connections.values()) {
+          for (SocketChannel channel : channels) {
+            channel.close();
+          }
+        }
+      } catch (IOException e) {
+        log.debug("could not close control ports", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    socket = null;
+  }
+
+  /**
+   * Starts a simulator on a real network interface that answers on port 1982.
+   *
+   * @param args number of devices and the IP address of the network interface.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length != 2) {
+      System.err.println("usage: YeelightSimulator <deviceCount> <interfaceAddress>");
+      System.exit(1);
+    }
+    InetAddress address = InetAddress.getByName(args[1]);
+    SimulatorConfig config = new SimulatorConfig();
+    config.setDeviceCount(Integer.parseInt(args[0]));
+    config.setBindAddress(address);
+    config.setPort(DiscoveryClient.DISCOVERY_PORT);
+    config.setMulticastInterface(NetworkInterface.getByInetAddress(address));
+    config.setMaxResponseDelayMillis(200);
+    config.setNotifyIntervalMillis(TimeUnit.MINUTES.toMillis(1));
+    config.setControlEnabled(true);
+    YeelightSimulator simulator = new YeelightSimulator(config);
+    simulator.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+    Thread.currentThread().join();
+  }
+
+}